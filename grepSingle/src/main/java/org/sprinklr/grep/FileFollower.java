@@ -0,0 +1,283 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Byte checkpoints of the files searched, for -fo and -ck, so a file is only read from where the last read stopped:
+ * the offset after the last complete line read and the number of lines up to it, with the identity (inode) of the file.
+ * A file whose identity changed was rotated and one shorter than its offset truncated, both are read from the start;
+ * a last line without its newline is left for the next read, as it may still be being written.
+ * With -ck the checkpoints are kept in a file, read at the start and written after the search and every round of -fo,
+ * so a run picks up where the last one stopped. follow() watches the directories of the files searched with a
+ * WatchService, also polling every POLL_MILLIS in case the file system does not report changes
+ */
+public class FileFollower {
+    static int POLL_MILLIS = 1000;
+
+    private final Path checkpointFile;
+    private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+    private final Set<String> followed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Reads the checkpoints of the file if there is one
+     *
+     * @param checkpointFile null to keep the checkpoints in memory only
+     */
+    public FileFollower(Path checkpointFile) {
+        this.checkpointFile = checkpointFile;
+        if (checkpointFile == null) {
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(checkpointFile)) {
+            String entry;
+            while ((entry = in.readLine()) != null) {
+                // offset, lines, identity, then the path which may hold tabs
+                String[] fields = entry.split("\t", 4);
+                checkpoints.put(fields[3], new Checkpoint(fields[2], Long.parseLong(fields[0]), Integer.parseInt(fields[1])));
+            }
+        } catch (NoSuchFileException e) {
+            // the first run reads every file from the start
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param path
+     * @return the lines of the file after its checkpoint, the checkpoint moves on to the last complete line read once closed
+     * @throws IOException
+     */
+    public LineSource open(String path) throws IOException {
+        followed.add(path);
+        Path file = Paths.get(path);
+        FileChannel channel = FileChannel.open(file);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            String identity = String.valueOf(attrs.fileKey());
+            Checkpoint from = checkpoints.get(path);
+            if (from == null || !from.identity.equals(identity) || attrs.size() < from.offset) {
+                from = new Checkpoint(identity, 0, 0);
+            }
+            channel.position(from.offset);
+            return new Tail(path, channel, from);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the checkpoints over the checkpoint file, if there is one
+     */
+    public void save() {
+        if (checkpointFile == null) {
+            return;
+        }
+        Path written = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(written)) {
+            for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+                Checkpoint at = entry.getValue();
+                out.write(at.offset + "\t" + at.lines + "\t" + at.identity + "\t" + entry.getKey());
+                out.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(written, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for the files read so far to change and hands those that did to the search, round after round,
+     * saving the checkpoints after each; returns only once the thread is interrupted
+     *
+     * @param search searches the files changed, through open()
+     */
+    public void follow(Consumer<List<String>> search) {
+        WatchService watcher = null;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new HashSet<>();
+            for (String path : followed) {
+                Path directory = Paths.get(path).toAbsolutePath().getParent();
+                if (directories.add(directory)) {
+                    directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+        } catch (IOException e) {
+            // polling alone
+            e.printStackTrace();
+        }
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (watcher != null) {
+                    WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    while (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                        key = watcher.poll();
+                    }
+                } else {
+                    Thread.sleep(POLL_MILLIS);
+                }
+                List<String> changed = new ArrayList<>();
+                for (String path : followed) {
+                    if (hasChanged(path)) {
+                        changed.add(path);
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    search.accept(changed);
+                    save();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the file holds bytes past its checkpoint, or was rotated or truncated since
+     */
+    private boolean hasChanged(String path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            Checkpoint at = checkpoints.get(path);
+            return at == null || attrs.size() != at.offset || !at.identity.equals(String.valueOf(attrs.fileKey()));
+        } catch (IOException e) {
+            // gone, maybe rotated and not created again yet
+            return false;
+        }
+    }
+
+    private static class Checkpoint {
+        private final String identity;
+        private final long offset;
+        private final int lines;
+
+        Checkpoint(String identity, long offset, int lines) {
+            this.identity = identity;
+            this.offset = offset;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Complete lines from the checkpoint on, split on '\n' with a '\r' before it dropped, decoded with the default charset
+     */
+    private class Tail implements LineSource {
+        private final String path;
+        private final FileChannel channel;
+        private final String identity;
+        private final int linesBefore;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private byte[] pending = new byte[256];
+        private int pendingLength;
+        private long offset;
+        private int lines;
+
+        Tail(String path, FileChannel channel, Checkpoint from) {
+            this.path = path;
+            this.channel = channel;
+            this.identity = from.identity;
+            this.linesBefore = from.lines;
+            this.offset = from.offset;
+            this.lines = from.lines;
+            buffer.flip();
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            byte[] bytes = buffer.array();
+            while (true) {
+                int start = buffer.position();
+                for (int i = start; i < buffer.limit(); i++) {
+                    if (bytes[i] == '\n') {
+                        buffer.position(i + 1);
+                        offset += pendingLength + (i - start) + 1;
+                        lines++;
+                        return decode(bytes, start, i);
+                    }
+                }
+                // no newline left in the buffer, its rest waits for the next read
+                append(bytes, start, buffer.limit());
+                buffer.clear();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        public int linesBefore() {
+            return linesBefore;
+        }
+
+        @Override
+        public void close() throws IOException {
+            checkpoints.put(path, new Checkpoint(identity, offset, lines));
+            channel.close();
+        }
+
+        private void append(byte[] bytes, int from, int to) {
+            int length = to - from;
+            if (pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pendingLength + length, pending.length * 2));
+            }
+            System.arraycopy(bytes, from, pending, pendingLength, length);
+            pendingLength += length;
+        }
+
+        private String decode(byte[] bytes, int from, int to) {
+            if (pendingLength > 0) {
+                append(bytes, from, to);
+                bytes = pending;
+                from = 0;
+                to = pendingLength;
+                pendingLength = 0;
+            }
+            if (to > from && bytes[to - 1] == '\r') {
+                to--;
+            }
+            return new String(bytes, from, to - from, Charset.defaultCharset());
+        }
+    }
+}
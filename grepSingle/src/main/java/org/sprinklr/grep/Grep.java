@@ -1,15 +1,11 @@
 package org.sprinklr.grep;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 /**
  * Grep class for flexible and customizable way to perform text searches in files using regular expressions
@@ -21,8 +17,14 @@ public class Grep {
     List<String> ignoreExtn;
     List<String> directories;
     MyRegexOptions options;
-    Result grepResult;
+    ResultSink grepResult;
+    CountingSink counter;
     LineResult.Builder builder;
+    RegexEngine regexEngine;
+    BlockingQueue<String> filesQueue;
+    DirectoryWalker walker;
+    TrigramIndex index;
+    FileFollower follower;
 
     /**
      *
@@ -41,56 +43,64 @@ public class Grep {
         this.regexPatterns=regexPatterns;
         this.files=files;
         this.directories=directories;
-        this.grepResult=new Result();
+        this.grepResult=ResultSink.create(options);
+        this.counter=options.onlyCountLines ? (CountingSink) grepResult : null;
         this.builder=new LineResult.Builder(options);
+        this.regexEngine=RegexEngine.create(regexPatterns, options.regexEngine);
         this.ignoreExtn=ignoreExtn;
 
-        if(options.dirSearch){
-            addFilesRecursive();
-        }
+        this.filesQueue=new LinkedBlockingQueue<>(files);
+        // -ck alone reads on from the checkpoints of the last run, -fo also keeps them in memory for its rounds
+        this.follower=options.follow || options.checkpointFile != null ? new FileFollower(options.checkpointFile != null ? Paths.get(options.checkpointFile) : null) : null;
 
-        if(files.isEmpty()){
+        if(options.dirSearch){
+            // -v prints the lines that do not match, so no file can be ruled out
+            this.index=options.indexFile != null ? TrigramIndex.open(Paths.get(options.indexFile), pwd, regexPatterns, options.invertedSearch) : null;
+            this.walker=DirectoryWalker.start(pwd, filesQueue, index);
+        } else if(files.isEmpty()){
             throw new IllegalArgumentException("{ No files to search }");
+        } else {
+            this.walker=DirectoryWalker.none(filesQueue);
         }
     }
 
     /**
-     * Method to execute the grep operation
+     * Method to execute the grep operation; with -R files are searched as the walk finds them
      */
     public void execute() {
-        if(options.invertedSearch){
-            for(String file : files){
-                invertedProcessFile(file);
-            }
-        } else {
-            for(String file : files){
-                processFile(file);
+        try {
+            String file;
+            while ((file = walker.next()) != null) {
+                if (counter != null) {
+                    countFile(file);
+                } else if (options.invertedSearch) {
+                    invertedProcessFile(file);
+                } else {
+                    processFile(file);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Method to recursively add files in the specified directories
-     *
-     * @throws IOException
-     */
-    private void addFilesRecursive() throws IOException {
-        Path dir = Paths.get(pwd);
-        addFileRecursiveUtil(dir);
-    }
-
-    /**
-     * Utility method to add files recursively
+     * Method to keep searching the files of the search for -fo, each round only the lines appended since the last;
+     * returns only once the thread is interrupted
      */
-    private void addFileRecursiveUtil(Path dir) throws IOException {
-        try (Stream<Path> paths = Files.walk(dir)) {
-            paths.forEach(path -> {
-                if (Files.isRegularFile(path)) {
-                    String relFilePath=path.toString().substring(pwd.length()+1);
-                    files.add(relFilePath);
+    public void follow() {
+        grepResult.flush();
+        follower.follow(changed -> {
+            for (String path : changed) {
+                String file = path.substring(pwd.length() + 1);
+                if (options.invertedSearch) {
+                    invertedProcessFile(file);
+                } else {
+                    processFile(file);
                 }
-            });
-        }
+            }
+            grepResult.flush();
+        });
     }
 
     /**
@@ -99,16 +109,14 @@ public class Grep {
      * @param file
      */
     private void processFile(String file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
+        try (LineSource reader = LineSource.open(pwd+"/"+file, follower)) {
             String line;
-            int lineNumber = 1;
+            int lineNumber = reader.linesBefore() + 1;
             while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
-                    Matcher matcher = pattern.matcher(line);
-                    while(matcher.find()) {
-                        LineResult lineResult = builder.build(lineNumber, matcher.group(), file, pattern);
-                        grepResult.addResult(lineResult);
-                    }
+                MatchHits hits = regexEngine.findAll(line);
+                for (int h = 0; h < hits.size(); h++) {
+                    LineResult lineResult = builder.build(lineNumber, line.substring(hits.start(h), hits.end(h)), file, regexPatterns.get(hits.pattern(h)));
+                    grepResult.add(lineResult);
                 }
                 lineNumber++;
             }
@@ -123,15 +131,14 @@ public class Grep {
      * @param file
      */
     private void invertedProcessFile(String file) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
+        try (LineSource reader = LineSource.open(pwd+"/"+file, follower)) {
             String line;
-            int lineNumber = 1;
+            int lineNumber = reader.linesBefore() + 1;
             while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
-                    Matcher matcher = pattern.matcher(line);
-                    if (!matcher.find()) {
-                        LineResult lineResult = builder.build(lineNumber, line, file,pattern);
-                        grepResult.addResult(lineResult);
+                for (int i = 0; i < regexPatterns.size(); i++) {
+                    if (!regexEngine.find(i, line)) {
+                        LineResult lineResult = builder.build(lineNumber, line, file, regexPatterns.get(i));
+                        grepResult.add(lineResult);
                     }
                 }
                 lineNumber++;
@@ -140,4 +147,40 @@ public class Grep {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Counts the matches of a file for -c, or its matching lines for -cl, with -v the ones it would print;
+     * nothing is built per match, the file's count is added once
+     *
+     * @param file
+     */
+    private void countFile(String file) {
+        long counted = 0;
+        try (LineSource reader = LineSource.open(pwd+"/"+file, follower)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                counted += options.invertedSearch ? countInverted(regexEngine, line) : regexEngine.count(line, options.countLines);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            counter.addCount(counted);
+        }
+    }
+
+    /**
+     * @return patterns not matching the line, as -v reports them, or 0 or 1 when counting lines
+     */
+    private int countInverted(RegexEngine regexEngine, String line) {
+        int missed = 0;
+        for (int i = 0; i < regexPatterns.size(); i++) {
+            if (!regexEngine.find(i, line)) {
+                if (options.countLines) {
+                    return 1;
+                }
+                missed++;
+            }
+        }
+        return missed;
+    }
 }
@@ -102,9 +102,45 @@ public class Main {
                     //only count
                     options.add("-c");
                     break;
+                case "-cl":
+                    //only count the lines that match, each line once however many matches it has
+                    options.add("-cl");
+                    break;
+                case "-re":
+                    //regex engine used to match the patterns
+                    options.add("-re");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-o":
+                    //file the matches are written to instead of stdout
+                    options.add("-o");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 case "-R":
                     options.add("-R");
                     break;
+                case "-ix":
+                    //trigram index of the tree, built on the first -R search and updated as files change, to skip files that cannot match
+                    options.add("-ix");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-fo":
+                    //keep following the files, searching the lines appended to them as they are written
+                    options.add("-fo");
+                    break;
+                case "-ck":
+                    //file of byte checkpoints, a run only searches the lines appended since the last one
+                    options.add("-ck");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 case "-ig":
                     // to ignore files with these extensions
                     options.add("-ig");
@@ -177,15 +213,25 @@ public class Main {
         myGrep.execute();
         long end = System.currentTimeMillis();
 
-
-        if(!optionsObj.onlyCountLines ) {
-            myGrep.grepResult.printResults();
+        if(myGrep.index != null) {
+            myGrep.index.save();
         }
+        if(myGrep.follower != null) {
+            myGrep.follower.save();
+        }
+        if(optionsObj.follow) {
+            System.out.println(ANSI_YELLOW + " ... singleGrep took " + (end-begin) + "ms, following the files" + ANSI_RESET);
+            myGrep.follow();
+        }
+        myGrep.grepResult.finish();
 
         System.out.println(ANSI_GREEN);
         myGrep.grepResult.printCount();
         System.out.print(ANSI_RESET);
 
         System.out.println(ANSI_YELLOW + " ... singleGrep took " + (end-begin) + "ms" +ANSI_RESET);
+        if(myGrep.index != null) {
+            System.out.println(" ... index : " + myGrep.index);
+        }
     }
 }
@@ -0,0 +1,67 @@
+package org.sprinklr.grep;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of the matches found in one line: pattern index, start and end of every match.
+ * Owned by a single thread and cleared for every line, so matching a line allocates nothing
+ */
+public class MatchHits {
+    private int size;
+    private int[] patternIndex = new int[16];
+    private int[] start = new int[16];
+    private int[] end = new int[16];
+
+    public int size() {
+        return size;
+    }
+
+    public int pattern(int i) {
+        return patternIndex[i];
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int end(int i) {
+        return end[i];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int pattern, int matchStart, int matchEnd) {
+        if (size == patternIndex.length) {
+            patternIndex = Arrays.copyOf(patternIndex, size * 2);
+            start = Arrays.copyOf(start, size * 2);
+            end = Arrays.copyOf(end, size * 2);
+        }
+        patternIndex[size] = pattern;
+        start[size] = matchStart;
+        end[size] = matchEnd;
+        size++;
+    }
+
+    /**
+     * Stable sort by pattern index; a line rarely has more than a handful of hits so insertion sort is enough
+     */
+    void sortByPattern() {
+        for (int i = 1; i < size; i++) {
+            int p = patternIndex[i];
+            int s = start[i];
+            int e = end[i];
+            int j = i - 1;
+            while (j >= 0 && patternIndex[j] > p) {
+                patternIndex[j + 1] = patternIndex[j];
+                start[j + 1] = start[j];
+                end[j + 1] = end[j];
+                j--;
+            }
+            patternIndex[j + 1] = p;
+            start[j + 1] = s;
+            end[j + 1] = e;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
  */
 public class MyRegexOptions {
     final boolean onlyCountLines;
+    final boolean countLines;
     final boolean invertedSearch;
     final boolean caseInsensitive;
     final boolean showLineNumbers;
@@ -15,9 +16,15 @@ public class MyRegexOptions {
     final boolean showFiles;
     final boolean dirSearch;
     final boolean showPattern;
+    final String regexEngine;
+    final String outputFile;
+    final String indexFile;
+    final boolean follow;
+    final String checkpointFile;
 
     public MyRegexOptions(List<String> options){
-        this.onlyCountLines = options.contains("-c");
+        this.countLines = options.contains("-cl");
+        this.onlyCountLines = options.contains("-c") || countLines;
         this.invertedSearch = options.contains("-v");
         this.showLineNumbers = options.contains("-n");
         this.showLines = options.contains("-l");
@@ -25,9 +32,34 @@ public class MyRegexOptions {
         this.caseInsensitive = options.contains("-i");
         this.dirSearch = options.contains("-R");
         this.showPattern = options.contains("-sp");
+        this.regexEngine = valueOf(options, "-re", "auto");
+        this.outputFile = valueOf(options, "-o", null);
+        this.indexFile = valueOf(options, "-ix", null);
+        this.follow = options.contains("-fo");
+        this.checkpointFile = valueOf(options, "-ck", null);
 
+        if( !regexEngine.equals("auto") && !regexEngine.equals("dfa") ){
+            throw new IllegalArgumentException("-re must be one of [ auto | dfa ]");
+        }
+        if( indexFile != null && !dirSearch ){
+            throw new IllegalArgumentException("-ix can only be used with -R");
+        }
+        if( follow && onlyCountLines ){
+            throw new IllegalArgumentException("-fo cannot be used together with [ -c | -cl ]");
+        }
         if( onlyCountLines && ( showLines || showLineNumbers ||  showFiles || showPattern)  ){
-            throw new IllegalArgumentException("-c cannot be used togther with [ -n | -l | -sf | -sp ]");
+            throw new IllegalArgumentException("-c and -cl cannot be used togther with [ -n | -l | -sf | -sp ]");
+        }
+    }
+
+    /**
+     * @return the value given right after the option, or the default if the option is absent
+     */
+    private static String valueOf(List<String> options, String option, String defaultValue) {
+        int index = options.indexOf(option);
+        if (index < 0 || index + 1 >= options.size()) {
+            return defaultValue;
         }
+        return options.get(index + 1);
     }
 }
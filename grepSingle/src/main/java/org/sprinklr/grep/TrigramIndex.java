@@ -0,0 +1,482 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk trigram index of the tree searched with -R, for -ix, so repeated searches of the same tree only open
+ * the files that can match: for every trigram (three bytes of a line, ASCII letters folded to lower case) the sorted
+ * ids of the files holding it, and for every file its path relative to the root, its size and modification time.
+ * A pattern can only match in a file holding every trigram of its required literal (see LiteralPrefilter),
+ * so the candidate files are the union over the patterns of the intersection of those posting lists;
+ * a pattern without a literal of three bytes, or -v, makes every file a candidate.
+ * The walker asks about each file it finds: a file whose size and time match its entry is decided from the
+ * posting lists, a new or changed one is scanned for its trigrams there and then and entered under a new id.
+ * save() drops the files the walk did not find and the ids replaced, renumbers the rest and rewrites the index
+ */
+final class TrigramIndex {
+    private static final int MAGIC = 0x54524931; // "TRI1"
+    // a bit per trigram, 2 MB per walker thread
+    private static final ThreadLocal<long[]> MARKS = ThreadLocal.withInitial(() -> new long[1 << 18]);
+
+    private final Path indexFile;
+    private final String root;
+    private final int[][] queryTrigrams;
+    private final boolean everyFile;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Postings postings = new Postings();
+    private final BitSet candidates = new BitSet();
+    private final BitSet seen = new BitSet();
+    private String[] paths = new String[16];
+    private long[] sizes = new long[16];
+    private long[] times = new long[16];
+    private int fileCount;
+    private long filesAsked;
+    private long filesPassed;
+    private long filesScanned;
+
+    private TrigramIndex(Path indexFile, String root, List<Pattern> regexPatterns, boolean everyFile) {
+        this.indexFile = indexFile.toAbsolutePath().normalize();
+        this.root = root;
+        LiteralPrefilter prefilter = new LiteralPrefilter(regexPatterns, Charset.defaultCharset());
+        this.queryTrigrams = new int[regexPatterns.size()][];
+        for (int i = 0; i < queryTrigrams.length && !everyFile; i++) {
+            String literal = prefilter.literal(i);
+            queryTrigrams[i] = literal == null ? new int[0] : trigrams(literal.getBytes(Charset.defaultCharset()));
+            everyFile = queryTrigrams[i].length == 0;
+        }
+        this.everyFile = everyFile;
+    }
+
+    /**
+     * Reads the index if there is one for the root, an index of another root or one that cannot be read is rebuilt
+     *
+     * @param indexFile
+     * @param root directory walked, the paths are relative to it
+     * @param regexPatterns
+     * @param everyFile true if every file must be searched whatever it holds, as for -v
+     * @return the index
+     */
+    static TrigramIndex open(Path indexFile, String root, List<Pattern> regexPatterns, boolean everyFile) {
+        TrigramIndex index = new TrigramIndex(indexFile, root, regexPatterns, everyFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() == MAGIC && in.readUTF().equals(root)) {
+                index.read(in);
+            }
+        } catch (NoSuchFileException e) {
+            // built by this search
+        } catch (IOException e) {
+            e.printStackTrace();
+            index = new TrigramIndex(indexFile, root, regexPatterns, everyFile);
+        }
+        index.findCandidates();
+        return index;
+    }
+
+    /**
+     * Called by the walker for every file found, from any of its threads
+     *
+     * @param file path relative to the root
+     * @param path
+     * @param attrs attributes the walk read, those of the link for a symbolic link
+     * @return false only if no pattern can match in the file, so it need not be opened
+     */
+    boolean mayMatch(String file, Path path, BasicFileAttributes attrs) {
+        try {
+            if (attrs.isSymbolicLink()) {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+            if (path.toAbsolutePath().normalize().equals(indexFile)) {
+                return false;
+            }
+            long size = attrs.size();
+            long time = attrs.lastModifiedTime().toMillis();
+            synchronized (this) {
+                filesAsked++;
+                Integer id = ids.get(file);
+                if (id != null && sizes[id] == size && times[id] == time) {
+                    seen.set(id);
+                    return passed(everyFile || candidates.get(id));
+                }
+            }
+            int[] held = scan(path);
+            synchronized (this) {
+                filesScanned++;
+                int id = add(file, size, time);
+                for (int trigram : held) {
+                    postings.add(trigram, id);
+                }
+                seen.set(id);
+                return passed(everyFile || holdsAny(held));
+            }
+        } catch (IOException e) {
+            // left to the search to report
+            return true;
+        }
+    }
+
+    /**
+     * Writes the index over the old one once the walk is done
+     */
+    synchronized void save() {
+        int[] renumbered = new int[fileCount];
+        int live = 0;
+        for (int id = 0; id < fileCount; id++) {
+            renumbered[id] = seen.get(id) && ids.get(paths[id]) == id ? live++ : -1;
+        }
+        if (filesScanned == 0 && live == fileCount) {
+            return;
+        }
+        Path written = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(root);
+            out.writeInt(live);
+            for (int id = 0; id < fileCount; id++) {
+                if (renumbered[id] >= 0) {
+                    out.writeUTF(paths[id]);
+                    out.writeLong(sizes[id]);
+                    out.writeLong(times[id]);
+                }
+            }
+            postings.write(out, renumbered);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(written, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return filesPassed + " of " + filesAsked + " files searched, " + filesScanned + " (re)indexed";
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            add(in.readUTF(), in.readLong(), in.readLong());
+        }
+        postings.read(in);
+    }
+
+    /**
+     * Marks the files indexed that hold every trigram of the literal of some pattern
+     */
+    private void findCandidates() {
+        if (everyFile) {
+            return;
+        }
+        for (int[] trigrams : queryTrigrams) {
+            int[] matching = null;
+            int matchingSize = 0;
+            for (int trigram : trigrams) {
+                int slot = postings.slot(trigram);
+                if (slot < 0) {
+                    matchingSize = 0;
+                    break;
+                }
+                int[] list = postings.lists[slot];
+                int length = postings.lengths[slot];
+                if (matching == null) {
+                    matching = Arrays.copyOf(list, length);
+                    matchingSize = length;
+                } else {
+                    matchingSize = intersect(matching, matchingSize, list, length);
+                }
+            }
+            for (int i = 0; i < matchingSize; i++) {
+                candidates.set(matching[i]);
+            }
+        }
+    }
+
+    private boolean holdsAny(int[] held) {
+        for (int[] trigrams : queryTrigrams) {
+            boolean all = true;
+            for (int trigram : trigrams) {
+                if (Arrays.binarySearch(held, trigram) < 0) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean passed(boolean mayMatch) {
+        if (mayMatch) {
+            filesPassed++;
+        }
+        return mayMatch;
+    }
+
+    private int add(String file, long size, long time) {
+        if (fileCount == paths.length) {
+            int grown = fileCount * 2;
+            paths = Arrays.copyOf(paths, grown);
+            sizes = Arrays.copyOf(sizes, grown);
+            times = Arrays.copyOf(times, grown);
+        }
+        int id = fileCount++;
+        paths[id] = file;
+        sizes[id] = size;
+        times[id] = time;
+        ids.put(file, id);
+        return id;
+    }
+
+    /**
+     * @return the distinct trigrams of the lines of the file, sorted
+     */
+    static int[] scan(Path path) throws IOException {
+        long[] marks = MARKS.get();
+        int[] found = new int[256];
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            byte[] bytes = buffer.array();
+            int trigram = 0;
+            int run = 0;
+            while (channel.read(buffer) >= 0) {
+                int limit = buffer.position();
+                for (int i = 0; i < limit; i++) {
+                    int b = bytes[i] & 0xFF;
+                    if (b == '\n') {
+                        run = 0;
+                        continue;
+                    }
+                    trigram = ((trigram << 8) | LiteralPrefilter.foldAscii(b)) & 0xFFFFFF;
+                    if (++run >= 3 && (marks[trigram >>> 6] & (1L << trigram)) == 0) {
+                        marks[trigram >>> 6] |= 1L << trigram;
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = trigram;
+                    }
+                }
+                buffer.clear();
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                marks[found[i] >>> 6] = 0;
+            }
+        }
+        int[] held = Arrays.copyOf(found, count);
+        Arrays.sort(held);
+        return held;
+    }
+
+    /**
+     * @return the distinct trigrams of the literal, sorted, folded as the files are
+     */
+    static int[] trigrams(byte[] literal) {
+        int[] found = new int[Math.max(0, literal.length - 2)];
+        int count = 0;
+        for (int i = 0; i + 2 < literal.length; i++) {
+            if (literal[i] == '\n' || literal[i + 1] == '\n' || literal[i + 2] == '\n') {
+                continue;
+            }
+            found[count++] = LiteralPrefilter.foldAscii(literal[i] & 0xFF) << 16
+                    | LiteralPrefilter.foldAscii(literal[i + 1] & 0xFF) << 8
+                    | LiteralPrefilter.foldAscii(literal[i + 2] & 0xFF);
+        }
+        return Arrays.stream(found, 0, count).sorted().distinct().toArray();
+    }
+
+    /**
+     * Keeps in a the ids that are also in b, both sorted
+     *
+     * @return number of ids kept
+     */
+    private static int intersect(int[] a, int aSize, int[] b, int bSize) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < aSize && j < bSize; i++) {
+            while (j < bSize && b[j] < a[i]) {
+                j++;
+            }
+            if (j < bSize && b[j] == a[i]) {
+                a[kept++] = a[i];
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Posting lists by trigram, in an open addressing table; ids are added in increasing order so each list stays sorted.
+     * Written as the trigram, the number of ids and the ids as varint deltas
+     */
+    private static final class Postings {
+        private int[] keys = new int[1 << 12];
+        private int[][] lists = new int[1 << 12][];
+        private int[] lengths = new int[1 << 12];
+        private int count;
+
+        int slot(int trigram) {
+            int mask = keys.length - 1;
+            for (int slot = hash(trigram) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == 0) {
+                    return -1;
+                }
+                if (keys[slot] == trigram + 1) {
+                    return slot;
+                }
+            }
+        }
+
+        void add(int trigram, int id) {
+            int slot = claim(trigram);
+            int[] list = lists[slot];
+            if (lengths[slot] == list.length) {
+                lists[slot] = list = Arrays.copyOf(list, list.length * 2);
+            }
+            list[lengths[slot]++] = id;
+        }
+
+        void read(DataInputStream in) throws IOException {
+            int trigrams = in.readInt();
+            for (int t = 0; t < trigrams; t++) {
+                int slot = claim(in.readInt());
+                int length = in.readInt();
+                int[] list = new int[Math.max(length, 4)];
+                int id = 0;
+                for (int i = 0; i < length; i++) {
+                    id += readVarint(in);
+                    list[i] = id;
+                }
+                lists[slot] = list;
+                lengths[slot] = length;
+            }
+        }
+
+        void write(DataOutputStream out, int[] renumbered) throws IOException {
+            int[] kept = new int[64];
+            int written = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0 && hasLive(slot, renumbered)) {
+                    written++;
+                }
+            }
+            out.writeInt(written);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == 0 || !hasLive(slot, renumbered)) {
+                    continue;
+                }
+                int length = 0;
+                for (int i = 0; i < lengths[slot]; i++) {
+                    int id = renumbered[lists[slot][i]];
+                    if (id >= 0) {
+                        if (length == kept.length) {
+                            kept = Arrays.copyOf(kept, length * 2);
+                        }
+                        kept[length++] = id;
+                    }
+                }
+                out.writeInt(keys[slot] - 1);
+                out.writeInt(length);
+                int previous = 0;
+                for (int i = 0; i < length; i++) {
+                    writeVarint(out, kept[i] - previous);
+                    previous = kept[i];
+                }
+            }
+        }
+
+        private boolean hasLive(int slot, int[] renumbered) {
+            for (int i = 0; i < lengths[slot]; i++) {
+                if (renumbered[lists[slot][i]] >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int claim(int trigram) {
+            if (count * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(trigram) & mask;
+            while (keys[slot] != 0 && keys[slot] != trigram + 1) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = trigram + 1;
+                lists[slot] = new int[4];
+                count++;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[][] oldLists = lists;
+            int[] oldLengths = lengths;
+            keys = new int[oldKeys.length * 2];
+            lists = new int[keys.length][];
+            lengths = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int old = 0; old < oldKeys.length; old++) {
+                if (oldKeys[old] == 0) {
+                    continue;
+                }
+                int slot = hash(oldKeys[old] - 1) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[old];
+                lists[slot] = oldLists[old];
+                lengths[slot] = oldLengths[old];
+            }
+        }
+
+        private static int hash(int trigram) {
+            int h = trigram * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private static void writeVarint(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarint(DataInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void overlappingLiteralsReportNonOverlappingOccurrencesPerPattern() {
+        String[] literals = {"aa", "aaa", "ab", "b"};
+        AhoCorasick automaton = new AhoCorasick(literals, new int[]{0, 1, 2, 3}, false);
+        assertEquals(expected(literals, false, "aaaaab"), found(automaton, literals.length, "aaaaab"));
+    }
+
+    @Test
+    public void ignoreCaseFoldsOnlyAsciiLetters() {
+        String[] literals = {"error", "été"};
+        AhoCorasick automaton = new AhoCorasick(literals, new int[]{0, 1}, true);
+        assertEquals(List.of("0:3-8", "1:9-12"), found(automaton, literals.length, "An ERROR été ÉTÉ"));
+    }
+
+    @Test
+    public void randomLiteralsMatchTheFindLoop() {
+        String alphabet = "abcAB.é€";
+        for (long seed = 1; seed <= 300; seed++) {
+            Random random = new Random(seed);
+            boolean ignoreCase = random.nextBoolean();
+            String[] literals = new String[1 + random.nextInt(6)];
+            int[] patternIds = new int[literals.length];
+            for (int l = 0; l < literals.length; l++) {
+                String literal = random(random, alphabet, 1 + random.nextInt(4));
+                literals[l] = ignoreCase ? LiteralPrefilter.foldAscii(literal) : literal;
+                patternIds[l] = l;
+            }
+            AhoCorasick automaton = new AhoCorasick(literals, patternIds, ignoreCase);
+            int[] lastEnd = new int[literals.length];
+            for (int i = 0; i < 50; i++) {
+                String line = random(random, alphabet, random.nextInt(30));
+                MatchHits hits = new MatchHits();
+                automaton.findAll(line, hits, lastEnd);
+                assertEquals(expected(literals, ignoreCase, line), describe(hits), "seed " + seed + " on \"" + line + "\"");
+                assertArrayEquals(new int[literals.length], lastEnd, "lastEnd must be left zeroed");
+            }
+        }
+    }
+
+    private static List<String> found(AhoCorasick automaton, int patterns, String line) {
+        MatchHits hits = new MatchHits();
+        int[] lastEnd = new int[patterns];
+        automaton.findAll(line, hits, lastEnd);
+        assertArrayEquals(new int[patterns], lastEnd, "lastEnd must be left zeroed");
+        return describe(hits);
+    }
+
+    private static List<String> describe(MatchHits hits) {
+        hits.sortByPattern();
+        List<String> described = new ArrayList<>();
+        for (int h = 0; h < hits.size(); h++) {
+            described.add(hits.pattern(h) + ":" + hits.start(h) + "-" + hits.end(h));
+        }
+        return described;
+    }
+
+    private static List<String> expected(String[] literals, boolean ignoreCase, String line) {
+        List<String> described = new ArrayList<>();
+        for (int l = 0; l < literals.length; l++) {
+            Matcher matcher = Pattern.compile(Pattern.quote(literals[l]), ignoreCase ? Pattern.CASE_INSENSITIVE : 0).matcher(line);
+            while (matcher.find()) {
+                described.add(l + ":" + matcher.start() + "-" + matcher.end());
+            }
+        }
+        return described;
+    }
+
+    private static String random(Random random, String alphabet, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,130 @@
+package org.sprinklr.grep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Gating N patterns without a required literal by one scan of their alternation, as the dropped -re combined
+ * did, against the -re engines:
+ * java -cp target/classes:target/test-classes org.sprinklr.grep.CombinedModeBenchmark [lines] [runs]
+ * "loop" is the LineMatcher running the patterns one by one, "combined" the same run only on lines where
+ * "(?:p0)|(?:p1)|..." finds a match, auto and dfa the engines of those options. Class only patterns are the
+ * ones the DFA takes, patterns with a lookahead are left to java.util.regex by every engine.
+ * About 1% of the lines match. Each engine runs once to warm up, then runs times;
+ * the best time of findAll() over all the lines is printed
+ */
+public class CombinedModeBenchmark {
+    private static final int[] SIZES = {2, 4, 8, 16, 32, 64, 128};
+
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("cores " + Runtime.getRuntime().availableProcessors() + ", java " + System.getProperty("java.version"));
+        for (boolean lookahead : new boolean[]{false, true}) {
+            for (int n : SIZES) {
+                List<Pattern> patterns = patterns(n, lookahead);
+                List<String> lines = lines(lineCount, n);
+                StringBuilder row = new StringBuilder(String.format("%-10s N=%-4d", lookahead ? "lookahead" : "class", n));
+                long expected = -1;
+                for (String engine : new String[]{"loop", "combined", "auto", "dfa"}) {
+                    RegexEngine regexEngine = engine.equals("loop") ? new LineMatcher(patterns)
+                            : engine.equals("combined") ? new AlternationGate(patterns) : RegexEngine.create(patterns, engine);
+                    long best = Long.MAX_VALUE;
+                    long matches = 0;
+                    for (int run = -1; run < runs; run++) {
+                        long begin = System.nanoTime();
+                        matches = 0;
+                        for (String line : lines) {
+                            matches += regexEngine.findAll(line).size();
+                        }
+                        if (run >= 0) {
+                            best = Math.min(best, System.nanoTime() - begin);
+                        }
+                    }
+                    if (expected >= 0 && matches != expected) {
+                        throw new IllegalStateException(engine + " found " + matches + " matches, loop " + expected);
+                    }
+                    expected = matches;
+                    row.append(String.format(" %s %5d ms", engine, best / 1_000_000));
+                }
+                System.out.println(row.append(", ").append(expected).append(" matches"));
+            }
+        }
+    }
+
+    /**
+     * The LineMatcher, run only on the lines where the alternation of all the patterns matches
+     */
+    private static class AlternationGate implements RegexEngine {
+        private final LineMatcher lineMatcher;
+        private final Matcher alternation;
+        private final MatchHits noHits = new MatchHits();
+
+        AlternationGate(List<Pattern> patterns) {
+            this.lineMatcher = new LineMatcher(patterns);
+            this.alternation = Pattern.compile(patterns.stream().map(pattern -> "(?:" + pattern.pattern() + ")")
+                    .collect(Collectors.joining("|"))).matcher("");
+        }
+
+        @Override
+        public MatchHits findAll(String line) {
+            return alternation.reset(line).find() ? lineMatcher.findAll(line) : noHits;
+        }
+
+        @Override
+        public boolean find(int patternIndex, String line) {
+            return alternation.reset(line).find() && lineMatcher.find(patternIndex, line);
+        }
+
+        @Override
+        public boolean findAny(String line) {
+            return alternation.reset(line).find();
+        }
+
+        @Override
+        public RegexEngine copy() {
+            return this;
+        }
+    }
+
+    /**
+     * Pattern i is a letter of its own followed by two digits ending in its index, none has a literal
+     */
+    private static List<Pattern> patterns(int n, boolean lookahead) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            patterns.add(Pattern.compile("[" + letter(i) + "][0-9]{2}[" + (i % 10) + "]" + (lookahead ? "(?=[ .])" : "")));
+        }
+        return patterns;
+    }
+
+    private static char letter(int i) {
+        return (char) ((i % 2 == 0 ? 'A' : 'a') + i / 2 % 26);
+    }
+
+    /**
+     * Log like lines of about 80 characters, with words and numbers the patterns almost match;
+     * one line in a hundred carries a match of a random pattern
+     */
+    private static List<String> lines(int count, int n) {
+        Random random = new Random(n);
+        List<String> lines = new ArrayList<>();
+        for (int l = 0; l < count; l++) {
+            StringBuilder line = new StringBuilder();
+            while (line.length() < 80) {
+                line.append(random.nextBoolean() ? "word" : "id").append(random.nextInt(100)).append(' ');
+            }
+            if (random.nextInt(100) == 0) {
+                int i = random.nextInt(n);
+                line.append(letter(i)).append(random.nextInt(10)).append(random.nextInt(10)).append(i % 10).append(' ');
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,105 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DirectoryWalkerTest {
+
+    @TempDir
+    Path temp;
+
+    /**
+     * The files come depth first, each directory in name order, however the listings of the walkers interleave
+     */
+    @Test
+    public void filesAreQueuedInSortedDepthFirstOrder() throws Exception {
+        Random random = new Random(7);
+        Path root = Files.createDirectories(temp.resolve("tree"));
+        List<String> dirs = new ArrayList<>(Collections.singletonList(""));
+        for (int d = 0; d < 40; d++) {
+            String parent = dirs.get(random.nextInt(dirs.size()));
+            String dir = parent + "d" + random.nextInt(100) + "/";
+            Files.createDirectories(root.resolve(dir));
+            dirs.add(dir);
+        }
+        for (int f = 0; f < 300; f++) {
+            String dir = dirs.get(random.nextInt(dirs.size()));
+            Files.write(root.resolve(dir + "f" + random.nextInt(1000) + ".txt"), Collections.singletonList("line"));
+        }
+        List<String> expected = new ArrayList<>();
+        listSorted(root, root, expected);
+
+        for (int walkers : new int[]{1, 2, 8}) {
+            int defaultWalkers = DirectoryWalker.WALKERS;
+            DirectoryWalker.WALKERS = walkers;
+            try {
+                for (int run = 0; run < 5; run++) {
+                    assertEquals(expected, walk(root.toString()), walkers + " walkers, run " + run);
+                }
+            } finally {
+                DirectoryWalker.WALKERS = defaultWalkers;
+            }
+        }
+    }
+
+    @Test
+    public void awaitFilesReturnsOnceEnoughAreQueuedOrTheWalkIsDone() throws Exception {
+        Path root = Files.createDirectories(temp.resolve("tree"));
+        for (int f = 0; f < 20; f++) {
+            Files.write(root.resolve("f" + f + ".txt"), Collections.singletonList("line"));
+        }
+        DirectoryWalker walker = DirectoryWalker.start(root.toString(), new LinkedBlockingQueue<>());
+        walker.awaitFiles(5);
+        assertTrue(walker.filesFound() >= 5);
+        walker.awaitFiles(Long.MAX_VALUE);
+        assertTrue(walker.isDone());
+        assertEquals(20, walker.filesFound());
+
+        DirectoryWalker empty = DirectoryWalker.start(Files.createDirectories(temp.resolve("empty")).toString(), new LinkedBlockingQueue<>());
+        empty.awaitFiles(1);
+        assertTrue(empty.isDone());
+        assertEquals(0, empty.filesFound());
+        assertNull(empty.next());
+        assertTrue(empty.isDrained());
+    }
+
+    private static List<String> walk(String root) throws InterruptedException {
+        BlockingQueue<String> files = new LinkedBlockingQueue<>();
+        DirectoryWalker walker = DirectoryWalker.start(root, files);
+        List<String> found = new ArrayList<>();
+        for (String file = walker.next(); file != null; file = walker.next()) {
+            found.add(file);
+        }
+        return found;
+    }
+
+    private static void listSorted(Path root, Path dir, List<String> found) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(dir)) {
+            listing.forEach(entries::add);
+        }
+        entries.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry)) {
+                listSorted(root, entry, found);
+            } else {
+                found.add(root.relativize(entry).toString());
+            }
+        }
+    }
+}
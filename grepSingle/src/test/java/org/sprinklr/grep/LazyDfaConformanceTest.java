@@ -0,0 +1,136 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The LazyDfa, the Nfa it is built from and the java.util.regex fallback of DfaEngine, against java.util.regex.Pattern
+ */
+public class LazyDfaConformanceTest {
+    private static final String[] SUPPORTED = {
+            "abc", "a.c", "a*b", "a+b?", "(ab|cd)+e", "[a-c]x", "[^abc]", "a{2,3}", "a{2,}b", "(a|)b",
+            "^ab", "ab$", "^$", "\\d+\\.\\d*", "\\w\\s\\W", "[\\d.]+", "\\t", "\\x41", "\\u00e9",
+            "(?:ab)*c", "(?<name>ab)c", "a.b", "x|y|z", "TIMEOUT"
+    };
+    private static final int[] SUPPORTED_FLAGS = {0, Pattern.CASE_INSENSITIVE, Pattern.DOTALL, Pattern.LITERAL};
+    private static final String[] UNSUPPORTED = {
+            "(a)\\1", "(?<n>a)\\k<n>", "a(?=b)", "a(?!b)", "(?<=a)b", "(?>ab)", "(?i)ab", "a(?i:b)", "a++", "a*+",
+            "\\bab", "a\\B", "[a-z&&[^b]]", "\\p{Lu}", "\\Gab", "(^a)*", "a{1001}", "\\R"
+    };
+    private static final String[] LINES = {
+            "", "abc", "ABC", "aéb", "xaaab", "aab", "12.5", "timeout at 3", "TimeOut", "ab\r", "cd\u0085",
+            "a\tb c", "ccc", "abcdabcdef", "😀ab", "ab\n"
+    };
+
+    @Test
+    public void supportedPatternsAreDecidedAsJavaUtilRegex() throws Exception {
+        for (int flags : SUPPORTED_FLAGS) {
+            for (String regex : SUPPORTED) {
+                Pattern pattern = Pattern.compile(regex, flags);
+                Nfa nfa = new Nfa();
+                assertTrue(nfa.add(pattern, 0), pattern + " flags " + flags);
+                LazyDfa dfa = new LazyDfa(nfa, 1);
+                for (String line : lines()) {
+                    long[] matched = new long[1];
+                    if (dfa.scan(line, matched)) {
+                        assertEquals(pattern.matcher(line).find(), matched[0] != 0, pattern + " flags " + flags + " on " + line);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unsupportedPatternsLeaveTheNfaUnchanged() {
+        Nfa nfa = new Nfa();
+        assertTrue(nfa.add(Pattern.compile("ab$"), 0));
+        int size = nfa.size;
+        int sets = nfa.charSets.size();
+        for (String regex : UNSUPPORTED) {
+            assertFalse(nfa.add(Pattern.compile(regex), 1), regex);
+            assertEquals(size, nfa.size, regex);
+            assertEquals(sets, nfa.charSets.size(), regex);
+        }
+        assertFalse(nfa.add(Pattern.compile("ab", Pattern.MULTILINE), 1));
+        assertFalse(nfa.add(Pattern.compile("ab", Pattern.COMMENTS), 1));
+        assertEquals(1, nfa.starts.size());
+
+        // only the supported pattern ever reports a match
+        LazyDfa dfa = new LazyDfa(nfa, 2);
+        long[] matched = new long[1];
+        assertTrue(dfa.scan("xab", matched));
+        assertEquals(1L, matched[0]);
+    }
+
+    @Test
+    public void unsupportedPatternsFallBackToJavaUtilRegex() {
+        List<String> regexes = new ArrayList<>(Arrays.asList(SUPPORTED));
+        regexes.addAll(Arrays.asList(UNSUPPORTED));
+        Collections.shuffle(regexes, new Random(7));
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        assertSameAsPattern(patterns);
+    }
+
+    @Test
+    public void patternTooLargeFallsBackToJavaUtilRegex() {
+        int maxStates = Nfa.MAX_STATES;
+        Nfa.MAX_STATES = 40;
+        try {
+            Nfa nfa = new Nfa();
+            assertTrue(nfa.add(Pattern.compile("ab"), 0));
+            assertFalse(nfa.add(Pattern.compile("(abc|def){5}"), 1));
+            assertSameAsPattern(Arrays.asList(Pattern.compile("ab"), Pattern.compile("(abc|def){5}"), Pattern.compile("x+y")));
+        } finally {
+            Nfa.MAX_STATES = maxStates;
+        }
+    }
+
+    private static void assertSameAsPattern(List<Pattern> patterns) {
+        RegexEngine engine = new DfaEngine(patterns, true);
+        for (String line : lines()) {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < patterns.size(); i++) {
+                Matcher matcher = patterns.get(i).matcher(line);
+                while (matcher.find()) {
+                    expected.add(i + ":" + matcher.start() + "-" + matcher.end());
+                }
+                assertEquals(patterns.get(i).matcher(line).find(), engine.find(i, line), patterns.get(i) + " on " + line);
+            }
+            MatchHits hits = engine.findAll(line);
+            List<String> actual = new ArrayList<>();
+            for (int i = 0; i < hits.size(); i++) {
+                actual.add(hits.pattern(i) + ":" + hits.start(i) + "-" + hits.end(i));
+            }
+            assertEquals(expected, actual, line);
+            assertEquals(!expected.isEmpty(), engine.findAny(line), line);
+        }
+    }
+
+    private static List<String> lines() {
+        List<String> lines = new ArrayList<>(Arrays.asList(LINES));
+        Random random = new Random(5);
+        String alphabet = "abcdeABxyz1.\t é";
+        for (int i = 0; i < 300; i++) {
+            char[] line = new char[random.nextInt(12)];
+            for (int j = 0; j < line.length; j++) {
+                line[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            lines.add(new String(line));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,124 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LiteralPrefilterTest {
+
+    @Test
+    public void requiredLiteralIsTheLongestTopLevelRun() {
+        assertEquals("timeout", required("ERROR.*timeout"));
+        assertEquals("user=", required("user=\\d+ "));
+        assertEquals("colo", required("colou?r"));
+        assertEquals("a.b", required("a\\.b"));
+        assertEquals("a.b", required("\\Qa.b\\E"));
+        assertEquals("abc", LiteralPrefilter.requiredLiteral(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)));
+        assertEquals("a.b", LiteralPrefilter.requiredLiteral(Pattern.compile("a.b", Pattern.LITERAL)));
+    }
+
+    @Test
+    public void noRequiredLiteralWhereAMatchMayLackOne() {
+        assertNull(required("abc|def"));
+        assertNull(required("x(?i)abc"));
+        assertNull(required("[a-z]+"));
+        assertNull(required("a?"));
+        assertNull(LiteralPrefilter.requiredLiteral(Pattern.compile("abc", Pattern.COMMENTS)));
+        assertNull(LiteralPrefilter.requiredLiteral(Pattern.compile("abc", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)));
+    }
+
+    @Test
+    public void exactLiteralOnlyForPlainLiterals() {
+        assertEquals("timeout", LiteralPrefilter.exactLiteral(Pattern.compile("timeout")));
+        assertEquals("a.b", LiteralPrefilter.exactLiteral(Pattern.compile("a\\.b")));
+        assertNull(LiteralPrefilter.exactLiteral(Pattern.compile("a.b")));
+        assertNull(LiteralPrefilter.exactLiteral(Pattern.compile("ab+")));
+    }
+
+    @Test
+    public void horspoolSearchesOnlyTheGivenRange() {
+        LiteralPrefilter prefilter = new LiteralPrefilter(Arrays.asList(Pattern.compile("needle"),
+                Pattern.compile("TimeOut", Pattern.CASE_INSENSITIVE)), StandardCharsets.UTF_8);
+        assertTrue(prefilter.canRejectLines());
+        byte[] bytes = "hay needle hay\nno match here\ntimeout in TIMEOUT\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertTrue(prefilter.mayMatch(0, buffer, 0, 14));
+        assertFalse(prefilter.mayMatch(0, buffer, 0, 9));
+        assertFalse(prefilter.mayMatch(0, buffer, 5, 14));
+        assertFalse(prefilter.mayMatchAny(buffer, 15, 28));
+        assertTrue(prefilter.mayMatch(1, buffer, 29, 36));
+        assertTrue(prefilter.mayMatch(1, buffer, 40, 47));
+        assertFalse(prefilter.mayMatch(1, buffer, 30, 46));
+    }
+
+    @Test
+    public void patternWithoutLiteralAlwaysPasses() {
+        LiteralPrefilter prefilter = LiteralPrefilter.of(Arrays.asList(Pattern.compile("abc"), Pattern.compile("[0-9]+")));
+        assertFalse(prefilter.canRejectLines());
+        assertTrue(prefilter.mayMatch(1, "nothing"));
+        assertTrue(prefilter.mayMatchAny(ByteBuffer.wrap(new byte[]{'x'}), 0, 1));
+    }
+
+    /**
+     * No false negatives: a line a pattern matches always passes the prefilter, as a String or as bytes
+     */
+    @Test
+    public void randomPatternsNeverRejectALineTheyMatch() {
+        String[] fragments = {"a", "b", "ab", "é", "x", ".", "[ab]", "b*", "a+", "c?", "(ab|ba)", "a{2}", "b{0,2}", "\\.", "\\d",
+                "^", "$", "\\Qa.\\E", "|", "(?i)", "(?:ab)+"};
+        String alphabet = "abcABé.x1 ";
+        for (long seed = 1; seed <= 200; seed++) {
+            Random random = new Random(seed);
+            List<Pattern> patterns = new ArrayList<>();
+            while (patterns.size() < 3) {
+                StringBuilder regex = new StringBuilder();
+                for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                    regex.append(fragments[random.nextInt(fragments.length)]);
+                }
+                try {
+                    patterns.add(Pattern.compile(regex.toString(), random.nextBoolean() ? Pattern.CASE_INSENSITIVE : 0));
+                } catch (PatternSyntaxException e) {
+                    // e.g. a dangling quantifier
+                }
+            }
+            LiteralPrefilter prefilter = new LiteralPrefilter(patterns, StandardCharsets.UTF_8);
+            for (int l = 0; l < 100; l++) {
+                char[] chars = new char[random.nextInt(12)];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+                }
+                String line = new String(chars);
+                byte[] bytes = ("\n" + line + "\n").getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                boolean any = false;
+                for (int p = 0; p < patterns.size(); p++) {
+                    if (patterns.get(p).matcher(line).find()) {
+                        any = true;
+                        String where = "seed " + seed + ", " + patterns.get(p) + " on \"" + line + "\"";
+                        assertTrue(prefilter.mayMatch(p, line), where);
+                        assertTrue(prefilter.mayMatch(p, buffer, 1, bytes.length - 1), where);
+                    }
+                }
+                if (any) {
+                    assertTrue(prefilter.mayMatchAny(buffer, 1, bytes.length - 1), "seed " + seed + " on \"" + line + "\"");
+                }
+            }
+        }
+    }
+
+    private static String required(String regex) {
+        return LiteralPrefilter.requiredLiteral(Pattern.compile(regex));
+    }
+}
@@ -0,0 +1,100 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Random pattern sets and lines, with fixed seeds, run through every engine and compared with
+ * "for each pattern: while (matcher.find())" over the line
+ */
+public class RegexEngineRandomTest {
+    private static final String[] ENGINES = {"auto", "dfa"};
+    private static final String[] FRAGMENTS = {
+            "a", "b", "c", "ab", "abc", "x", "B", "[ab]", "[^c]", "[a-c]", ".", "\\d", "\\w", "\\s", "\\.",
+            "a*", "b+", "c?", "(ab)*", "(a|b)+", "(?:ab|ba)", "a{2}", "b{1,3}", "(a|bc|)",
+            "^", "$", "\\b", "\\B",
+            "(?i)", "(?-i)", "(?i:ab)", "(?i)b", "(?s).",
+            "(a)\\1", "([bc])x?\\1", "(?<n>a|b)\\k<n>",
+            "\\Qa.b\\E", "(?=a)", "(?!b)", "a*?", "b+?"
+    };
+    private static final char[] ALPHABET = {'a', 'b', 'c', 'A', 'B', 'C', 'x', 'y', '1', '.', ' ', '-'};
+
+    @Test
+    public void enginesMatchThePerPatternLoop() {
+        for (long seed = 1; seed <= 300; seed++) {
+            Random random = new Random(seed);
+            List<Pattern> patterns = randomPatterns(random);
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                lines.add(randomLine(random));
+            }
+            for (String name : ENGINES) {
+                RegexEngine engine = RegexEngine.create(patterns, name).copy();
+                for (String line : lines) {
+                    String where = "seed " + seed + ", " + name + ", " + patterns + " on \"" + line + "\"";
+                    List<String> expected = loop(patterns, line);
+                    assertEquals(expected, hits(engine.findAll(line)), where);
+                    assertEquals(!expected.isEmpty(), engine.findAny(line), where);
+                    assertEquals(expected.size(), engine.count(line, false), where);
+                    for (int p = 0; p < patterns.size(); p++) {
+                        assertEquals(patterns.get(p).matcher(line).find(), engine.find(p, line), where + ", pattern " + p);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Pattern> randomPatterns(Random random) {
+        List<Pattern> patterns = new ArrayList<>();
+        int n = 2 + random.nextInt(3);
+        while (patterns.size() < n) {
+            StringBuilder regex = new StringBuilder();
+            int fragments = 1 + random.nextInt(4);
+            for (int i = 0; i < fragments; i++) {
+                regex.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            int flags = random.nextInt(4) == 0 ? Pattern.CASE_INSENSITIVE : 0;
+            try {
+                patterns.add(Pattern.compile(regex.toString(), flags));
+            } catch (PatternSyntaxException e) {
+                // e.g. a named group twice in one pattern
+            }
+        }
+        return patterns;
+    }
+
+    private static String randomLine(Random random) {
+        char[] line = new char[random.nextInt(24)];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(line);
+    }
+
+    private static List<String> loop(List<Pattern> patterns, String line) {
+        List<String> hits = new ArrayList<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            Matcher matcher = patterns.get(i).matcher(line);
+            while (matcher.find()) {
+                hits.add(i + ":" + matcher.start() + "-" + matcher.end());
+            }
+        }
+        return hits;
+    }
+
+    private static List<String> hits(MatchHits matchHits) {
+        List<String> hits = new ArrayList<>();
+        for (int i = 0; i < matchHits.size(); i++) {
+            hits.add(matchHits.pattern(i) + ":" + matchHits.start(i) + "-" + matchHits.end(i));
+        }
+        return hits;
+    }
+}
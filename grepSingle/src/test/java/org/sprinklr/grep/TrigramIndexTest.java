@@ -0,0 +1,130 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrigramIndexTest {
+
+    @TempDir
+    Path temp;
+    private long writes;
+
+    @Test
+    public void filesWithoutTheLiteralArePruned() throws IOException {
+        Path root = Files.createDirectories(temp.resolve("tree"));
+        Files.write(root.resolve("alpha.txt"), Arrays.asList("a Needle here", "more"));
+        Files.write(root.resolve("beta.txt"), Arrays.asList("need", "le"));
+        Path indexFile = root.resolve(".index");
+
+        List<Pattern> needle = Collections.singletonList(Pattern.compile("needle", Pattern.CASE_INSENSITIVE));
+        for (int run = 0; run < 2; run++) {
+            TrigramIndex index = TrigramIndex.open(indexFile, root.toString(), needle, false);
+            assertTrue(mayMatch(index, root, "alpha.txt"));
+            assertFalse(mayMatch(index, root, "beta.txt"));
+            index.save();
+        }
+        assertFalse(mayMatch(TrigramIndex.open(indexFile, root.toString(), needle, false), root, ".index"));
+
+        TrigramIndex inverted = TrigramIndex.open(indexFile, root.toString(), needle, true);
+        assertTrue(mayMatch(inverted, root, "beta.txt"));
+        TrigramIndex noLiteral = TrigramIndex.open(indexFile, root.toString(), Collections.singletonList(Pattern.compile("[a-z]+")), false);
+        assertTrue(mayMatch(noLiteral, root, "beta.txt"));
+    }
+
+    /**
+     * No false negatives: every file a pattern matches stays a candidate, whether it is decided from a scan
+     * while the index is built, from the posting lists read back, or from a scan after it changed
+     */
+    @Test
+    public void randomTreesKeepEveryMatchingFile() throws IOException {
+        String[] fragments = {"ab", "abc", "bca", "Ca", "cab", ".", "b*", "c?", "[ab]", "(ab|ca)", "a{2}", "\\Qa.b\\E", "\\d"};
+        String alphabet = "abcAB. 1";
+        for (long seed = 1; seed <= 20; seed++) {
+            Random random = new Random(seed);
+            Path root = Files.createDirectories(temp.resolve("tree" + seed));
+            Files.createDirectories(root.resolve("sub"));
+            List<String> files = new ArrayList<>();
+            for (int f = 0; f < 30; f++) {
+                String file = (f % 3 == 0 ? "sub/" : "") + "file" + f + ".txt";
+                files.add(file);
+                writeRandom(random, alphabet, root.resolve(file));
+            }
+            Path indexFile = temp.resolve("index" + seed);
+            for (int round = 0; round < 3; round++) {
+                List<Pattern> patterns = randomPatterns(random, fragments);
+                TrigramIndex index = TrigramIndex.open(indexFile, root.toString(), patterns, false);
+                for (String file : files) {
+                    if (matchesAny(patterns, root.resolve(file))) {
+                        assertTrue(mayMatch(index, root, file), "seed " + seed + ", round " + round + ", " + patterns + " in " + file);
+                    }
+                }
+                index.save();
+                // changed files are scanned again by the next round
+                for (int f = random.nextInt(files.size()); f < files.size(); f += 7) {
+                    writeRandom(random, alphabet, root.resolve(files.get(f)));
+                }
+            }
+        }
+    }
+
+    private static boolean mayMatch(TrigramIndex index, Path root, String file) throws IOException {
+        Path path = root.resolve(file);
+        return index.mayMatch(file, path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    private static List<Pattern> randomPatterns(Random random, String[] fragments) {
+        List<Pattern> patterns = new ArrayList<>();
+        while (patterns.size() < 1 + random.nextInt(3)) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                regex.append(fragments[random.nextInt(fragments.length)]);
+            }
+            try {
+                patterns.add(Pattern.compile(regex.toString(), random.nextBoolean() ? Pattern.CASE_INSENSITIVE : 0));
+            } catch (PatternSyntaxException e) {
+                // e.g. a dangling quantifier
+            }
+        }
+        return patterns;
+    }
+
+    private void writeRandom(Random random, String alphabet, Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int l = random.nextInt(8); l > 0; l--) {
+            char[] chars = new char[random.nextInt(15)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            lines.add(new String(chars));
+        }
+        Files.write(file, lines, Charset.defaultCharset());
+        // a rewrite of the same size within the same millisecond would look unchanged
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000_000L + 1000 * ++writes));
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, Path file) throws IOException {
+        try (Stream<String> lines = Files.lines(file, Charset.defaultCharset())) {
+            List<String> read = lines.collect(Collectors.toList());
+            return patterns.stream().anyMatch(pattern -> read.stream().anyMatch(line -> pattern.matcher(line).find()));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.sprinklr.grep;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffer of a single worker thread in front of a sink shared by all of them: matches are added without a lock
+ * and passed on with one addAll per flush, so the threads meet on the shared sink's lock once per batch
+ * (or FLUSH_MATCHES matches) instead of once per match
+ */
+public class BufferedSink implements ResultSink {
+    static int FLUSH_MATCHES = 1024;
+
+    private final ResultSink downstream;
+    private final List<LineResult> buffer = new ArrayList<>();
+    private long count;
+
+    /**
+     * @param downstream
+     */
+    public BufferedSink(ResultSink downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void add(LineResult lineResult) {
+        buffer.add(lineResult);
+        count++;
+        if (buffer.size() >= FLUSH_MATCHES) {
+            flush();
+        }
+    }
+
+    /**
+     * Passes the buffered matches on
+     */
+    public void flush() {
+        if (!buffer.isEmpty()) {
+            downstream.addAll(buffer);
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void finish() {
+        flush();
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+}
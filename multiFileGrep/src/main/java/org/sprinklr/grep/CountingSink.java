@@ -0,0 +1,59 @@
+package org.sprinklr.grep;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the number of matches only, for -c, or of matching lines for -cl.
+ * The workers count into a local long and add it once per batch or file, no LineResult is built for it
+ */
+public class CountingSink implements ResultSink {
+    private final LongAdder count = new LongAdder();
+    private final boolean lines;
+
+    /**
+     * @param lines true if lines are counted rather than matches
+     */
+    public CountingSink(boolean lines) {
+        this.lines = lines;
+    }
+
+    @Override
+    public void add(LineResult lineResult) {
+        count.increment();
+    }
+
+    @Override
+    public void addAll(List<LineResult> lineResults) {
+        count.add(lineResults.size());
+    }
+
+    /**
+     * @param counted matches or lines counted by a worker since it last added its count
+     */
+    public void addCount(long counted) {
+        count.add(counted);
+    }
+
+    /**
+     * @return true if lines are counted rather than matches
+     */
+    public boolean countsLines() {
+        return lines;
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public void printCount(PrintStream out) {
+        out.println((lines ? "Total lines matched  : " : "Total matches found  : ") + count());
+    }
+}
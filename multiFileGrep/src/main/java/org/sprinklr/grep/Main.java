@@ -1,10 +1,14 @@
 package org.sprinklr.grep;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -20,12 +24,38 @@ public class Main {
 
     public static void main(String[] args) throws IOException {
         String pwd = System.getProperty("user.dir");
+        if(args.length == 2 && args[0].equals("-ds")){
+            //keep serving searches on the localhost port, see SearchDaemon
+            SearchDaemon daemon = new SearchDaemon(portOf(args[1]));
+            System.out.println("multiFileGrep daemon listening on localhost:" + args[1] + ", token in " + daemon.getTokenFile());
+            daemon.serve();
+            return;
+        }
+        if(args.length > 2 && args[0].equals("-dc")){
+            //send the rest of the arguments to the daemon on the port as a query
+            SearchDaemon.query(portOf(args[1]), pwd, Arrays.asList(args).subList(2, args.length), System.out);
+            return;
+        }
+        search(pwd, args, System.out, new PatternCache(), null);
+    }
+
+    /**
+     * Runs a search, from the command line or for a query of the daemon
+     *
+     * @param pwd directory the files are relative to
+     * @param args
+     * @param out where everything is printed, but to -o
+     * @param patternCache
+     * @param sharedExecutor pool of the daemon, null for a pool of the search's own
+     * @throws IOException
+     */
+    static void search(String pwd, String[] args, PrintStream out, PatternCache patternCache, ExecutorService sharedExecutor) throws IOException {
         if(args.length<2){
-            System.out.println("Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [ -c | -n | -l |  ] ");
+            out.println("Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [ -c | -n | -l |  ] ");
             return;
         }
-        System.out.println("Under dev ... "+ ANSI_PURPLE +" multiFileGrep "+ANSI_RESET );
-        System.out.println("ran command from = "+pwd);
+        out.println("Under dev ... "+ ANSI_PURPLE +" multiFileGrep "+ANSI_RESET );
+        out.println("ran command from = "+pwd);
 
         List<Pattern> regexPatterns = new ArrayList<>();
         List<String> options = new ArrayList<>();
@@ -34,16 +64,16 @@ public class Main {
         List<String> dirs=new ArrayList<>();
 
         for(int i = 0; i < args.length; i++) {
-            System.out.println("parsing args["+i+"]="+args[i]);
+            out.println("parsing args["+i+"]="+args[i]);
             switch(args[i]){
                 case "-p":
                     i++;
                     while (i < args.length && !args[i].startsWith("-")) {
                         try {
-                            regexPatterns.add(Pattern.compile(args[i]));
+                            regexPatterns.add(patternCache.compile(args[i], 0));
                         } catch (PatternSyntaxException e ){
-                            System.out.println(ANSI_RED+"Regex pattern is not valid: " + e.getMessage());
-                            System.out.println(" [ignored]  + " + args[i] + " pattern"+ANSI_RESET);
+                            out.println(ANSI_RED+"Regex pattern is not valid: " + e.getMessage());
+                            out.println(" [ignored]  + " + args[i] + " pattern"+ANSI_RESET);
                         }
                         i++;
                     }
@@ -59,10 +89,10 @@ public class Main {
                             if (exists) {
                                 files.add(args[i]);
                             } else {
-                                System.out.println(ANSI_RED+"File "+args[i]+ " does not exist. [IGNORING] : filePath="+filePath+ANSI_RESET);
+                                out.println(ANSI_RED+"File "+args[i]+ " does not exist. [IGNORING] : filePath="+filePath+ANSI_RESET);
                             }
                         } catch (Exception e) {
-                                System.out.println(ANSI_RED+"[ERROR] opening file "+args[i] + " : " + e+ANSI_RESET);
+                                out.println(ANSI_RED+"[ERROR] opening file "+args[i] + " : " + e+ANSI_RESET);
                         }
                         i++;
                     }
@@ -96,9 +126,77 @@ public class Main {
                     //only count
                     options.add("-c");
                     break;
+                case "-cl":
+                    //only count the lines that match, each line once however many matches it has
+                    options.add("-cl");
+                    break;
+                case "-re":
+                    //regex engine used to match the patterns
+                    options.add("-re");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-vt":
+                    //a virtual thread per file (JDK 21+)
+                    options.add("-vt");
+                    break;
+                case "-t":
+                    //number of threads searching files, resized to the load if not given
+                    options.add("-t");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-of":
+                    //files open at the same time at most
+                    options.add("-of");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-o":
+                    //file the matches are written to instead of stdout
+                    options.add("-o");
+                    if (i + 1 < args.length) {
+                        options.add(Paths.get(pwd).resolve(args[++i]).toString());
+                    }
+                    break;
+                case "-ord":
+                    //matches grouped by file in the order the files are taken up, lines in file order
+                    options.add("-ord");
+                    break;
+                case "-sm":
+                    //memory the matches held for -ord may take before they are spilled to a temp file, in MB
+                    options.add("-sm");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 case "-R":
                     options.add("-R");
                     break;
+                case "-ix":
+                    //trigram index of the tree, built on the first -R search and updated as files change, to skip files that cannot match
+                    options.add("-ix");
+                    if (i + 1 < args.length) {
+                        options.add(Paths.get(pwd).resolve(args[++i]).toString());
+                    }
+                    break;
+                case "-rc":
+                    //directory of the result cache, files unchanged since the last search of the patterns are not read again
+                    options.add("-rc");
+                    if (i + 1 < args.length) {
+                        options.add(Paths.get(pwd).resolve(args[++i]).toString());
+                    }
+                    break;
+                case "-rs":
+                    //size the result cache may take on disk, in MB
+                    options.add("-rs");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 case "-ig":
                     options.add("-ig");
                     i++;
@@ -106,71 +204,109 @@ public class Main {
                         try{
                             fileIgnoreExtension.add(args[i]);
                         } catch (Exception e) {
-                            System.out.println(e);
+                            out.println(e);
                         }
                         i++;
                     }
                     i--;
                     break;
                 default:
-                    System.out.println(ANSI_RED+"Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] ");
-                    System.out.println("... unknown option " + args[i] + "  ignoring... "+ANSI_RESET);
+                    out.println(ANSI_RED+"Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] ");
+                    out.println("... unknown option " + args[i] + "  ignoring... "+ANSI_RESET);
                     break;
             }
         }
 
-        System.out.println("arguments processed.");
-        System.out.print("Patterns = [");
+        out.println("arguments processed.");
+        out.print("Patterns = [");
         for(Pattern regexPattern : regexPatterns){
-            System.out.print(regexPattern + ",");
+            out.print(regexPattern + ",");
         }
-        System.out.println("]");
+        out.println("]");
 
         //now process files and throw excpetions if any
-        System.out.print("Files gotten = [");
+        out.print("Files gotten = [");
         for(String file : files){
-            System.out.print(file +",");
+            out.print(file +",");
         }
-        System.out.println("]");
-        System.out.print("FilesIgnoreExtn = [");
+        out.println("]");
+        out.print("FilesIgnoreExtn = [");
         for(String ele : fileIgnoreExtension){
-            System.out.print(ele +",");
+            out.print(ele +",");
         }
-        System.out.println("]");
-        System.out.print("Dirs = [");
+        out.println("]");
+        out.print("Dirs = [");
         for(String dir : dirs){
-            System.out.print(dir +",");
+            out.print(dir +",");
         }
-        System.out.println("]");
-        System.out.print("Options = [");
+        out.println("]");
+        out.print("Options = [");
         for(String option : options){
-            System.out.print(option +",");
+            out.print(option +",");
         }
-        System.out.println("]");
+        out.println("]");
 
         MyRegexOptions optionsObj=new MyRegexOptions(options);
 
         List<Pattern> patternsToPass=new ArrayList<>();
         if(optionsObj.caseInsensitive){
-            System.out.println("making patterns in insensitive");
+            out.println("making patterns in insensitive");
             for(Pattern pattern : regexPatterns) {
-                patternsToPass.add(Pattern.compile(pattern.pattern(), pattern.flags() | Pattern.CASE_INSENSITIVE));
+                patternsToPass.add(patternCache.compile(pattern.pattern(), pattern.flags() | Pattern.CASE_INSENSITIVE));
             }
         } else {
             for(Pattern pattern : regexPatterns) {
-                patternsToPass.add(Pattern.compile(pattern.pattern() ));
+                patternsToPass.add(patternCache.compile(pattern.pattern(), 0));
             }
         }
 
+        PatternCache.CachedEngine engine = patternCache.engine(patternsToPass, optionsObj.regexEngine);
+        // the threads of the daemon's pool keep their copies with the cached engine, those of a pool of the search's own drop them with the pool
+        Supplier<RegexEngine> regexEngines = sharedExecutor != null ? engine::forCurrentThread : ThreadLocal.withInitial(engine.prototype()::copy)::get;
+
         long begin = System.currentTimeMillis();
-        MuliFileGrep myGrep=new MuliFileGrep(pwd,patternsToPass,files,dirs,optionsObj,fileIgnoreExtension);
+        MuliFileGrep myGrep=new MuliFileGrep(pwd,patternsToPass,files,dirs,optionsObj,fileIgnoreExtension,
+                out, ResultSink.create(optionsObj, out), regexEngines, sharedExecutor);
         myGrep.executeFileParallel();
         long end = System.currentTimeMillis();
         //
-        if(!optionsObj.onlyCountLines ) myGrep.grepResult.printResults();
-        System.out.println(ANSI_GREEN);
-        myGrep.grepResult.printCount();
-        System.out.print(ANSI_RESET);
-        System.out.println(ANSI_YELLOW+" ... multiFileGrep took " + (end-begin) + "ms"+ANSI_RESET);
+        myGrep.grepResult.finish();
+        if(myGrep.index != null) {
+            myGrep.index.save();
+        }
+        if(myGrep.cache != null) {
+            myGrep.cache.save();
+        }
+        out.println(ANSI_GREEN);
+        myGrep.grepResult.printCount(out);
+        out.print(ANSI_RESET);
+        out.println(ANSI_YELLOW+" ... multiFileGrep took " + (end-begin) + "ms"+ANSI_RESET);
+        if(myGrep.index != null) {
+            out.println(" ... index : " + myGrep.index);
+        }
+        if(myGrep.cache != null) {
+            out.println(" ... result cache : " + myGrep.cache);
+        }
+        if(myGrep.orderedResult != null) {
+            out.println(" ... reorder buffer : peak " + myGrep.orderedResult.peakBuffered() + " matches");
+            out.println(" ... spilled : " + myGrep.orderedResult.getSpill());
+            myGrep.orderedResult.getSpill().close();
+        }
+        if(myGrep.poolThreads > 0) {
+            out.println(" ... threads : " + myGrep.poolThreads + " at the end, peak " + myGrep.peakPoolThreads
+                    + String.format(", %.1fx as long waiting on storage as on cpu", myGrep.waitPerCpu));
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the port given to -ds or -dc
+     */
+    private static int portOf(String port) {
+        try {
+            return Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-ds and -dc must be given a port");
+        }
     }
 }
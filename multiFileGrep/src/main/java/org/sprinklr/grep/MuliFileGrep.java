@@ -3,16 +3,24 @@ package org.sprinklr.grep;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.PrintStream;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 /**
  * Grep(multiFile) class for flexible and customizable way to perform text searches in files using regular expressions
@@ -24,8 +32,27 @@ public class MuliFileGrep {
     List<String> ignoreExtn;
     List<String> directories;
     MyRegexOptions options;
-    Result grepResult;
+    ResultSink grepResult;
+    CountingSink counter;
+    OrderedSink orderedResult;
     LineResult.Builder builder;
+    Supplier<RegexEngine> regexEngines;
+    Semaphore openFiles;
+    BlockingQueue<String> filesQueue;
+    DirectoryWalker walker;
+    TrigramIndex index;
+    ResultCache cache;
+    ExecutorService sharedExecutor;
+    PrintStream out;
+    static int CORES=Runtime.getRuntime().availableProcessors();
+    static int MAX_POOL_THREADS=256;
+    static long RESIZE_MILLIS=100;
+    private static final ThreadMXBean THREADS=ManagementFactory.getThreadMXBean();
+    LongAdder taskWallNanos=new LongAdder();
+    LongAdder taskCpuNanos=new LongAdder();
+    int poolThreads;
+    int peakPoolThreads;
+    double waitPerCpu;
 
     /**
      *
@@ -39,22 +66,57 @@ public class MuliFileGrep {
      * @throws IOException
      */
     public MuliFileGrep(String pwd, List<Pattern> regexPatterns, List<String> files, List<String> directories, MyRegexOptions options,List<String> ignoreExtn) throws IllegalArgumentException, IOException {
+        this(pwd, regexPatterns, files, directories, options, ignoreExtn, System.out, ResultSink.create(options, System.out),
+                ThreadLocal.withInitial(RegexEngine.create(regexPatterns, options.regexEngine)::copy)::get, null);
+    }
+
+    /**
+     * For the queries of the daemon (-ds): the matches and messages go to the client, the engine comes from the PatternCache
+     * and the files are searched by the daemon's pool, shared by the queries running at the same time
+     *
+     * @param pwd
+     * @param regexPatterns
+     * @param files
+     * @param directories
+     * @param options
+     * @param ignoreExtn
+     * @param out where the messages of the search are printed
+     * @param grepResult
+     * @param regexEngines gives the engine of the calling thread, a copy of its own
+     * @param sharedExecutor pool searching the files, null for one of this search's own
+     * @throws IllegalArgumentException
+     * @throws IOException
+     */
+    public MuliFileGrep(String pwd, List<Pattern> regexPatterns, List<String> files, List<String> directories, MyRegexOptions options,List<String> ignoreExtn,
+                        PrintStream out, ResultSink grepResult, Supplier<RegexEngine> regexEngines, ExecutorService sharedExecutor) throws IllegalArgumentException, IOException {
         this.pwd=pwd;
         this.options=options;
         this.regexPatterns=regexPatterns;
         this.files=files;
         this.directories=directories;
         this.ignoreExtn=ignoreExtn;
+        this.out=out;
 
-        this.grepResult=new Result();
+        this.grepResult=grepResult;
+        this.counter=options.onlyCountLines ? (CountingSink) grepResult : null;
+        // a count has nothing to order
+        this.orderedResult=options.ordered && counter == null ? new OrderedSink(grepResult, new ResultSpill(options.spillMemoryMb << 20)) : null;
         this.builder=new LineResult.Builder(options);
+        this.sharedExecutor=sharedExecutor;
+        this.regexEngines=regexEngines;
+        this.openFiles=new Semaphore(options.maxOpenFiles);
 
-        if(options.dirSearch){
-            addFilesRecursive();
-        }
+        this.filesQueue=new LinkedBlockingQueue<>(files);
+        this.cache=options.cacheDirectory != null ? ResultCache.open(Paths.get(options.cacheDirectory), regexPatterns, options, options.cacheMb << 20) : null;
 
-        if(files.isEmpty()){
+        if(options.dirSearch){
+            // -v prints the lines that do not match, so no file can be ruled out
+            this.index=options.indexFile != null ? TrigramIndex.open(Paths.get(options.indexFile), pwd, regexPatterns, options.invertedSearch) : null;
+            this.walker=DirectoryWalker.start(pwd, filesQueue, index);
+        } else if(files.isEmpty()){
             throw new IllegalArgumentException("{ No files to search }");
+        } else {
+            this.walker=DirectoryWalker.none(filesQueue);
         }
     }
 
@@ -62,95 +124,251 @@ public class MuliFileGrep {
      * dummy execute from singleGrep; not used in this code
      */
     public void execute() {
-        if(options.invertedSearch){
-            for(String file : files){
-                invertedProcessFile(file);
-            }
-        } else {
-            for(String file : files){
-                processFile(file);
+        try {
+            String file;
+            while ((file = walker.next()) != null) {
+                searchFile(file, orderedResult != null ? orderedResult.newPart() : 0);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Executes the grep operation in parallel for each file, according to inverted flag
+     * Executes the grep operation in parallel for each file, according to inverted flag.
+     * With -vt every file gets its own virtual thread, so files waiting on slow (network) storage do not hold
+     * a pool thread each; the number of files open at the same time is bounded by -of in both modes.
+     * With -R files are submitted as the walk finds them. Without -t the pool is resized while it runs, see resizePool().
+     * A shared pool is neither resized nor shut down, the search waits for its own tasks only
      */
     public void executeFileParallel() {
-        ExecutorService excutor = Executors.newFixedThreadPool(25);
+        ExecutorService excutor = sharedExecutor != null ? sharedExecutor : newExecutor();
+        boolean resize = sharedExecutor == null && excutor instanceof ThreadPoolExecutor && options.threads == 0;
+        List<Future<?>> tasks = sharedExecutor != null ? new ArrayList<>() : null;
+        long lastResize = System.nanoTime();
         try {
-            if (options.invertedSearch) {
-                for (String file : files) {
-                    boolean flag=true;
-                    for(String ignore : ignoreExtn){
-                        if(file.endsWith(ignore)) {
-                            flag=false;
-                            break;
-                        }
+            String file;
+            while ((file = walker.next()) != null) {
+                boolean flag=true;
+                for(String ignore : ignoreExtn){
+                    if(file.endsWith(ignore)) {
+                        flag=false;
+                        break;
                     }
-                    if(flag) excutor.submit( () -> processFile(file) );
                 }
-            } else {
-                for (String file : files) {
-                    boolean flag=true;
-                    for(String ignore : ignoreExtn){
-                        if(file.endsWith(ignore)) {
-                            flag=false;
-                            break;
+                if(flag) {
+                    String submitted = file;
+                    // numbered as submitted, -ord prints the files in this order
+                    int part = orderedResult != null ? orderedResult.newPart() : 0;
+                    Future<?> task = excutor.submit(() -> {
+                        openFiles.acquireUninterruptibly();
+                        long wall = System.nanoTime();
+                        long cpu = cpuNanos();
+                        try {
+                            searchFile(submitted, part);
+                        } finally {
+                            taskCpuNanos.add(cpuNanos() - cpu);
+                            taskWallNanos.add(System.nanoTime() - wall);
+                            openFiles.release();
                         }
+                    });
+                    if (tasks != null) {
+                        tasks.add(task);
                     }
-                    if(flag) excutor.submit( () -> processFile(file) );
+                }
+                // a long walk keeps this loop going, the pool is resized meanwhile too
+                if (resize && System.nanoTime() - lastResize > TimeUnit.MILLISECONDS.toNanos(RESIZE_MILLIS)) {
+                    resizePool((ThreadPoolExecutor) excutor);
+                    lastResize = System.nanoTime();
                 }
             }
+            if (tasks != null) {
+                awaitAll(tasks);
+                return;
+            }
             excutor.shutdown();
+            if (resize) {
+                while (!excutor.awaitTermination(RESIZE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    resizePool((ThreadPoolExecutor) excutor);
+                }
+            }
             excutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
         } catch (Exception e){
-            System.out.println(e);
+            out.println(e);
         }
     }
 
     /**
-     * Method to recursively add files in the specified directories
+     * Waits for the tasks of this search on the shared pool; one failing does not stop the wait for the others
+     */
+    private void awaitAll(List<Future<?>> tasks) throws InterruptedException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace(out);
+            }
+        }
+    }
+
+    /**
+     * @return a virtual thread per task executor with -vt when the JDK has one, else a pool of -t threads,
+     * or of two per core to start with when -t is not given
+     */
+    private ExecutorService newExecutor() {
+        if (options.virtualThreads) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                return virtualExecutor;
+            }
+            out.println("virtual threads need JDK 21+, running on " + System.getProperty("java.version") + " [using a thread pool]");
+        }
+        poolThreads = options.threads > 0 ? options.threads : Math.max(1, Math.min(fileCount(), 2 * CORES));
+        peakPoolThreads = poolThreads;
+        return new ThreadPoolExecutor(poolThreads, poolThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * Moves the pool halfway towards cores * (1 + wait / cpu), the size that keeps every core busy while
+     * the other threads wait on storage, from the files searched since the last call.
+     * Threads beyond the cores also wait for a core, which shows up as wall time too; that share is taken
+     * out first, else an oversized pool of cpu bound tasks would measure the wait that keeps it oversized
+     */
+    private void resizePool(ThreadPoolExecutor pool) {
+        long wall = taskWallNanos.sumThenReset();
+        long cpu = taskCpuNanos.sumThenReset();
+        if (cpu <= 0) {
+            return;
+        }
+        double queuedForCore = Math.max(1.0, (double) poolThreads / CORES);
+        waitPerCpu = Math.max(0.0, (double) wall / cpu - queuedForCore);
+        int target = (int) Math.round(CORES * (1 + waitPerCpu));
+        target = Math.max(CORES, Math.min(Math.min(MAX_POOL_THREADS, fileCount()), target));
+        int next = (poolThreads + target + 1) / 2;
+        if (next == poolThreads) {
+            return;
+        }
+        // the core size may never exceed the maximum size
+        if (next > poolThreads) {
+            pool.setMaximumPoolSize(next);
+            pool.setCorePoolSize(next);
+        } else {
+            pool.setCorePoolSize(next);
+            pool.setMaximumPoolSize(next);
+        }
+        poolThreads = next;
+        peakPoolThreads = Math.max(peakPoolThreads, next);
+    }
+
+    /**
+     * @return files to search, as many as a pool may use while the walk still runs
+     */
+    private int fileCount() {
+        return walker.isDone() ? (int) Math.min(Integer.MAX_VALUE, files.size() + walker.filesFound()) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return CPU time of the current thread, wall time if the JVM does not measure it
+     */
+    static long cpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Looked up reflectively so that the sources still build for Java 11, see the jdk21 profile of the pom
      *
-     * @throws IOException
+     * @return an executor starting a virtual thread per task, or null if the running JDK has none
      */
-    private void addFilesRecursive() throws IOException {
-        Path dir = Paths.get(pwd);
-        addFileRecursiveUtil(dir);
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
     }
 
     /**
-     * Utility method to add files recursively
+     * Searches the file according to the inverted flag; with -ord its matches are held until the earlier files are printed
+     *
+     * @param file
+     * @param part number of the file for the OrderedSink
      */
-    private void addFileRecursiveUtil(Path dir) throws IOException {
-        try (Stream<Path> paths = Files.walk(dir)) {
-            paths.forEach(path -> {
-                if (Files.isRegularFile(path)) {
-                    String relFilePath=path.toString().substring(pwd.length()+1);
-                    files.add(relFilePath);
-                }
-            });
+    private void searchFile(String file, int part) {
+        // with -rc a file unchanged since the last search of the patterns is replayed instead of read
+        ResultCache.Entry entry = cache != null ? cache.entry(pwd+"/"+file) : null;
+        if (counter != null) {
+            countFile(file, entry);
+            return;
         }
+        ResultColumns held = orderedResult != null ? new ResultColumns(builder, regexPatterns, orderedResult.getSpill()) : null;
+        // each task buffers its own matches, the shared sink is locked once per flush
+        BufferedSink buffered = held == null ? new BufferedSink(grepResult) : null;
+        try {
+            if (entry != null && entry.isKept()) {
+                replay(file, entry, held, buffered);
+            } else if (options.invertedSearch) {
+                invertedProcessFile(file, held, buffered, entry);
+            } else {
+                processFile(file, held, buffered, entry);
+            }
+        } finally {
+            if (held != null) {
+                orderedResult.add(part, 0, held);
+                orderedResult.done(part, 1);
+            } else {
+                buffered.flush();
+            }
+        }
+    }
+
+    /**
+     * Passes on the matches the ResultCache kept for the file, as processFile() would have found them
+     *
+     * @param file
+     * @param entry
+     * @param held columns the matches are held in with -ord, else null
+     * @param out sink of the matches without -ord
+     */
+    private void replay(String file, ResultCache.Entry entry, ResultColumns held, ResultSink out) {
+        entry.replay((lineNumber, pattern, text) -> {
+            if (held != null) {
+                held.add(lineNumber, text, 0, text.length(), file, pattern);
+            } else {
+                out.add(builder.build(lineNumber, text, file, regexPatterns.get(pattern)));
+            }
+        });
     }
 
     /**
      * Processes a file by matching the regular expression patterns in each line
      *
      * @param file
+     * @param held columns the matches are held in with -ord, else null
+     * @param out sink of the matches without -ord
+     * @param entry where the matches are recorded with -rc, else null
      */
-    private void processFile(String file) {
+    private void processFile(String file, ResultColumns held, ResultSink out, ResultCache.Entry entry) {
         try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
             String line;
             int lineNumber = 1;
+            RegexEngine regexEngine = regexEngines.get();
             while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
-                    Matcher matcher = pattern.matcher(line);
-                    while(matcher.find()) {
-                        grepResult.addResult( builder.build(lineNumber, matcher.group(), file, pattern) );
+                MatchHits hits = regexEngine.findAll(line);
+                for (int h = 0; h < hits.size(); h++) {
+                    if (held != null) {
+                        held.add(lineNumber, line, hits.start(h), hits.end(h), file, hits.pattern(h));
+                    } else {
+                        out.add( builder.build(lineNumber, line.substring(hits.start(h), hits.end(h)), file, regexPatterns.get(hits.pattern(h))) );
+                    }
+                    if (entry != null) {
+                        entry.add(0, lineNumber, hits.pattern(h), line.substring(hits.start(h), hits.end(h)));
                     }
                 }
                 lineNumber++;
             }
+            if (entry != null) {
+                entry.done();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -159,23 +377,82 @@ public class MuliFileGrep {
     /**
      * Processes a file in an inverted manner, excluding lines that match the regular expression patterns
      * @param file
+     * @param held columns the matches are held in with -ord, else null
+     * @param out sink of the matches without -ord
+     * @param entry where the matches are recorded with -rc, else null
      */
-    private void invertedProcessFile(String file) {
+    private void invertedProcessFile(String file, ResultColumns held, ResultSink out, ResultCache.Entry entry) {
         try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
             String line;
             int lineNumber = 1;
+            RegexEngine regexEngine = regexEngines.get();
             while ((line = reader.readLine()) != null) {
-                for (Pattern pattern : regexPatterns) {
-                    Matcher matcher = pattern.matcher(line);
-                    if (!matcher.find()) {
-                        LineResult lineResult = builder.build(lineNumber, line, file,pattern);
-                        grepResult.addResult(lineResult);
+                for (int i = 0; i < regexPatterns.size(); i++) {
+                    if (!regexEngine.find(i, line)) {
+                        if (held != null) {
+                            held.add(lineNumber, line, 0, line.length(), file, i);
+                        } else {
+                            LineResult lineResult = builder.build(lineNumber, line, file, regexPatterns.get(i));
+                            out.add(lineResult);
+                        }
+                        if (entry != null) {
+                            entry.add(0, lineNumber, i, line);
+                        }
                     }
                 }
                 lineNumber++;
             }
+            if (entry != null) {
+                entry.done();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Counts the matches of a file for -c, or its matching lines for -cl, with -v the ones it would print;
+     * nothing is built per match, the file's count is added once
+     *
+     * @param file
+     * @param entry where the count is recorded with -rc, or kept from the last search, else null
+     */
+    private void countFile(String file, ResultCache.Entry entry) {
+        if (entry != null && entry.isKept()) {
+            counter.addCount(entry.keptCount());
+            return;
+        }
+        long counted = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+file))) {
+            String line;
+            RegexEngine regexEngine = regexEngines.get();
+            while ((line = reader.readLine()) != null) {
+                counted += options.invertedSearch ? countInverted(regexEngine, line) : regexEngine.count(line, options.countLines);
+            }
+            if (entry != null) {
+                entry.addCount(counted);
+                entry.done();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            counter.addCount(counted);
+        }
+    }
+
+    /**
+     * @return patterns not matching the line, as -v reports them, or 0 or 1 when counting lines
+     */
+    private int countInverted(RegexEngine regexEngine, String line) {
+        int missed = 0;
+        for (int i = 0; i < regexPatterns.size(); i++) {
+            if (!regexEngine.find(i, line)) {
+                if (options.countLines) {
+                    return 1;
+                }
+                missed++;
+            }
+        }
+        return missed;
+    }
 }
@@ -7,6 +7,7 @@ import java.util.List;
  */
 public class MyRegexOptions {
     final boolean onlyCountLines;
+    final boolean countLines;
     final boolean invertedSearch;
     final boolean caseInsensitive;
     final boolean showLineNumbers;
@@ -14,9 +15,20 @@ public class MyRegexOptions {
     final boolean showFiles;
     final boolean dirSearch;
     final boolean showPattern;
+    final String regexEngine;
+    final boolean virtualThreads;
+    final int maxOpenFiles;
+    final int threads;
+    final String outputFile;
+    final String indexFile;
+    final boolean ordered;
+    final long spillMemoryMb;
+    final String cacheDirectory;
+    final long cacheMb;
 
     public MyRegexOptions(List<String> options){
-        this.onlyCountLines = options.contains("-c");
+        this.countLines = options.contains("-cl");
+        this.onlyCountLines = options.contains("-c") || countLines;
         this.invertedSearch = options.contains("-v");
         this.showLineNumbers = options.contains("-n");
         this.showLines = options.contains("-l");
@@ -24,9 +36,65 @@ public class MyRegexOptions {
         this.caseInsensitive = options.contains("-i");
         this.dirSearch = options.contains("-R");
         this.showPattern = options.contains("-sp");
+        this.regexEngine = valueOf(options, "-re", "auto");
+        this.virtualThreads = options.contains("-vt");
+        this.outputFile = valueOf(options, "-o", null);
+        this.indexFile = valueOf(options, "-ix", null);
+        this.ordered = options.contains("-ord");
+        this.cacheDirectory = valueOf(options, "-rc", null);
+        try {
+            this.cacheMb = Long.parseLong(valueOf(options, "-rs", "256"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-rs must be a cache size in MB");
+        }
+        try {
+            // a quarter of the heap by default
+            this.spillMemoryMb = Long.parseLong(valueOf(options, "-sm", String.valueOf(Runtime.getRuntime().maxMemory() >> 22)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-sm must be a memory budget in MB");
+        }
+        try {
+            this.maxOpenFiles = Integer.parseInt(valueOf(options, "-of", "512"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-of must be a number of files");
+        }
+        try {
+            this.threads = Integer.parseInt(valueOf(options, "-t", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-t must be a number of threads");
+        }
 
+        if( !regexEngine.equals("auto") && !regexEngine.equals("dfa") ){
+            throw new IllegalArgumentException("-re must be one of [ auto | dfa ]");
+        }
+        if( maxOpenFiles <= 0 ){
+            throw new IllegalArgumentException("-of must be a number of files");
+        }
+        if( spillMemoryMb <= 0 ){
+            throw new IllegalArgumentException("-sm must be a memory budget in MB");
+        }
+        if( cacheMb <= 0 ){
+            throw new IllegalArgumentException("-rs must be a cache size in MB");
+        }
+        if( threads < 0 ){
+            throw new IllegalArgumentException("-t must be a number of threads");
+        }
+        if( indexFile != null && !dirSearch ){
+            throw new IllegalArgumentException("-ix can only be used with -R");
+        }
         if( onlyCountLines && ( showLines || showLineNumbers ||  showFiles || showPattern)  ){
-            throw new IllegalArgumentException("-c cannot be used togther with [ -n | -l | -sf | -sp ]");
+            throw new IllegalArgumentException("-c and -cl cannot be used togther with [ -n | -l | -sf | -sp ]");
+        }
+    }
+
+    /**
+     * @return the value given right after the option, or the default if the option is absent
+     */
+    private static String valueOf(List<String> options, String option, String defaultValue) {
+        int index = options.indexOf(option);
+        if (index < 0 || index + 1 >= options.size()) {
+            return defaultValue;
         }
+        return options.get(index + 1);
     }
 }
@@ -0,0 +1,103 @@
+package org.sprinklr.grep;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled patterns, and the regex engines built from them, kept for the next queries of the daemon (-ds):
+ * the same few patterns come back query after query, and building a DfaEngine costs more than the small
+ * search it is built for. Both are least recently used first out once CAPACITY is reached.
+ * Only copies of a cached engine are matched with, see RegexEngine.copy(); the copies of the daemon's threads
+ * are kept with the engine, warm for the next query, and dropped with it
+ */
+public class PatternCache {
+    static int CAPACITY = 256;
+
+    private final Map<String, Pattern> patterns = new Lru<>();
+    private final Map<String, CachedEngine> engines = new Lru<>();
+    private long hits;
+    private long misses;
+
+    /**
+     * @param regex
+     * @param flags
+     * @return the pattern, compiled on the first use
+     * @throws java.util.regex.PatternSyntaxException
+     */
+    public synchronized Pattern compile(String regex, int flags) {
+        String key = flags + "/" + regex;
+        Pattern pattern = patterns.get(key);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex, flags);
+            patterns.put(key, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * @param regexPatterns
+     * @param name value of the -re option
+     * @return the engine for the patterns, built on the first use
+     */
+    public synchronized CachedEngine engine(List<Pattern> regexPatterns, String name) {
+        StringBuilder key = new StringBuilder(name);
+        for (Pattern pattern : regexPatterns) {
+            // the length keeps patterns holding the separator apart
+            key.append('/').append(pattern.flags()).append('/').append(pattern.pattern().length()).append('/').append(pattern.pattern());
+        }
+        CachedEngine engine = engines.get(key.toString());
+        if (engine == null) {
+            misses++;
+            engine = new CachedEngine(RegexEngine.create(regexPatterns, name));
+            engines.put(key.toString(), engine);
+        } else {
+            hits++;
+        }
+        return engine;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return patterns.size() + " patterns, " + engines.size() + " engines, " + hits + " hits, " + misses + " misses";
+    }
+
+    /**
+     * An engine and the copies the threads matched with so far, one per thread.
+     * Meant for the fixed pool of the daemon: a pool starting a thread per task would leave a copy per task
+     */
+    public static class CachedEngine {
+        private final RegexEngine prototype;
+        private final Map<Thread, RegexEngine> copies = new ConcurrentHashMap<>();
+
+        CachedEngine(RegexEngine prototype) {
+            this.prototype = prototype;
+        }
+
+        public RegexEngine prototype() {
+            return prototype;
+        }
+
+        /**
+         * @return the copy of the calling thread, made on its first call
+         */
+        public RegexEngine forCurrentThread() {
+            return copies.computeIfAbsent(Thread.currentThread(), thread -> prototype.copy());
+        }
+    }
+
+    private static class Lru<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+
+        Lru() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > CAPACITY;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.sprinklr.grep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches held in columns of primitives rather than as a LineResult each, for the pieces waiting in the OrderedSink:
+ * an id into a small table of the files of the piece, the line number, the index of the pattern, and the end of the
+ * matched text, which is appended to a single buffer instead of being cut out as a substring per match.
+ * The file ids are only kept once a second file comes in and the text ends only if the text is shown, so a match
+ * costs 6 to 10 bytes plus its text, against a hundred or so for a LineResult with its Integer and substring;
+ * the LineResults are only built, through the Builder, a chunk at a time as the matches are passed on.
+ * The index of the pattern takes a short, an int in a search of more than SHORT_PATTERNS patterns.
+ * Written by a single thread, then handed over whole.
+ * Once the pieces held take more heap than the budget of the ResultSpill the columns are moved to its log,
+ * a row of line number, pattern, file id and length prefixed UTF-8 text per match, and start over empty;
+ * the rows spilled are read back first as the matches are passed on
+ */
+public class ResultColumns {
+    static int PASS_CHUNK = 1024;
+    static int ACCOUNT_EVERY = 1024;
+    // pattern indexes a short column holds
+    static final int SHORT_PATTERNS = Short.MAX_VALUE + 1;
+
+    private final LineResult.Builder builder;
+    private final List<Pattern> regexPatterns;
+    private final ResultSpill spill;
+    private final boolean keepText;
+    private String[] files = new String[1];
+    private int fileCount;
+    private int size;
+    private int[] fileIds;
+    private int[] lineNumbers = new int[16];
+    // a short per match, an int once the patterns outnumber what a short holds
+    private short[] patterns;
+    private int[] widePatterns;
+    private int[] textEnds;
+    private StringBuilder text = new StringBuilder();
+    private List<long[]> spilled;
+    private int spilledSize;
+    private long reserved;
+
+    /**
+     * @param builder
+     * @param regexPatterns
+     * @param spill budget and log to spill to, null to hold everything on the heap
+     */
+    public ResultColumns(LineResult.Builder builder, List<Pattern> regexPatterns, ResultSpill spill) {
+        this.builder = builder;
+        this.regexPatterns = regexPatterns;
+        this.spill = spill;
+        this.keepText = builder.showsLines();
+        if (regexPatterns.size() > SHORT_PATTERNS) {
+            this.widePatterns = new int[16];
+        } else {
+            this.patterns = new short[16];
+        }
+        this.textEnds = keepText ? new int[16] : null;
+    }
+
+    /**
+     * @param lineNumber
+     * @param line whole line the match is in
+     * @param start start of the match in the line
+     * @param end end of the match in the line
+     * @param file
+     * @param pattern index of the pattern
+     */
+    public void add(int lineNumber, String line, int start, int end, String file, int pattern) {
+        if (size == lineNumbers.length) {
+            int grown = size * 2;
+            lineNumbers = Arrays.copyOf(lineNumbers, grown);
+            if (widePatterns != null) {
+                widePatterns = Arrays.copyOf(widePatterns, grown);
+            } else {
+                patterns = Arrays.copyOf(patterns, grown);
+            }
+            if (fileIds != null) {
+                fileIds = Arrays.copyOf(fileIds, grown);
+            }
+            if (keepText) {
+                textEnds = Arrays.copyOf(textEnds, grown);
+            }
+        }
+        int fileId = fileId(file);
+        if (fileIds != null) {
+            fileIds[size] = fileId;
+        }
+        lineNumbers[size] = lineNumber;
+        if (widePatterns != null) {
+            widePatterns[size] = pattern;
+        } else {
+            patterns[size] = (short) pattern;
+        }
+        if (keepText) {
+            text.append(line, start, end);
+            textEnds[size] = text.length();
+        }
+        size++;
+        if (spill != null && size % ACCOUNT_EVERY == 0) {
+            reserve();
+            if (spill.isOver()) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * @return number of matches held, spilled ones included
+     */
+    public int size() {
+        return spilledSize + size;
+    }
+
+    /**
+     * Moves the matches on the heap to the log of the ResultSpill, a chunk at a time, the columns start over empty
+     */
+    public void spill() {
+        if (spill == null || size == 0) {
+            return;
+        }
+        if (spilled == null) {
+            spilled = new ArrayList<>();
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(ResultSpill.CHUNK_BYTES);
+        int textStart = 0;
+        for (int i = 0; i < size; i++) {
+            byte[] matched = null;
+            if (keepText) {
+                matched = text.substring(textStart, textEnds[i]).getBytes(StandardCharsets.UTF_8);
+                textStart = textEnds[i];
+            }
+            int rowBytes = 10 + (widePatterns != null ? 2 : 0) + (keepText ? 4 + matched.length : 0);
+            if (chunk.remaining() < rowBytes) {
+                spilled.add(spill.append(chunk));
+                chunk = rowBytes > chunk.capacity() ? ByteBuffer.allocate(rowBytes) : chunk.clear();
+            }
+            chunk.putInt(lineNumbers[i]);
+            if (widePatterns != null) {
+                chunk.putInt(widePatterns[i]);
+            } else {
+                chunk.putShort(patterns[i]);
+            }
+            chunk.putInt(fileIds != null ? fileIds[i] : 0);
+            if (keepText) {
+                chunk.putInt(matched.length).put(matched);
+            }
+        }
+        spilled.add(spill.append(chunk));
+        spill.spilled(size);
+        spilledSize += size;
+        size = 0;
+        lineNumbers = new int[16];
+        if (widePatterns != null) {
+            widePatterns = new int[16];
+        } else {
+            patterns = new short[16];
+        }
+        fileIds = fileIds != null ? new int[16] : null;
+        textEnds = keepText ? new int[16] : null;
+        text = new StringBuilder();
+        reserve();
+    }
+
+    /**
+     * Builds the LineResults of the matches and adds them to the sink, a chunk at a time,
+     * so only a chunk of them is on the heap at once
+     *
+     * @param downstream
+     */
+    public void passTo(ResultSink downstream) {
+        List<LineResult> chunk = new ArrayList<>(Math.min(size(), PASS_CHUNK));
+        if (spilled != null) {
+            byte[] matched = new byte[64];
+            for (long[] extent : spilled) {
+                ByteBuffer rows = spill.map(extent);
+                while (rows.hasRemaining()) {
+                    int lineNumber = rows.getInt();
+                    int pattern = widePatterns != null ? rows.getInt() : rows.getShort();
+                    int fileId = rows.getInt();
+                    String line = null;
+                    if (keepText) {
+                        int length = rows.getInt();
+                        if (length > matched.length) {
+                            matched = new byte[Math.max(length, matched.length * 2)];
+                        }
+                        rows.get(matched, 0, length);
+                        line = new String(matched, 0, length, StandardCharsets.UTF_8);
+                    }
+                    chunk.add(builder.build(lineNumber, line, files[fileId], regexPatterns.get(pattern)));
+                    if (chunk.size() == PASS_CHUNK) {
+                        downstream.addAll(chunk);
+                        chunk.clear();
+                    }
+                }
+            }
+        }
+        int textStart = 0;
+        for (int i = 0; i < size; i++) {
+            String matched = null;
+            if (keepText) {
+                matched = text.substring(textStart, textEnds[i]);
+                textStart = textEnds[i];
+            }
+            chunk.add(builder.build(lineNumbers[i], matched, files[fileIds != null ? fileIds[i] : 0], regexPatterns.get(widePatterns != null ? widePatterns[i] : patterns[i])));
+            if (chunk.size() == PASS_CHUNK) {
+                downstream.addAll(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            downstream.addAll(chunk);
+        }
+        if (spill != null) {
+            spill.reserve(-reserved);
+            reserved = 0;
+        }
+    }
+
+    /**
+     * Brings the heap reserved from the budget up to date with the size of the columns
+     */
+    private void reserve() {
+        long bytes = (widePatterns != null ? 8L : 6L) * lineNumbers.length + 2L * text.capacity();
+        if (fileIds != null) {
+            bytes += 4L * fileIds.length;
+        }
+        if (keepText) {
+            bytes += 4L * textEnds.length;
+        }
+        spill.reserve(bytes - reserved);
+        reserved = bytes;
+    }
+
+    /**
+     * A piece is mostly the lines of one file, so the last file added is tried first;
+     * the ids of the matches so far are all 0 when a second file comes in
+     */
+    private int fileId(String file) {
+        for (int i = fileCount - 1; i >= 0; i--) {
+            if (files[i] == file || files[i].equals(file)) {
+                return i;
+            }
+        }
+        if (fileCount == files.length) {
+            files = Arrays.copyOf(files, fileCount * 2);
+        }
+        if (fileCount == 1) {
+            fileIds = new int[lineNumbers.length];
+        }
+        files[fileCount] = file;
+        return fileCount++;
+    }
+}
@@ -0,0 +1,236 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one JVM warm for many small searches (-ds): a query pays neither the JVM start nor class loading,
+ * its code is already compiled by the JIT, its patterns and engine come from the PatternCache and its files
+ * are searched by one pool of threads shared by the queries.
+ * Listens on a localhost port. A query is one connection: the token of the daemon on the first line,
+ * the working directory of the client on the second, then the arguments of the search as given on the command line,
+ * one per line, then an empty line; the output of the search, as it would be printed by a run of Main,
+ * streams back until the connection is closed.
+ * So any client does, a shell one included, e.g.
+ * printf '%s\n' "$(cat ~/.multiFileGrep/daemon-7070.token)" "$PWD" -p timeout -R -c '' | nc localhost 7070
+ * Any local user can connect to the port, the token is what keeps the files of the daemon's user to that user:
+ * it is drawn at start and written to a file only the user may read (see tokenFile()).
+ * Options writing files (-o, -ix, -rc) are refused, the daemon would write them with its own rights
+ */
+public class SearchDaemon implements Closeable {
+    static int BUFFER_BYTES = 64 * 1024;
+    static int TOKEN_BYTES = 32;
+    // time a client has to send its query
+    static int REQUEST_MILLIS = 10_000;
+    static final List<String> WRITE_OPTIONS = Arrays.asList("-o", "-ix", "-rc");
+
+    private final ServerSocket server;
+    private final Path tokenFile;
+    private final byte[] token;
+    private final PatternCache patternCache = new PatternCache();
+    // two threads per core, the pool a search without -t starts with
+    private final ExecutorService searchExecutor = new ThreadPoolExecutor(2 * MuliFileGrep.CORES, 2 * MuliFileGrep.CORES,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    /**
+     * @param port localhost port to listen on, 0 for any free one
+     * @throws IOException if the port cannot be bound or the token not written
+     */
+    public SearchDaemon(int port) throws IOException {
+        this.server = new ServerSocket(port, 64, InetAddress.getLoopbackAddress());
+        this.tokenFile = tokenFile(server.getLocalPort());
+        this.token = newToken(tokenFile);
+    }
+
+    /**
+     * @param port
+     * @return file holding the token of the daemon on the port, in ~/.multiFileGrep
+     */
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".multiFileGrep", "daemon-" + port + ".token");
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * Draws a token and writes it to the file, created anew readable by the owner only
+     *
+     * @return the token, as sent by the clients
+     */
+    private static byte[] newToken(Path file) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+        byte[] token = hex.toString().getBytes(StandardCharsets.UTF_8);
+
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (posix) {
+            Files.createDirectories(file.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(file.getParent());
+        }
+        // a file left by an earlier daemon may have other permissions, the new one gets its own
+        Files.deleteIfExists(file);
+        if (posix) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.write(file, token);
+        return token;
+    }
+
+    /**
+     * Answers queries, each in a thread of its own, until the process is stopped
+     */
+    public void serve() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.execute(() -> answer(socket));
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops serve(), the queries running are let finish
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdown();
+        searchExecutor.shutdown();
+        Files.deleteIfExists(tokenFile);
+    }
+
+    /**
+     * Runs the query of the connection, its output and any error going back to the client
+     */
+    private void answer(Socket socket) {
+        try (Socket client = socket;
+             PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream(), BUFFER_BYTES), false)) {
+            client.setSoTimeout(REQUEST_MILLIS);
+            // read unbuffered and bounded, nothing more is read from a client before it is known
+            if (!MessageDigest.isEqual(token, readToken(client.getInputStream()))) {
+                out.println("not authorized : the first line must be the token in " + tokenFile);
+                return;
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            String pwd = in.readLine();
+            List<String> args = new ArrayList<>();
+            String arg;
+            while ((arg = in.readLine()) != null && !arg.isEmpty()) {
+                args.add(arg);
+            }
+            if (pwd == null) {
+                return;
+            }
+            client.setSoTimeout(0);
+            for (String option : args) {
+                if (WRITE_OPTIONS.contains(option)) {
+                    out.println(option + " is not accepted by the daemon, it would write files with the daemon's rights : run the search without -dc");
+                    return;
+                }
+            }
+            try {
+                Main.search(pwd, args.toArray(new String[0]), out, patternCache, searchExecutor);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace(out);
+            }
+            out.println(" ... pattern cache : " + patternCache);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the first line sent, without its terminator, at most one byte longer than the token
+     */
+    private byte[] readToken(InputStream in) throws IOException {
+        byte[] line = new byte[token.length + 1];
+        int length = 0;
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (length == line.length) {
+                return line;
+            }
+            line[length++] = (byte) b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return Arrays.copyOf(line, length);
+    }
+
+    /**
+     * Sends a query to the daemon and copies its answer (-dc), for a client written in Java;
+     * the token is read from the token file of the port
+     *
+     * @param port
+     * @param pwd
+     * @param args arguments of the search
+     * @param out
+     * @throws IOException if no daemon listens on the port or its token file cannot be read
+     */
+    public static void query(int port, String pwd, List<String> args, OutputStream out) throws IOException {
+        String token = new String(Files.readAllBytes(tokenFile(port)), StandardCharsets.UTF_8).trim();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            PrintWriter request = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            request.println(token);
+            request.println(pwd);
+            for (String arg : args) {
+                request.println(arg);
+            }
+            request.println();
+            request.flush();
+            InputStream answer = socket.getInputStream();
+            byte[] buffer = new byte[BUFFER_BYTES];
+            int read;
+            while ((read = answer.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PatternCacheTest {
+
+    @Test
+    public void compiledPatternsAreShared() {
+        PatternCache cache = new PatternCache();
+        assertSame(cache.compile("a+b", 0), cache.compile("a+b", 0));
+        assertNotSame(cache.compile("a+b", 0), cache.compile("a+b", Pattern.CASE_INSENSITIVE));
+    }
+
+    @Test
+    public void eachThreadKeepsItsCopyFromOneQueryToTheNext() throws Exception {
+        PatternCache cache = new PatternCache();
+        List<Pattern> patterns = Arrays.asList(cache.compile("a+b", 0), cache.compile("c.d", 0));
+        PatternCache.CachedEngine engine = cache.engine(patterns, "auto");
+        assertSame(engine, cache.engine(patterns, "auto"));
+        assertNotSame(engine, cache.engine(patterns, "dfa"));
+
+        RegexEngine copy = engine.forCurrentThread();
+        assertNotSame(engine.prototype(), copy);
+        assertSame(copy, cache.engine(patterns, "auto").forCurrentThread());
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            RegexEngine otherCopy = other.submit(engine::forCurrentThread).get();
+            assertNotSame(copy, otherCopy);
+            assertSame(otherCopy, other.submit(engine::forCurrentThread).get());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedEngineIsDroppedWithItsCopies() {
+        int capacity = PatternCache.CAPACITY;
+        PatternCache.CAPACITY = 2;
+        try {
+            PatternCache cache = new PatternCache();
+            List<Pattern> first = Arrays.asList(cache.compile("a", 0));
+            PatternCache.CachedEngine engine = cache.engine(first, "auto");
+            cache.engine(Arrays.asList(cache.compile("b", 0)), "auto");
+            cache.engine(Arrays.asList(cache.compile("c", 0)), "auto");
+            assertNotSame(engine, cache.engine(first, "auto"));
+        } finally {
+            PatternCache.CAPACITY = capacity;
+        }
+    }
+}
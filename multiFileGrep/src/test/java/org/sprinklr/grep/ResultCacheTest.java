@@ -0,0 +1,184 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResultCacheTest {
+    private static final List<Pattern> PATTERNS = Arrays.asList(Pattern.compile("error"), Pattern.compile("t.me"));
+    private static final MyRegexOptions OPTIONS = new MyRegexOptions(Collections.emptyList());
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void matchesAreReplayedInPieceOrder() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        String file = write("a.txt", "error at time\n");
+
+        ResultCache cache = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        ResultCache.Entry entry = cache.entry(file);
+        assertFalse(entry.isKept());
+        entry.pieces(2);
+        entry.add(1, 7, 1, "tame");
+        entry.add(1, 9, 0, "error");
+        entry.pieceDone();
+        entry.add(0, 1, 0, "error");
+        entry.add(0, 1, 1, "time");
+        entry.add(0, 3, 0, "error");
+        entry.add(0, 4, 1, "tîme");
+        entry.pieceDone();
+        cache.save();
+
+        ResultCache reopened = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        ResultCache.Entry kept = reopened.entry(file);
+        assertTrue(kept.isKept());
+        assertEquals(Arrays.asList("1:0:error", "1:1:time", "3:0:error", "4:1:tîme", "7:1:tame", "9:0:error"), replay(kept));
+    }
+
+    @Test
+    public void changedFileIsSearchedAgain() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        String grown = write("grown.txt", "error\n");
+        String touched = write("touched.txt", "error\n");
+        String same = write("same.txt", "error\n");
+        ResultCache cache = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        for (String file : Arrays.asList(grown, touched, same)) {
+            ResultCache.Entry entry = cache.entry(file);
+            entry.add(0, 1, 0, "error");
+            entry.done();
+        }
+        cache.save();
+
+        Files.write(temp.resolve("grown.txt"), "error\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Path touchedPath = temp.resolve("touched.txt");
+        Files.setLastModifiedTime(touchedPath, FileTime.fromMillis(Files.getLastModifiedTime(touchedPath).toMillis() - 60_000));
+
+        ResultCache reopened = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        assertFalse(reopened.entry(grown).isKept());
+        assertFalse(reopened.entry(touched).isKept());
+        assertTrue(reopened.entry(same).isKept());
+    }
+
+    @Test
+    public void failedFileIsNotKept() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        String file = write("a.txt", "error\n");
+        ResultCache cache = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        ResultCache.Entry entry = cache.entry(file);
+        entry.add(0, 1, 0, "error");
+        entry.fail();
+        entry.done();
+        cache.save();
+
+        assertFalse(ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20).entry(file).isKept());
+    }
+
+    @Test
+    public void filesNotSearchedThisTimeAreCarriedOver() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        String first = write("a.txt", "error\n");
+        String second = write("b.txt", "time\n");
+        ResultCache cache = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        for (String file : Arrays.asList(first, second)) {
+            ResultCache.Entry entry = cache.entry(file);
+            entry.done();
+        }
+        cache.save();
+
+        ResultCache onlyFirst = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        assertTrue(onlyFirst.entry(first).isKept());
+        onlyFirst.save();
+
+        assertTrue(ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20).entry(second).isKept());
+    }
+
+    @Test
+    public void otherQueriesHaveTheirOwnCache() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        String file = write("a.txt", "error\n");
+        ResultCache cache = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20);
+        cache.entry(file).done();
+        cache.save();
+
+        List<Pattern> otherFlags = Arrays.asList(Pattern.compile("error", Pattern.CASE_INSENSITIVE), Pattern.compile("t.me"));
+        assertFalse(ResultCache.open(cacheDirectory, otherFlags, OPTIONS, 1 << 20).entry(file).isKept());
+        assertFalse(ResultCache.open(cacheDirectory, PATTERNS.subList(0, 1), OPTIONS, 1 << 20).entry(file).isKept());
+        MyRegexOptions inverted = new MyRegexOptions(Collections.singletonList("-v"));
+        assertFalse(ResultCache.open(cacheDirectory, PATTERNS, inverted, 1 << 20).entry(file).isKept());
+        // printing options do not change what is kept
+        MyRegexOptions printing = new MyRegexOptions(Arrays.asList("-n", "-l"));
+        assertTrue(ResultCache.open(cacheDirectory, PATTERNS, printing, 1 << 20).entry(file).isKept());
+    }
+
+    @Test
+    public void countIsKeptWithCountOptions() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        MyRegexOptions counting = new MyRegexOptions(Collections.singletonList("-c"));
+        String file = write("a.txt", "error error\n");
+        ResultCache cache = ResultCache.open(cacheDirectory, PATTERNS, counting, 1 << 20);
+        ResultCache.Entry entry = cache.entry(file);
+        entry.addCount(2);
+        entry.done();
+        cache.save();
+
+        ResultCache.Entry kept = ResultCache.open(cacheDirectory, PATTERNS, counting, 1 << 20).entry(file);
+        assertTrue(kept.isKept());
+        assertEquals(2, kept.keptCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedCacheFilesAreEvicted() throws IOException {
+        Path cacheDirectory = temp.resolve("cache");
+        String file = write("a.txt", "error\n");
+        List<Pattern> older = Collections.singletonList(Pattern.compile("older"));
+        ResultCache cache = ResultCache.open(cacheDirectory, older, OPTIONS, 1 << 20);
+        cache.entry(file).done();
+        cache.save();
+        Path olderFile = onlyCacheFile(cacheDirectory);
+        Files.setLastModifiedTime(olderFile, FileTime.fromMillis(Files.getLastModifiedTime(olderFile).toMillis() - 60_000));
+
+        // a budget the newer cache file alone fits in
+        ResultCache newer = ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, Files.size(olderFile));
+        newer.entry(file).done();
+        newer.save();
+
+        assertFalse(Files.exists(olderFile));
+        assertTrue(ResultCache.open(cacheDirectory, PATTERNS, OPTIONS, 1 << 20).entry(file).isKept());
+    }
+
+    private String write(String name, String content) throws IOException {
+        return Files.write(temp.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static Path onlyCacheFile(Path cacheDirectory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> listed = Files.newDirectoryStream(cacheDirectory, "*" + ResultCache.SUFFIX)) {
+            listed.forEach(files::add);
+        }
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private static List<String> replay(ResultCache.Entry entry) {
+        List<String> matches = new ArrayList<>();
+        entry.replay((lineNumber, pattern, text) -> matches.add(lineNumber + ":" + pattern + ":" + text));
+        return matches;
+    }
+}
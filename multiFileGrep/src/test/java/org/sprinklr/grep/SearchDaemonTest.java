@@ -0,0 +1,107 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SearchDaemonTest {
+    @TempDir
+    Path home;
+    @TempDir
+    Path tree;
+
+    private String userHome;
+    private SearchDaemon daemon;
+
+    @BeforeEach
+    public void start() throws IOException {
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+        Files.write(tree.resolve("a.txt"), Arrays.asList("a timeout", "fine", "timeout again"));
+        daemon = new SearchDaemon(0);
+        Thread serving = new Thread(daemon::serve);
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    @AfterEach
+    public void stop() throws IOException {
+        daemon.close();
+        System.setProperty("user.home", userHome);
+    }
+
+    @Test
+    public void tokenFileIsReadableByTheOwnerOnly() throws IOException {
+        Path tokenFile = SearchDaemon.tokenFile(daemon.getPort());
+        assertEquals(tokenFile, daemon.getTokenFile());
+        assertEquals(2 * SearchDaemon.TOKEN_BYTES, new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).length());
+        if (Files.getFileStore(tokenFile).supportsFileAttributeView("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+        }
+    }
+
+    @Test
+    public void queryWithTheTokenIsAnswered() throws IOException {
+        String answer = query(Arrays.asList("-p", "timeout", "-f", "a.txt", "-c"));
+        assertTrue(answer.contains("Total matches found  : 2"), answer);
+    }
+
+    @Test
+    public void queryWithoutTheTokenIsRefused() throws IOException {
+        String answer = send("not the token\n" + tree + "\n-p\ntimeout\n-f\na.txt\n\n");
+        assertTrue(answer.startsWith("not authorized"), answer);
+        assertFalse(answer.contains("Total"), answer);
+
+        String longer = send(new String(Files.readAllBytes(daemon.getTokenFile()), StandardCharsets.UTF_8) + "0\n" + tree + "\n-p\nx\n\n");
+        assertTrue(longer.startsWith("not authorized"), longer);
+    }
+
+    @Test
+    public void optionsWritingFilesAreRefused() throws IOException {
+        for (String option : SearchDaemon.WRITE_OPTIONS) {
+            String answer = query(Arrays.asList("-p", "timeout", "-f", "a.txt", option, "written"));
+            assertTrue(answer.startsWith(option + " is not accepted"), answer);
+            assertFalse(Files.exists(tree.resolve("written")));
+        }
+    }
+
+    private String query(List<String> args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SearchDaemon.query(daemon.getPort(), tree.toString(), args, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String send(String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                answer.write(buffer, 0, read);
+            }
+            return new String(answer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Searches a tree of many small files (-R) with the fixed pool of 25 threads multiFileGrep used to start,
+ * with the pool resized to the load (no -t) and with a virtual thread per file (-vt, JDK 21+):
+ * java -cp target/classes:target/test-classes org.sprinklr.grep.VirtualThreadBenchmark [tree] [runs]
+ * A tree not given is generated in a temp directory. Each mode runs once to warm up, then runs times;
+ * the best and median wall times are printed with the throughput in files and MB per second
+ */
+public class VirtualThreadBenchmark {
+    private static final List<String> PATTERNS = Arrays.asList("timeout", "ERROR", "user=[0-9]+7 ");
+
+    public static void main(String[] args) throws Exception {
+        Path tree = args.length > 0 ? Paths.get(args[0]) : generateTree(Files.createTempDirectory("grep-bench-tree"), 20000, 20);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long[] size = treeSize(tree);
+
+        boolean virtual = MuliFileGrep.newVirtualThreadExecutor() != null;
+        System.out.println("cores " + MuliFileGrep.CORES + ", java " + System.getProperty("java.version") + ", "
+                + size[0] + " files, " + size[1] / 1000 + " KB" + (virtual ? "" : ", no virtual threads before JDK 21, -vt not run"));
+        String[][] modes = {{"fixed pool of 25", "-t", "25"}, {"resized pool"}, {"virtual threads", "-vt"}};
+        for (String[] mode : modes) {
+            if (mode[0].equals("virtual threads") && !virtual) {
+                continue;
+            }
+            List<String> options = new ArrayList<>(Arrays.asList("-c", "-R"));
+            options.addAll(Arrays.asList(mode).subList(1, mode.length));
+            long[] millis = new long[runs];
+            MuliFileGrep last = null;
+            for (int run = -1; run < runs; run++) {
+                long begin = System.nanoTime();
+                last = search(tree, options);
+                if (run >= 0) {
+                    millis[run] = (System.nanoTime() - begin) / 1_000_000;
+                }
+            }
+            Arrays.sort(millis);
+            System.out.printf("%-17s best %6d ms, median %6d ms, %8.0f files/s, %6.1f MB/s, %d matches, %d threads at the end%n",
+                    mode[0], millis[0], millis[runs / 2], size[0] / (millis[0] / 1e3), size[1] / 1e6 / (millis[0] / 1e3),
+                    last.grepResult.count(), last.poolThreads);
+        }
+    }
+
+    private static MuliFileGrep search(Path tree, List<String> options) throws IOException {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : PATTERNS) {
+            patterns.add(Pattern.compile(regex));
+        }
+        MuliFileGrep grep = new MuliFileGrep(tree.toString(), patterns, new ArrayList<>(), new ArrayList<>(),
+                new MyRegexOptions(options), new ArrayList<>());
+        grep.executeFileParallel();
+        grep.grepResult.finish();
+        return grep;
+    }
+
+    /**
+     * @return files and bytes of the tree
+     */
+    private static long[] treeSize(Path tree) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(tree)) {
+            long[] size = new long[2];
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                size[0]++;
+                size[1] += path.toFile().length();
+            });
+            return size;
+        }
+    }
+
+    private static Path generateTree(Path tree, int files, int lines) throws IOException {
+        Random random = new Random(1);
+        String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        String[] events = {"request served", "cache miss", "timeout waiting for upstream", "retrying", "slow query"};
+        for (int i = 0; i < files; i++) {
+            Path dir = tree.resolve("d" + (i % 100));
+            Files.createDirectories(dir);
+            try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("f" + i + ".log"))) {
+                for (int line = 0; line < lines; line++) {
+                    out.write(levels[random.nextInt(levels.length)] + " user=" + random.nextInt(100000) + " "
+                            + events[random.nextInt(events.length)]);
+                    out.newLine();
+                }
+            }
+        }
+        return tree;
+    }
+}
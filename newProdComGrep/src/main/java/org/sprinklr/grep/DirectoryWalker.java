@@ -0,0 +1,253 @@
+package org.sprinklr.grep;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Walks a directory tree in a fork join pool, a task per directory, adding every regular file found
+ * (relative to the root) to a queue as soon as it is its turn, so the search can start on the first file while
+ * the walk goes on. Each directory is listed with walkFileTree to a depth of one, whose attributes tell files
+ * from subdirectories without another stat per entry; only symbolic links are looked up again, as Files.walk
+ * followed them to files too.
+ * The listings run in parallel but the files are queued in a fixed order, depth first with the entries of every
+ * directory sorted by name, so a search taking them one at a time prints the same output from run to run:
+ * the task at the root queues the files of each directory in turn, waiting only for the listing
+ * of the next subdirectory while the ones after it are still being listed.
+ * The end of the walk is a poison pill queued after the last file, which every taker puts back for the next one.
+ * With a TrigramIndex (-ix) only the files it cannot rule out are queued
+ */
+final class DirectoryWalker {
+    static int WALKERS = Runtime.getRuntime().availableProcessors();
+    // compared by identity, no path found can be this instance
+    private static final String END = new String("<end of walk>");
+
+    private final String root;
+    private final BlockingQueue<String> files;
+    private final TrigramIndex index;
+    private final LongAdder filesFound = new LongAdder();
+    // awaitFiles() waits on it, woken once the walk queued the files it waits for or is done
+    private final Object progress = new Object();
+    private volatile long awaitedFiles = Long.MAX_VALUE;
+    private volatile boolean walked;
+
+    private DirectoryWalker(String root, BlockingQueue<String> files, TrigramIndex index, boolean walk) {
+        this.root = root;
+        this.files = files;
+        this.index = index;
+        if (walk) {
+            ForkJoinPool pool = new ForkJoinPool(WALKERS);
+            pool.submit(() -> {
+                try {
+                    WalkDirectory top = new WalkDirectory(Paths.get(root));
+                    top.invoke();
+                    queueInOrder(top);
+                } finally {
+                    walked = true;
+                    files.add(END);
+                    synchronized (progress) {
+                        progress.notifyAll();
+                    }
+                }
+            });
+            pool.shutdown();
+        } else {
+            this.walked = true;
+            files.add(END);
+        }
+    }
+
+    /**
+     * Starts walking the tree under root
+     *
+     * @param root
+     * @param files queue the relative paths of the files are added to
+     * @return the walker
+     */
+    static DirectoryWalker start(String root, BlockingQueue<String> files) {
+        return start(root, files, null);
+    }
+
+    /**
+     * Starts walking the tree under root, queuing only the files the index does not rule out
+     *
+     * @param root
+     * @param files queue the relative paths of the files are added to
+     * @param index index of the tree, updated as files are found, null to queue every file
+     * @return the walker
+     */
+    static DirectoryWalker start(String root, BlockingQueue<String> files, TrigramIndex index) {
+        return new DirectoryWalker(root, files, index, true);
+    }
+
+    /**
+     * @param files
+     * @return a walker that found no files besides the ones already queued, for searches without -R
+     */
+    static DirectoryWalker none(BlockingQueue<String> files) {
+        return new DirectoryWalker(null, files, null, false);
+    }
+
+    /**
+     * @return true once every file found is queued, before the end of walk pill
+     */
+    boolean isDone() {
+        return walked;
+    }
+
+    /**
+     * @return files queued so far, those ruled out by the index left out
+     */
+    long filesFound() {
+        return filesFound.sum();
+    }
+
+    /**
+     * @return true once the walk is done and every file found is taken
+     */
+    boolean isDrained() {
+        String head = files.peek();
+        // empty only while a taker puts the pill back
+        return head == null ? isDone() : head == END;
+    }
+
+    /**
+     * Takes the next file of the queue, waiting while the walk may still find one
+     *
+     * @return relative path of the file, or null once the walk is done and the queue is empty
+     * @throws InterruptedException
+     */
+    String next() throws InterruptedException {
+        String file = files.take();
+        if (file == END) {
+            files.add(END);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * @param file a file of the queue
+     * @return true if it is a file to search rather than the end of the walk
+     */
+    static boolean isFile(String file) {
+        return file != END;
+    }
+
+    /**
+     * Waits until the walk queued the given number of files or is done
+     *
+     * @param count
+     * @throws InterruptedException
+     */
+    void awaitFiles(long count) throws InterruptedException {
+        synchronized (progress) {
+            awaitedFiles = count;
+            try {
+                while (filesFound() < count && !isDone()) {
+                    progress.wait();
+                }
+            } finally {
+                awaitedFiles = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Queues the files of the tree depth first, the entries of each directory in name order;
+     * a subdirectory is waited for only once its turn comes, its own subdirectories are listed meanwhile
+     */
+    private void queueInOrder(WalkDirectory top) {
+        Deque<Iterator<Object>> pending = new ArrayDeque<>();
+        pending.push(top.entries.values().iterator());
+        while (!pending.isEmpty()) {
+            Iterator<Object> entries = pending.peek();
+            if (!entries.hasNext()) {
+                pending.pop();
+                continue;
+            }
+            Object entry = entries.next();
+            entries.remove();
+            if (entry instanceof WalkDirectory) {
+                WalkDirectory subdir = (WalkDirectory) entry;
+                subdir.join();
+                pending.push(subdir.entries.values().iterator());
+            } else {
+                files.add((String) entry);
+                filesFound.increment();
+                if (filesFound.sum() >= awaitedFiles) {
+                    synchronized (progress) {
+                        progress.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists one directory, forking a task for each subdirectory without waiting for it
+     */
+    private class WalkDirectory extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        // by name: the relative path of a file to queue, or the task listing a subdirectory
+        private final Map<String, Object> entries = new TreeMap<>();
+
+        WalkDirectory(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkDirectory> subdirs = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        // at the depth limit subdirectories are visited as files too
+                        if (attrs.isDirectory()) {
+                            WalkDirectory subdir = new WalkDirectory(path);
+                            subdirs.add(subdir);
+                            entries.put(path.getFileName().toString(), subdir);
+                        } else if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(path))) {
+                            String file = path.toString().substring(root.length() + 1);
+                            if (index == null || index.mayMatch(file, path, attrs)) {
+                                entries.put(path.getFileName().toString(), file);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException e) {
+                        e.printStackTrace();
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (WalkDirectory subdir : subdirs) {
+                subdir.fork();
+            }
+        }
+    }
+}
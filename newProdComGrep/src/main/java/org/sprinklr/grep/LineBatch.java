@@ -0,0 +1,121 @@
+package org.sprinklr.grep;
+
+import java.util.Arrays;
+
+/**
+ * LineBatch is the bundled up object put in the shared buffer: consecutive lines of one file with their line numbers,
+ * so a whole batch costs a single handoff between a producer and a consumer
+ */
+public class LineBatch {
+    // String and char array headers, the array slots and the line number, per line
+    static final int LINE_OVERHEAD = 64;
+
+    private String file;
+    private final int capacity;
+    private final long maxBytes;
+    private int[] lineNumbers;
+    private String[] lineContents;
+    private int size;
+    private long footprint;
+    private int part;
+    private int piece;
+    private ResultCache.Entry entry;
+
+    /**
+     * @param file
+     * @param capacity lines after which the batch is full
+     * @param maxBytes footprint after which the batch is full, whatever its number of lines
+     */
+    public LineBatch(String file, int capacity, long maxBytes) {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        // grown on demand, a small file should not pay for a full batch
+        this.lineNumbers = new int[Math.min(capacity, 16)];
+        this.lineContents = new String[lineNumbers.length];
+    }
+
+    /**
+     * @param lineNumber
+     * @param lineContent
+     * @return true if the batch is full after adding the line
+     */
+    public boolean add(int lineNumber, String lineContent) {
+        if (size == lineContents.length) {
+            int grown = Math.min(capacity, size * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, grown);
+            lineContents = Arrays.copyOf(lineContents, grown);
+        }
+        lineNumbers[size] = lineNumber;
+        lineContents[size] = lineContent;
+        // chars are counted two bytes each, an upper bound for latin1 lines
+        footprint += LINE_OVERHEAD + 2L * lineContent.length();
+        return ++size == capacity || footprint >= maxBytes;
+    }
+
+    /**
+     * @return estimate of the heap taken by the lines of the batch
+     */
+    public long footprint() {
+        return footprint;
+    }
+
+    /**
+     * Empties the batch for reuse with the lines of another file, keeping its arrays
+     *
+     * @param file
+     */
+    public void reset(String file) {
+        this.file = file;
+        this.entry = null;
+        Arrays.fill(lineContents, 0, size, null);
+        size = 0;
+        footprint = 0;
+    }
+
+    /**
+     * Numbers the batch for an OrderedSink
+     *
+     * @param part number of the file
+     * @param piece number of the batch within the file
+     */
+    public void setOrder(int part, int piece) {
+        this.part = part;
+        this.piece = piece;
+    }
+
+    /**
+     * @param entry where the matches of the batch are recorded with -rc
+     */
+    public void setEntry(ResultCache.Entry entry) {
+        this.entry = entry;
+    }
+
+    public ResultCache.Entry getEntry() {
+        return entry;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    public int getPiece() {
+        return piece;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getLineNumber(int i) {
+        return lineNumbers[i];
+    }
+
+    public String getLineContent(int i) {
+        return lineContents[i];
+    }
+}
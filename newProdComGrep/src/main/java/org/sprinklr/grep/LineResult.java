@@ -63,6 +63,13 @@ public class LineResult {
             this.options = options;
         }
 
+        /**
+         * @return true if the results built keep the matched text
+         */
+        public boolean showsLines() {
+            return options.showLines;
+        }
+
         /**
          * Builds a LineResult object based on the specified parameters.
          *
@@ -0,0 +1,53 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Lines of a file as the search reads them: the whole file, or with a FileFollower (-fo, -ck) only the lines
+ * appended since its checkpoint, numbered on from the lines before
+ */
+public interface LineSource extends Closeable {
+
+    /**
+     * @return the next line, without its terminator, or null at the end
+     * @throws IOException
+     */
+    String readLine() throws IOException;
+
+    /**
+     * @return lines of the file before the first one read
+     */
+    int linesBefore();
+
+    /**
+     * @param path
+     * @param follower checkpoints to read on from, null to read the whole file
+     * @return the lines of the file to search
+     * @throws IOException
+     */
+    static LineSource open(String path, FileFollower follower) throws IOException {
+        if (follower != null) {
+            return follower.open(path);
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        return new LineSource() {
+            @Override
+            public String readLine() throws IOException {
+                return reader.readLine();
+            }
+
+            @Override
+            public int linesBefore() {
+                return 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+}
@@ -8,8 +8,6 @@ import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-import static java.lang.Thread.sleep;
-
 /**
  * Main class takes input from the commmand line and instantiates the newGrep(producer-consumer across files) object to search
  */
@@ -98,9 +96,63 @@ public class Main {
                     //only count
                     options.add("-c");
                     break;
+                case "-cl":
+                    //only count the lines that match, each line once however many matches it has
+                    options.add("-cl");
+                    break;
+                case "-re":
+                    //regex engine used to match the patterns
+                    options.add("-re");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-fu":
+                    //every thread reads and matches whole files, no lines queue
+                    options.add("-fu");
+                    break;
+                case "-bs":
+                    //lines handed from producers to consumers at a time
+                    options.add("-bs");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 case "-R":
                     options.add("-R");
                     break;
+                case "-ix":
+                    //trigram index of the tree, built on the first -R search and updated as files change, to skip files that cannot match
+                    options.add("-ix");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-fo":
+                    //keep following the files, searching the lines appended to them as they are written
+                    options.add("-fo");
+                    break;
+                case "-ck":
+                    //file of byte checkpoints, a run only searches the lines appended since the last one
+                    options.add("-ck");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-rc":
+                    //directory of the result cache, files unchanged since the last search of the patterns are not read again
+                    options.add("-rc");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-rs":
+                    //size the result cache may take on disk, in MB
+                    options.add("-rs");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 case "-ig":
                     options.add("-ig");
                     i++;
@@ -114,6 +166,59 @@ public class Main {
                     }
                     i--;
                     break;
+                case "-o":
+                    //file the matches are written to instead of stdout
+                    options.add("-o");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-ord":
+                    //matches grouped by file in the order the files are taken up, lines in file order
+                    options.add("-ord");
+                    break;
+                case "-sm":
+                    //memory the matches held for -ord may take before they are spilled to a temp file, in MB
+                    options.add("-sm");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-qm":
+                    //memory the lines queue may hold before producers block, in MB
+                    options.add("-qm");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-rb":
+                    //lock free ring of the given number of slots as the lines queue
+                    options.add("-rb");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-pt":
+                    //number of producer threads, sized from the input if not given
+                    options.add("-pt");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-ct":
+                    //number of consumer threads, sized from the input if not given
+                    options.add("-ct");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-wt":
+                    //how threads wait on a full or empty ring
+                    options.add("-wt");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 default:
                     System.out.println(ANSI_RED+"Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] ");
                     System.out.println("... unknown option " + args[i] + "  ignoring... "+ANSI_RESET);
@@ -164,22 +269,47 @@ public class Main {
             }
         }
 
-        ProdComGrep myGrep0= new ProdComGrep(pwd,patternsToPass,files,dirs,optionsObj,fileIgnoreExtension,10,5);
+        // the -R walk starts with the constructor and overlaps the search, so it is timed too
         long begin = System.currentTimeMillis();
+        ProdComGrep myGrep0= new ProdComGrep(pwd,patternsToPass,files,dirs,optionsObj,fileIgnoreExtension,optionsObj.producerThreads,optionsObj.consumerThreads);
         myGrep0.execute();
         long end = System.currentTimeMillis();
 
-        try {
-            sleep(1000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        if(myGrep0.index != null) {
+            myGrep0.index.save();
         }
-
-        if(!optionsObj.onlyCountLines) myGrep0.grepResult.printResults();
+        if(myGrep0.follower != null) {
+            myGrep0.follower.save();
+        }
+        if(myGrep0.cache != null) {
+            myGrep0.cache.save();
+        }
+        if(optionsObj.follow) {
+            myGrep0.grepResult.flush();
+            System.out.println(ANSI_YELLOW+" ... newProdComGrep took " + (end-begin) + " ms, following the files"+ANSI_RESET);
+            myGrep0.follow();
+        }
+        myGrep0.grepResult.finish();
 
         System.out.println(ANSI_GREEN);
         myGrep0.grepResult.printCount();
         System.out.print(ANSI_RESET);
         System.out.println(ANSI_YELLOW+" ... newProdComGrep took " + (end-begin) + " ms"+ANSI_RESET);
+        if(myGrep0.index != null) {
+            System.out.println(" ... index : " + myGrep0.index);
+        }
+        if(myGrep0.cache != null) {
+            System.out.println(" ... result cache : " + myGrep0.cache);
+        }
+        System.out.println(" ... threads : " + myGrep0.sizing);
+        if(myGrep0.orderedResult != null) {
+            System.out.println(" ... reorder buffer : peak " + myGrep0.orderedResult.peakBuffered() + " matches");
+            System.out.println(" ... spilled : " + myGrep0.orderedResult.getSpill());
+            myGrep0.orderedResult.getSpill().close();
+        }
+        if(!optionsObj.fused) {
+            System.out.println(" ... rebalanced : " + myGrep0.rebalancer);
+            myGrep0.linesQueue.printStats();
+        }
     }
 }
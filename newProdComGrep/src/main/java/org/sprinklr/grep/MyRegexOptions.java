@@ -7,6 +7,7 @@ import java.util.List;
  */
 public class MyRegexOptions {
     final boolean onlyCountLines;
+    final boolean countLines;
     final boolean invertedSearch;
     final boolean caseInsensitive;
     final boolean showLineNumbers;
@@ -14,9 +15,26 @@ public class MyRegexOptions {
     final boolean showFiles;
     final boolean dirSearch;
     final boolean showPattern;
+    final String regexEngine;
+    final boolean fused;
+    final int batchSize;
+    final int queueMemoryMb;
+    final int ringSlots;
+    final String waitStrategy;
+    final int producerThreads;
+    final int consumerThreads;
+    final String outputFile;
+    final String indexFile;
+    final boolean follow;
+    final String checkpointFile;
+    final boolean ordered;
+    final long spillMemoryMb;
+    final String cacheDirectory;
+    final long cacheMb;
 
     public MyRegexOptions(List<String> options){
-        this.onlyCountLines = options.contains("-c");
+        this.countLines = options.contains("-cl");
+        this.onlyCountLines = options.contains("-c") || countLines;
         this.invertedSearch = options.contains("-v");
         this.showLineNumbers = options.contains("-n");
         this.showLines = options.contains("-l");
@@ -24,9 +42,94 @@ public class MyRegexOptions {
         this.caseInsensitive = options.contains("-i");
         this.dirSearch = options.contains("-R");
         this.showPattern = options.contains("-sp");
+        this.regexEngine = valueOf(options, "-re", "auto");
+        this.fused = options.contains("-fu");
+        this.outputFile = valueOf(options, "-o", null);
+        this.indexFile = valueOf(options, "-ix", null);
+        this.follow = options.contains("-fo");
+        this.checkpointFile = valueOf(options, "-ck", null);
+        this.ordered = options.contains("-ord");
+        this.cacheDirectory = valueOf(options, "-rc", null);
+        try {
+            this.cacheMb = Long.parseLong(valueOf(options, "-rs", "256"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-rs must be a cache size in MB");
+        }
+        try {
+            this.batchSize = Integer.parseInt(valueOf(options, "-bs", "1024"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-bs must be a number of lines");
+        }
+        try {
+            this.queueMemoryMb = Integer.parseInt(valueOf(options, "-qm", "64"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-qm must be a memory budget in MB");
+        }
+        try {
+            // a quarter of the heap by default
+            this.spillMemoryMb = Long.parseLong(valueOf(options, "-sm", String.valueOf(Runtime.getRuntime().maxMemory() >> 22)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-sm must be a memory budget in MB");
+        }
+        try {
+            this.ringSlots = Integer.parseInt(valueOf(options, "-rb", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-rb must be a number of slots");
+        }
+        this.waitStrategy = valueOf(options, "-wt", "park");
+        try {
+            this.producerThreads = Integer.parseInt(valueOf(options, "-pt", "0"));
+            this.consumerThreads = Integer.parseInt(valueOf(options, "-ct", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-pt and -ct must be numbers of threads");
+        }
 
+        if( !regexEngine.equals("auto") && !regexEngine.equals("dfa") ){
+            throw new IllegalArgumentException("-re must be one of [ auto | dfa ]");
+        }
+        if( batchSize <= 0 ){
+            throw new IllegalArgumentException("-bs must be a number of lines");
+        }
+        if( queueMemoryMb <= 0 ){
+            throw new IllegalArgumentException("-qm must be a memory budget in MB");
+        }
+        if( spillMemoryMb <= 0 ){
+            throw new IllegalArgumentException("-sm must be a memory budget in MB");
+        }
+        if( cacheMb <= 0 ){
+            throw new IllegalArgumentException("-rs must be a cache size in MB");
+        }
+        if( cacheDirectory != null && ( follow || checkpointFile != null ) ){
+            throw new IllegalArgumentException("-rc cannot be used together with [ -fo | -ck ]");
+        }
+        if( ringSlots < 0 ){
+            throw new IllegalArgumentException("-rb must be a number of slots");
+        }
+        if( !waitStrategy.equals("spin") && !waitStrategy.equals("yield") && !waitStrategy.equals("park") ){
+            throw new IllegalArgumentException("-wt must be one of [ spin | yield | park ]");
+        }
+        if( producerThreads < 0 || consumerThreads < 0 ){
+            throw new IllegalArgumentException("-pt and -ct must be numbers of threads");
+        }
+        if( indexFile != null && !dirSearch ){
+            throw new IllegalArgumentException("-ix can only be used with -R");
+        }
+        if( follow && onlyCountLines ){
+            throw new IllegalArgumentException("-fo cannot be used together with [ -c | -cl ]");
+        }
         if( onlyCountLines && ( showLines || showLineNumbers ||  showFiles || showPattern)  ){
-            throw new IllegalArgumentException("-c cannot be used togther with [ -n | -l | -sf | -sp ]");
+            throw new IllegalArgumentException("-c and -cl cannot be used togther with [ -n | -l | -sf | -sp ]");
+        }
+    }
+
+    /**
+     * @return the value given right after the option, or the default if the option is absent
+     */
+    private static String valueOf(List<String> options, String option, String defaultValue) {
+        int index = options.indexOf(option);
+        if (index < 0 || index + 1 >= options.size()) {
+            return defaultValue;
         }
+        return options.get(index + 1);
     }
 }
@@ -0,0 +1,107 @@
+package org.sprinklr.grep;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Puts matches back in order before passing them on, for -ord: the output is cut into parts numbered in the order
+ * the files are handed out, and a part into pieces numbered in the order its lines were read (its batches).
+ * Pieces arrive from any thread in any order and wait in a reorder buffer until every earlier piece is passed on,
+ * so only the pieces in flight are held, not the whole output, and those in ResultColumns.
+ * Once they take more heap than the budget of the ResultSpill the pieces waiting are spilled to its log,
+ * the piece being written spills itself
+ */
+public class OrderedSink {
+    private final ResultSink downstream;
+    private final ResultSpill spill;
+    private final AtomicInteger parts = new AtomicInteger();
+    private final Map<Integer, Part> pending = new HashMap<>();
+    private int next;
+    private long buffered;
+    private long peakBuffered;
+
+    /**
+     * @param downstream
+     * @param spill budget and log of the pieces held
+     */
+    public OrderedSink(ResultSink downstream, ResultSpill spill) {
+        this.downstream = downstream;
+        this.spill = spill;
+    }
+
+    /**
+     * @return budget and log the ResultColumns of the pieces should spill to
+     */
+    public ResultSpill getSpill() {
+        return spill;
+    }
+
+    /**
+     * @return number of the next part, in the order of the calls
+     */
+    public int newPart() {
+        return parts.getAndIncrement();
+    }
+
+    /**
+     * @param part
+     * @param piece
+     * @param results matches of the piece, in line order
+     */
+    public synchronized void add(int part, int piece, ResultColumns results) {
+        pending.computeIfAbsent(part, p -> new Part()).pieces.put(piece, results);
+        buffered += results.size();
+        peakBuffered = Math.max(peakBuffered, buffered);
+        drain();
+        if (spill.isOver()) {
+            for (Part waiting : pending.values()) {
+                waiting.pieces.values().forEach(ResultColumns::spill);
+            }
+        }
+    }
+
+    /**
+     * Every part handed out must be done once, even if reading it failed
+     *
+     * @param part
+     * @param pieces number of pieces added for the part
+     */
+    public synchronized void done(int part, int pieces) {
+        pending.computeIfAbsent(part, p -> new Part()).expected = pieces;
+        drain();
+    }
+
+    /**
+     * @return most matches held at once
+     */
+    public synchronized long peakBuffered() {
+        return peakBuffered;
+    }
+
+    /**
+     * Passes on the pieces next in order, the part being read is passed on as its pieces come
+     * rather than once it is complete, so one big file does not fill the buffer
+     */
+    private void drain() {
+        Part part;
+        while ((part = pending.get(next)) != null) {
+            ResultColumns results;
+            while ((results = part.pieces.remove(part.passed)) != null) {
+                results.passTo(downstream);
+                buffered -= results.size();
+                part.passed++;
+            }
+            if (part.passed != part.expected) {
+                return;
+            }
+            pending.remove(next++);
+        }
+    }
+
+    private static class Part {
+        private final Map<Integer, ResultColumns> pieces = new HashMap<>();
+        private int passed;
+        private int expected = -1;
+    }
+}
@@ -0,0 +1,84 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes each match as a line through a buffer, the only memory it holds
+ */
+public class PrintingSink implements ResultSink {
+    static int BUFFER_CHARS = 64 * 1024;
+
+    private final BufferedWriter out;
+    private final boolean closeAtFinish;
+    private long count;
+
+    /**
+     * @param out
+     * @param closeAtFinish true for a file, false for stdout which is only flushed
+     */
+    public PrintingSink(Writer out, boolean closeAtFinish) {
+        this.out = new BufferedWriter(out, BUFFER_CHARS);
+        this.closeAtFinish = closeAtFinish;
+    }
+
+    @Override
+    public synchronized void add(LineResult lineResult) {
+        try {
+            out.write(lineResult.toString());
+            out.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count++;
+    }
+
+    /**
+     * The matches are formatted before taking the lock, only the copy into the buffer is serialised
+     */
+    @Override
+    public void addAll(List<LineResult> lineResults) {
+        StringBuilder text = new StringBuilder(lineResults.size() * 64);
+        for (LineResult lineResult : lineResults) {
+            text.append(lineResult).append(System.lineSeparator());
+        }
+        synchronized (this) {
+            try {
+                out.append(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count += lineResults.size();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void finish() {
+        try {
+            if (closeAtFinish) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized long count() {
+        return count;
+    }
+}
@@ -1,17 +1,13 @@
 package org.sprinklr.grep;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 /**
 * Class for performing newGrep operations using producer-consumer pattern
@@ -20,13 +16,21 @@ public class ProdComGrep {
     String pwd;
     List<Pattern> regexPatterns;
     BlockingQueue<String> filesQueue;
+    DirectoryWalker walker;
+    TrigramIndex index;
+    FileFollower follower;
+    ResultCache cache;
     List<String> ignoreExtn;
     List<String> directories;
     MyRegexOptions options;
-    Result grepResult;
+    ResultSink grepResult;
+    OrderedSink orderedResult;
     LineResult.Builder builder;
-    BlockingQueue<LineData> linesQueue = new LinkedBlockingQueue<LineData>();
+    RegexEngine regexEngine;
+    LinesQueue linesQueue;
     AtomicInteger activeProducers;
+    ThreadSizing sizing;
+    Rebalancer rebalancer;
 
     int PRODUCER_THREADS;
     int CONSUMER_THREADS;
@@ -40,61 +44,60 @@ public class ProdComGrep {
         this.directories = directories;
         this.options = options;
 
-        this.grepResult=new Result();
+        this.grepResult=ResultSink.create(options);
+        // a count has nothing to order
+        this.orderedResult=options.ordered && !options.onlyCountLines ? new OrderedSink(grepResult, new ResultSpill(options.spillMemoryMb << 20)) : null;
         this.builder=new LineResult.Builder(options);
+        this.regexEngine=RegexEngine.create(regexPatterns, options.regexEngine);
 
         this.activeProducers=new AtomicInteger();
+        this.linesQueue=LinesQueue.create(options);
 
         this.PRODUCER_THREADS=pts;
         this.CONSUMER_THREADS=cts;
 
-        if(options.dirSearch){
-            addFilesRecursive();
-        }
-    }
-
-    /**
-     * Recursively adds files from the specified directory and its subdirectories to the filesQueue
-     *
-     * @throws IOException
-     */
-    private void addFilesRecursive() throws IOException {
-        Path dir = Paths.get(pwd);
-        addFileRecursiveUtil(dir);
-    }
-
-    /**
-     * Utility method to recursively add files from the specified directory and its subdirectories to the filesQueue.
-     *
-     * @param dir
-     * @throws IOException
-     */
-    private void addFileRecursiveUtil(Path dir) throws IOException {
-        try (Stream<Path> paths = Files.walk(dir)) {
-            paths.forEach(path -> {
-                if (Files.isRegularFile(path)) {
-                    String relFilePath=path.toString().substring(pwd.length()+1);
-                    filesQueue.add(relFilePath);
-                }
-            });
-        }
+        // with -R the files found are streamed into the filesQueue, producers start on them while the walk goes on
+        // -v prints the lines that do not match, so no file can be ruled out by the index
+        this.index = options.dirSearch && options.indexFile != null ? TrigramIndex.open(Paths.get(options.indexFile), pwd, regexPatterns, options.invertedSearch) : null;
+        this.walker = options.dirSearch ? DirectoryWalker.start(pwd, filesQueue, index) : DirectoryWalker.none(filesQueue);
+        // -ck alone reads on from the checkpoints of the last run, -fo also keeps them in memory for its rounds
+        this.follower = options.follow || options.checkpointFile != null ? new FileFollower(options.checkpointFile != null ? Paths.get(options.checkpointFile) : null) : null;
+        this.cache = options.cacheDirectory != null ? ResultCache.open(Paths.get(options.cacheDirectory), regexPatterns, options, options.cacheMb << 20) : null;
     }
 
     /**
     * Executes the producer-consumer grep operation.
+    * Thread counts not given are sized from a probe of the first files, then rebalanced until the producers are done
     */
     public void execute()  {
+        this.sizing = ThreadSizing.probe(probePaths(), regexEngine, walker.isDone() ? filesQueue.size() - 1 : Integer.MAX_VALUE,
+                this.PRODUCER_THREADS, this.CONSUMER_THREADS);
+        if (options.fused) {
+            executeFused();
+            return;
+        }
 //        ExecutorService commonExecutor= Executors.newFixedThreadPool(this.CONSUMER_THREADS+this.PRODUCER_THREADS+1);
-        ExecutorService producerExecutor= Executors.newFixedThreadPool(this.PRODUCER_THREADS+1);
-        ExecutorService consumerExecutor= Executors.newFixedThreadPool(this.CONSUMER_THREADS+1);
+        ExecutorService producerExecutor= Executors.newFixedThreadPool(sizing.maxProducers);
+        ExecutorService consumerExecutor= Executors.newFixedThreadPool(sizing.maxConsumers);
+        CountDownLatch producersDone = new CountDownLatch(1);
 
-        for (int i = 0; i < this.PRODUCER_THREADS; i++) {
+        // registered up front, a consumer starting before any producer must not take the work as done
+        activeProducers.addAndGet(sizing.producers);
+        for (int i = 0; i < sizing.producers; i++) {
 //            commonExecutor.execute(new NewProducer(filesQueue,pwd,linesQueue,ignoreExtn));
-            producerExecutor.execute(new NewProducer(filesQueue,pwd,linesQueue,ignoreExtn,activeProducers));
+            producerExecutor.execute(new NewProducer(walker,pwd,linesQueue,ignoreExtn,follower,cache,regexPatterns,grepResult,orderedResult,builder,activeProducers,producersDone));
         }
-        for (int i = 0; i < this.CONSUMER_THREADS; i++) {
-//            consumerExecutor.execute(new NewConsumer(linesQueue,regexPatterns,grepResult,builder));
-            consumerExecutor.execute(new NewConsumer(linesQueue,regexPatterns,grepResult,builder,activeProducers));
+        this.rebalancer = new Rebalancer(linesQueue, sizing,
+                () -> consumerExecutor.execute(new NewConsumer(linesQueue,regexPatterns,regexEngine,grepResult,orderedResult,builder,rebalancer)),
+                () -> startProducer(producerExecutor, producersDone));
+        rebalancer.startConsumers();
+
+        try {
+            while (!producersDone.await(Rebalancer.TICK_MILLIS, TimeUnit.MILLISECONDS)) {
+                rebalancer.tick();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
 //        commonExecutor.shutdown();
@@ -110,102 +113,427 @@ public class ProdComGrep {
         }
     }
 
+    /**
+     * Starts one more producer, unless no file is left or the producers are all done
+     *
+     * @return true if a producer was started
+     */
+    private boolean startProducer(ExecutorService producerExecutor, CountDownLatch producersDone) {
+        int active;
+        do {
+            active = activeProducers.get();
+            if (active == 0 || walker.isDrained()) {
+                return false;
+            }
+        } while (!activeProducers.compareAndSet(active, active + 1));
+        producerExecutor.execute(new NewProducer(walker,pwd,linesQueue,ignoreExtn,follower,cache,regexPatterns,grepResult,orderedResult,builder,activeProducers,producersDone));
+        return true;
+    }
+
+    /**
+     * @return paths of the first files to search, for the thread sizing probe; waits for the walk to find them
+     */
+    private Iterator<String> probePaths() {
+        List<String> paths = new ArrayList<>();
+        try {
+            walker.awaitFiles(ThreadSizing.PROBE_FILES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (String file : filesQueue) {
+            if (paths.size() == ThreadSizing.PROBE_FILES || !DirectoryWalker.isFile(file)) {
+                break;
+            }
+            if (!isIgnored(file, ignoreExtn)) {
+                paths.add(pwd + "/" + file);
+            }
+        }
+        return paths.iterator();
+    }
+
+    /**
+     * Executes the grep with every thread both reading and matching whole files, lines never leave the thread
+     * that read them; the producer-consumer split only pays off when reading is much slower than matching
+     */
+    public void executeFused() {
+        ExecutorService workerExecutor = Executors.newFixedThreadPool(sizing.producers + sizing.consumers);
+        for (int i = 0; i < sizing.producers + sizing.consumers; i++) {
+            workerExecutor.execute(new FusedWorker(walker, pwd, ignoreExtn, follower, cache, regexPatterns, regexEngine, grepResult, orderedResult, builder));
+        }
+        workerExecutor.shutdown();
+        try {
+            workerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Keeps searching the files of the search for -fo, each round only the lines appended since the last,
+     * read and matched in this thread: a round is a few lines, and file by file it needs no reordering.
+     * Returns only once the thread is interrupted
+     */
+    public void follow() {
+        follower.follow(changed -> {
+            BlockingQueue<String> files = new LinkedBlockingQueue<>();
+            for (String path : changed) {
+                files.add(path.substring(pwd.length() + 1));
+            }
+            new FusedWorker(DirectoryWalker.none(files), pwd, ignoreExtn, follower, null, regexPatterns, regexEngine, grepResult, null, builder).run();
+            grepResult.flush();
+        });
+    }
+
+    /**
+     * @return true if the file has one of the ignored extensions
+     */
+    static boolean isIgnored(String filePath, List<String> ignoreExtn) {
+        for (String ignore : ignoreExtn) {
+            if (filePath.endsWith(ignore)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Passes on what the ResultCache kept for a file unchanged since the last search of the patterns:
+     * its count, or its matches through the OrderedSink with -ord, else through the buffer
+     *
+     * @param entry
+     * @param filePath
+     * @param held columns the matches are held in with -ord, else null
+     * @param out sink of the matches without -ord, null when counting
+     */
+    static void replay(ResultCache.Entry entry, String filePath, ResultSink grepResult, ResultColumns held, ResultSink out,
+                       LineResult.Builder builder, List<Pattern> regexPatterns) {
+        if (grepResult instanceof CountingSink) {
+            ((CountingSink) grepResult).addCount(entry.keptCount());
+            return;
+        }
+        entry.replay((lineNumber, pattern, text) -> {
+            if (held != null) {
+                held.add(lineNumber, text, 0, text.length(), filePath, pattern);
+            } else {
+                out.add(builder.build(lineNumber, text, filePath, regexPatterns.get(pattern)));
+            }
+        });
+    }
+
     /**
      * A runnable class that reads files from a file queue,
      * filters out files with specified extensions,
-     * and puts line data into a lines queue for processing by consumers.
+     * and puts batches of lines into a lines queue for processing by consumers.
+     * With -rc a file unchanged since the last search of the patterns is not read, the producer replays its results.
      */
     static class NewProducer implements Runnable {
-        private BlockingQueue<String> fileQueue;
+        private DirectoryWalker walker;
         private String pwd;
-        private BlockingQueue<LineData> linesQueue;
+        private LinesQueue linesQueue;
         private List<String> ignoreExtn;
+        private final FileFollower follower;
+        private final ResultCache cache;
+        private final List<Pattern> regexPatterns;
+        private final ResultSink grepResult;
+        private final OrderedSink orderedResult;
+        private final LineResult.Builder builder;
         private final AtomicInteger activeProducers;
-        public NewProducer(BlockingQueue<String> fileQueueParam, String pwd, BlockingQueue<LineData> linesQueue, List<String> ignoreExtn,AtomicInteger activeProducers) {
-            this.fileQueue = fileQueueParam;
+        private final CountDownLatch producersDone;
+        public NewProducer(DirectoryWalker walker, String pwd, LinesQueue linesQueue, List<String> ignoreExtn,FileFollower follower,ResultCache cache,List<Pattern> regexPatterns,ResultSink grepResult,OrderedSink orderedResult,LineResult.Builder builder,AtomicInteger activeProducers,CountDownLatch producersDone) {
+            this.walker = walker;
             this.pwd=pwd;
             this.linesQueue=linesQueue;
             this.ignoreExtn=ignoreExtn;
+            this.follower=follower;
+            this.cache=cache;
+            this.regexPatterns=regexPatterns;
+            this.grepResult=grepResult;
+            this.orderedResult=orderedResult;
+            this.builder=builder;
             this.activeProducers=activeProducers;
+            this.producersDone=producersDone;
         }
 
         @Override
         public void run(){
             try {
-                activeProducers.incrementAndGet();
+                String filePath;
+                // waits for the walk, but never for a file another producer took last
+                while ((filePath = walker.next()) != null) {
+                    if (isIgnored(filePath, ignoreExtn)) continue;
 
-                while (!fileQueue.isEmpty()) {
-                    String filePath = fileQueue.take();
-
-                    boolean flag=true;
-                    for(String ignore : ignoreExtn){
-                        if(filePath.endsWith(ignore)) {
-                            flag=false;
-                            break;
+                    int part = orderedResult != null ? orderedResult.newPart() : 0;
+                    int pieces = 0;
+                    ResultCache.Entry entry = cache != null ? cache.entry(pwd+"/"+filePath) : null;
+                    if (entry != null && entry.isKept()) {
+                        ResultColumns held = orderedResult != null ? new ResultColumns(builder, regexPatterns, orderedResult.getSpill()) : null;
+                        BufferedSink buffered = held == null && !(grepResult instanceof CountingSink) ? new BufferedSink(grepResult) : null;
+                        replay(entry, filePath, grepResult, held, buffered, builder, regexPatterns);
+                        if (held != null) {
+                            orderedResult.add(part, 0, held);
+                            orderedResult.done(part, 1);
+                        } else if (buffered != null) {
+                            buffered.flush();
                         }
+                        continue;
                     }
-                    if(!flag) continue;
-
-                    try (BufferedReader reader = new BufferedReader(new FileReader(pwd+"/"+filePath))) {
+                    try (LineSource reader = LineSource.open(pwd+"/"+filePath, follower)) {
                         String line;
-                        int lineNumber=0;
+                        int lineNumber=reader.linesBefore();
+                        LineBatch batch = linesQueue.newBatch(filePath);
                         while ((line = reader.readLine()) != null) {
-                            linesQueue.put(new LineData(filePath, lineNumber, line));
+                            ++lineNumber;
+                            if (batch.add(lineNumber, line)) {
+                                batch.setOrder(part, pieces++);
+                                batch.setEntry(entry);
+                                linesQueue.put(batch);
+                                batch = linesQueue.newBatch(filePath);
+                            }
+                        }
+                        if (batch.size() > 0) {
+                            batch.setOrder(part, pieces++);
+                            batch.setEntry(entry);
+                            linesQueue.put(batch);
+                        }
+                    } catch (IOException e) {
+                        // an unreadable file is skipped, the others are still searched
+                        e.printStackTrace();
+                        if (entry != null) {
+                            entry.fail();
+                        }
+                    } finally {
+                        if (orderedResult != null) {
+                            orderedResult.done(part, pieces);
+                        }
+                        // written once the consumers are done with every batch of the file
+                        if (entry != null) {
+                            entry.pieces(pieces);
                         }
-                        ++lineNumber;
                     }
                 }
-            } catch (InterruptedException | IOException e) {
+            } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+            } catch (CancellationException e) {
+                // a consumer stopped on an error and aborted the queue, it reported the error
             } finally {
-                activeProducers.decrementAndGet();
+                if (activeProducers.decrementAndGet() == 0) {
+                    linesQueue.close();
+                    producersDone.countDown();
+                }
             }
         }
     }
 
     /**
-     * A runnable class for that processes LineData objects from a BlockingQueue,
+     * A runnable class for that processes LineBatch objects from the lines queue,
      * matches them against the list of regex patterns,
-     * and adds matching results to a Result.
+     * and adds matching results to a ResultSink, through the OrderedSink with -ord,
+     * else through a buffer of its own flushed after every batch.
+     * With -c or -cl only a count is kept, added to the CountingSink once per batch.
+     * With -rc the matches, or the count, are also recorded in the ResultCache entry of the batch.
      */
     static class NewConsumer implements Runnable{
-        private BlockingQueue<LineData> linesQueue;
+        private LinesQueue linesQueue;
         private List<Pattern> regexPatterns;
-        private Result grepResult;
+        private RegexEngine regexEngine;
+        private ResultSink grepResult;
+        private CountingSink counter;
+        private OrderedSink orderedResult;
         private LineResult.Builder builder;
-        private final AtomicInteger activeProducers;
+        private final Rebalancer rebalancer;
 
-        public NewConsumer(BlockingQueue<LineData> linesQueue, List<Pattern> regexPatterns, Result grepResult, LineResult.Builder builder, AtomicInteger activeProducers) {
+        public NewConsumer(LinesQueue linesQueue, List<Pattern> regexPatterns, RegexEngine regexEngine, ResultSink grepResult, OrderedSink orderedResult, LineResult.Builder builder, Rebalancer rebalancer) {
             this.linesQueue = linesQueue;
             this.builder=builder;
             this.regexPatterns=regexPatterns;
+            this.regexEngine=regexEngine.copy();
             this.grepResult=grepResult;
-            this.activeProducers=activeProducers;
+            this.counter=grepResult instanceof CountingSink ? (CountingSink) grepResult : null;
+            this.orderedResult=orderedResult;
+            this.rebalancer=rebalancer;
         }
 
         @Override
         public void run(){
+            BufferedSink buffered = orderedResult == null ? new BufferedSink(grepResult) : null;
             try {
-                LineData lineData;
+                LineBatch batch;
 
-                while (!linesQueue.isEmpty() || activeProducers.get()>0) {
-                    lineData=linesQueue.poll(1,TimeUnit.MILLISECONDS);
-                    if(lineData==null) continue;
+                // null once the last producer closed the queue and it is drained
+                while ((batch=linesQueue.take()) != null) {
+                    ResultCache.Entry entry = batch.getEntry();
+                    if (counter != null) {
+                        long counted = 0;
+                        for (int i = 0; i < batch.size(); i++) {
+                            counted += regexEngine.count(batch.getLineContent(i), counter.countsLines());
+                        }
+                        counter.addCount(counted);
+                        if (entry != null) {
+                            entry.addCount(counted);
+                            entry.pieceDone();
+                        }
+                        linesQueue.release(batch);
+                        if(rebalancer.retire()) return;
+                        continue;
+                    }
+                    ResultColumns held = orderedResult != null ? new ResultColumns(builder, regexPatterns, orderedResult.getSpill()) : null;
 
-                    for (Pattern pattern : regexPatterns) {
-                        Matcher matcher = pattern.matcher(lineData.getLineContent());
-                        while(matcher.find()) {
-                            LineResult lineResult = builder.build(lineData.getLineNumber(), matcher.group(), lineData.getFile(), pattern);
-                            grepResult.addResult(lineResult);
+                    for (int i = 0; i < batch.size(); i++) {
+                        String line = batch.getLineContent(i);
+                        MatchHits hits = regexEngine.findAll(line);
+                        for (int h = 0; h < hits.size(); h++) {
+                            if (held != null) {
+                                held.add(batch.getLineNumber(i), line, hits.start(h), hits.end(h), batch.getFile(), hits.pattern(h));
+                            } else {
+                                buffered.add(builder.build(batch.getLineNumber(i), line.substring(hits.start(h), hits.end(h)), batch.getFile(), regexPatterns.get(hits.pattern(h))));
+                            }
+                            if (entry != null) {
+                                entry.add(batch.getPiece(), batch.getLineNumber(i), hits.pattern(h), line.substring(hits.start(h), hits.end(h)));
+                            }
                         }
                     }
+                    if (held != null) {
+                        orderedResult.add(batch.getPart(), batch.getPiece(), held);
+                    } else {
+                        buffered.flush();
+                    }
+                    if (entry != null) {
+                        entry.pieceDone();
+                    }
+                    linesQueue.release(batch);
+                    if(rebalancer.retire()) return;
                 }
-            } catch (Exception e) {
+            } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-            } finally {
-//                System.out.println("consumer DIED !!!-------!!!");
+                linesQueue.abort(e);
+            } catch (RuntimeException | Error e) {
+                // e.g. a StackOverflowError of java.util.regex on a long line; without a consumer the producers would wait forever
+                e.printStackTrace();
+                linesQueue.abort(e);
             }
         }
     }
 
+    /**
+     * A runnable class that takes files from a file queue, reads them
+     * and matches their lines against the list of regex patterns in the same thread,
+     * adding matching results to a ResultSink, through the OrderedSink with -ord,
+     * else through a buffer of its own flushed after every file.
+     * With -c or -cl only a count is kept, added to the CountingSink once per file.
+     * With -rc a file unchanged since the last search of the patterns is replayed instead of read.
+     */
+    static class FusedWorker implements Runnable {
+        private final DirectoryWalker walker;
+        private final String pwd;
+        private final List<String> ignoreExtn;
+        private final FileFollower follower;
+        private final ResultCache cache;
+        private final List<Pattern> regexPatterns;
+        private final RegexEngine regexEngine;
+        private final ResultSink grepResult;
+        private final CountingSink counter;
+        private final OrderedSink orderedResult;
+        private final LineResult.Builder builder;
+
+        public FusedWorker(DirectoryWalker walker, String pwd, List<String> ignoreExtn, FileFollower follower, ResultCache cache, List<Pattern> regexPatterns, RegexEngine regexEngine, ResultSink grepResult, OrderedSink orderedResult, LineResult.Builder builder) {
+            this.walker = walker;
+            this.pwd = pwd;
+            this.ignoreExtn = ignoreExtn;
+            this.follower = follower;
+            this.cache = cache;
+            this.regexPatterns = regexPatterns;
+            this.regexEngine = regexEngine.copy();
+            this.grepResult = grepResult;
+            this.counter = grepResult instanceof CountingSink ? (CountingSink) grepResult : null;
+            this.orderedResult = orderedResult;
+            this.builder = builder;
+        }
+
+        @Override
+        public void run() {
+            String filePath;
+            BufferedSink buffered = orderedResult == null ? new BufferedSink(grepResult) : null;
+            try {
+                while ((filePath = walker.next()) != null) {
+                    if (isIgnored(filePath, ignoreExtn)) continue;
+                    ResultCache.Entry entry = cache != null ? cache.entry(pwd + "/" + filePath) : null;
+                    if (counter != null) {
+                        countFile(filePath, entry);
+                        continue;
+                    }
+
+                    int part = orderedResult != null ? orderedResult.newPart() : 0;
+                    ResultColumns held = orderedResult != null ? new ResultColumns(builder, regexPatterns, orderedResult.getSpill()) : null;
+                    if (entry != null && entry.isKept()) {
+                        replay(entry, filePath, grepResult, held, buffered, builder, regexPatterns);
+                        if (held != null) {
+                            orderedResult.add(part, 0, held);
+                            orderedResult.done(part, 1);
+                        } else {
+                            buffered.flush();
+                        }
+                        continue;
+                    }
+                    try (LineSource reader = LineSource.open(pwd + "/" + filePath, follower)) {
+                        String line;
+                        int lineNumber = reader.linesBefore();
+                        while ((line = reader.readLine()) != null) {
+                            ++lineNumber;
+                            MatchHits hits = regexEngine.findAll(line);
+                            for (int h = 0; h < hits.size(); h++) {
+                                if (held != null) {
+                                    held.add(lineNumber, line, hits.start(h), hits.end(h), filePath, hits.pattern(h));
+                                } else {
+                                    buffered.add(builder.build(lineNumber, line.substring(hits.start(h), hits.end(h)), filePath, regexPatterns.get(hits.pattern(h))));
+                                }
+                                if (entry != null) {
+                                    entry.add(0, lineNumber, hits.pattern(h), line.substring(hits.start(h), hits.end(h)));
+                                }
+                            }
+                        }
+                        if (entry != null) {
+                            entry.done();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        if (held != null) {
+                            orderedResult.add(part, 0, held);
+                            orderedResult.done(part, 1);
+                        } else {
+                            buffered.flush();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Counts the matches, or matching lines, of the file and adds them to the CountingSink once,
+         * or adds the count the ResultCache kept
+         */
+        private void countFile(String filePath, ResultCache.Entry entry) {
+            if (entry != null && entry.isKept()) {
+                counter.addCount(entry.keptCount());
+                return;
+            }
+            long counted = 0;
+            try (LineSource reader = LineSource.open(pwd + "/" + filePath, follower)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    counted += regexEngine.count(line, counter.countsLines());
+                }
+                if (entry != null) {
+                    entry.addCount(counted);
+                    entry.done();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                counter.addCount(counted);
+            }
+        }
+    }
 }
@@ -0,0 +1,107 @@
+package org.sprinklr.grep;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Watches the lines queue while the producers run and moves the thread counts towards the load:
+ * a consumer more when the queue fills up while the consumers are all busy, one less when they mostly wait,
+ * and a producer more when the consumers starve on an empty queue.
+ * Consumers call retire() between batches, the ones beyond the target then exit
+ */
+final class Rebalancer {
+    static long TICK_MILLIS = 20;
+    static double BUSY = 0.9;
+    static double IDLE = 0.5;
+    static double BACKLOG = 0.25;
+
+    private final LinesQueue linesQueue;
+    private final ThreadSizing sizing;
+    private final Runnable startConsumer;
+    private final BooleanSupplier startProducer;
+    private final AtomicInteger consumerTarget;
+    private final AtomicInteger runningConsumers = new AtomicInteger();
+
+    private int producers;
+    private int peakConsumers;
+    private int consumersAdded;
+    private int consumersRetired;
+    private int producersAdded;
+    private long lastTick = System.nanoTime();
+    private long lastWait;
+
+    /**
+     * @param linesQueue
+     * @param sizing initial counts and limits
+     * @param startConsumer submits one more consumer
+     * @param startProducer submits one more producer, false if there is no work left for one; null if producers are fixed
+     */
+    Rebalancer(LinesQueue linesQueue, ThreadSizing sizing, Runnable startConsumer, BooleanSupplier startProducer) {
+        this.linesQueue = linesQueue;
+        this.sizing = sizing;
+        this.startConsumer = startConsumer;
+        this.startProducer = sizing.fixedProducers ? null : startProducer;
+        this.consumerTarget = new AtomicInteger(sizing.consumers);
+        this.producers = sizing.producers;
+    }
+
+    /**
+     * Starts consumers until as many run as the target
+     */
+    void startConsumers() {
+        int target = consumerTarget.get();
+        int running;
+        while ((running = runningConsumers.get()) < target) {
+            if (runningConsumers.compareAndSet(running, running + 1)) {
+                startConsumer.run();
+            }
+        }
+        peakConsumers = Math.max(peakConsumers, runningConsumers.get());
+    }
+
+    /**
+     * Called by a consumer between batches
+     *
+     * @return true if the calling consumer is retired and must exit
+     */
+    boolean retire() {
+        int running = runningConsumers.get();
+        return running > consumerTarget.get() && runningConsumers.compareAndSet(running, running - 1);
+    }
+
+    /**
+     * Compares the consumers' waiting time since the last tick with the time they had, and how full the queue is
+     */
+    void tick() {
+        long now = System.nanoTime();
+        long wait = linesQueue.consumerWaitNanos();
+        int running = Math.max(1, runningConsumers.get());
+        double busy = 1 - (double) (wait - lastWait) / Math.max(1, (now - lastTick) * running);
+        double fill = linesQueue.fill();
+        lastTick = now;
+        lastWait = wait;
+
+        if (!sizing.fixedConsumers) {
+            if (fill >= BACKLOG && busy >= BUSY && consumerTarget.get() < sizing.maxConsumers) {
+                consumerTarget.incrementAndGet();
+                consumersAdded++;
+                startConsumers();
+                return;
+            }
+            if (busy < IDLE && consumerTarget.get() > 1) {
+                consumerTarget.decrementAndGet();
+                consumersRetired++;
+            }
+        }
+        if (startProducer != null && busy < IDLE && fill < 0.1 && producers < sizing.maxProducers && startProducer.getAsBoolean()) {
+            producers++;
+            producersAdded++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "consumers +" + consumersAdded + " -" + consumersRetired + " (peak " + peakConsumers + ", ending at " + consumerTarget.get()
+                + "), producers +" + producersAdded;
+    }
+}
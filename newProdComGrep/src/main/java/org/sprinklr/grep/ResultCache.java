@@ -0,0 +1,525 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Results of every file searched, kept on disk for the next search of the same patterns (-rc): a file that is
+ * still the same, by identity (inode), size and modification time, has its matches (or count) replayed from the
+ * cache instead of being read again, so a search of a mostly unchanged tree costs only the files that changed.
+ * One cache file per query, named by a hash of the patterns and of the options that change what is found
+ * (-v, -c, -cl); options that only change how matches are printed are left out, a match is kept as its line,
+ * pattern and text and printed again through the LineResult.Builder.
+ * The file is read at the start and written again by save(), with the files searched and those of the last
+ * cache file still there; cache files are then deleted least recently used first, by modification time,
+ * until the directory fits in its budget
+ */
+public class ResultCache {
+    static final String SUFFIX = ".rc";
+    static int ENTRY_BYTES = 64 << 20;
+    static int DICTIONARY_TEXTS = 4096;
+    static int MAP_BYTES = 1 << 16;
+    private static final int MAGIC = 0x52434143; // "RCAC"
+
+    private final Path directory;
+    private final Path cacheFile;
+    private final Path written;
+    private final long budgetBytes;
+    private final boolean counting;
+    private final Map<String, Record> previous = new HashMap<>();
+    private final Set<String> searched = ConcurrentHashMap.newKeySet();
+    private final FileChannel previousChannel;
+    private final DataOutputStream out;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evicted;
+
+    private ResultCache(Path directory, Path cacheFile, long budgetBytes, boolean counting) throws IOException {
+        this.directory = directory;
+        this.counting = counting;
+        this.cacheFile = cacheFile;
+        // a name of its own, two searches of the same patterns may run at once and the last one saved is kept
+        this.written = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+        this.budgetBytes = budgetBytes;
+        FileChannel channel = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 1 << 16))) {
+            if (in.readInt() == MAGIC) {
+                long position = 4;
+                while (in.available() > 0) {
+                    String path = in.readUTF();
+                    String identity = in.readUTF();
+                    long size = in.readLong();
+                    long modified = in.readLong();
+                    int length = in.readInt();
+                    position += 2 + utfLength(path) + 2 + utfLength(identity) + 8 + 8 + 4;
+                    previous.put(path, new Record(identity, size, modified, position, length));
+                    skip(in, length);
+                    position += length;
+                }
+                channel = FileChannel.open(cacheFile);
+            }
+        } catch (NoSuchFileException e) {
+            // the first search of these patterns
+        } catch (IOException e) {
+            // a damaged cache file is only a cache, the files are searched again
+            e.printStackTrace();
+            previous.clear();
+        }
+        this.previousChannel = channel;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written), 1 << 16));
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * @param directory where the cache files are kept, created if missing
+     * @param regexPatterns
+     * @param options
+     * @param budgetBytes size the cache files may take together
+     * @return the cache of the query
+     * @throws IOException
+     */
+    public static ResultCache open(Path directory, List<Pattern> regexPatterns, MyRegexOptions options, long budgetBytes) throws IOException {
+        Files.createDirectories(directory);
+        StringBuilder query = new StringBuilder();
+        query.append(options.invertedSearch).append('/').append(options.onlyCountLines).append('/').append(options.countLines);
+        for (Pattern pattern : regexPatterns) {
+            query.append('/').append(pattern.flags()).append('/').append(pattern.pattern().length()).append('/').append(pattern.pattern());
+        }
+        return new ResultCache(directory, directory.resolve(hash(query.toString()) + SUFFIX), budgetBytes, options.onlyCountLines);
+    }
+
+    /**
+     * @param path of the file about to be searched
+     * @return the results kept for the file if it did not change since, else an empty entry to record them in
+     */
+    public Entry entry(String path) {
+        searched.add(path);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        } catch (IOException e) {
+            // searched without being recorded, the search reports the error
+            misses.increment();
+            return new Entry(path, null, 0, 0, null);
+        }
+        String identity = String.valueOf(attrs.fileKey());
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Record kept = previous.get(path);
+        if (kept != null && kept.identity.equals(identity) && kept.size == size && kept.modified == modified) {
+            ByteBuffer payload = read(kept);
+            if (payload != null) {
+                hits.increment();
+                append(path, identity, size, modified, payload);
+                return new Entry(path, identity, size, modified, payload);
+            }
+        }
+        misses.increment();
+        return new Entry(path, identity, size, modified, null);
+    }
+
+    /**
+     * Writes the cache file, keeping the files of the last one that were not searched this time but still exist,
+     * then evicts the least recently used cache files over the budget
+     */
+    public void save() {
+        try {
+            for (Map.Entry<String, Record> kept : previous.entrySet()) {
+                if (!searched.contains(kept.getKey()) && Files.exists(Paths.get(kept.getKey()))) {
+                    Record record = kept.getValue();
+                    ByteBuffer payload = read(record);
+                    if (payload != null) {
+                        append(kept.getKey(), record.identity, record.size, record.modified, payload);
+                    }
+                }
+            }
+            synchronized (this) {
+                out.close();
+            }
+            if (previousChannel != null) {
+                previousChannel.close();
+            }
+            Files.move(written, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return hits.sum() + " files replayed, " + misses.sum() + " searched, " + evicted + " cache files evicted";
+    }
+
+    private void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> listed = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            listed.forEach(files::add);
+        }
+        Map<Path, Long> modified = new HashMap<>();
+        long total = 0;
+        for (Path file : files) {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            modified.put(file, attrs.lastModifiedTime().toMillis());
+            total += attrs.size();
+        }
+        files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+        for (Path file : files) {
+            if (total <= budgetBytes) {
+                break;
+            }
+            // the cache file just written is the most recently used, it goes only if it alone is over the budget
+            if (!file.equals(cacheFile)) {
+                total -= Files.size(file);
+                Files.delete(file);
+                evicted++;
+            }
+        }
+    }
+
+    private synchronized void append(String path, String identity, long size, long modified, ByteBuffer payload) {
+        try {
+            writeHeader(path, identity, size, modified, payload.remaining());
+            if (payload.hasArray()) {
+                out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+                return;
+            }
+            ByteBuffer copied = payload.duplicate();
+            byte[] chunk = new byte[Math.min(copied.remaining(), MAP_BYTES)];
+            while (copied.hasRemaining()) {
+                int length = Math.min(chunk.length, copied.remaining());
+                copied.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeHeader(String path, String identity, long size, long modified, int length) throws IOException {
+        out.writeUTF(path);
+        out.writeUTF(identity);
+        out.writeLong(size);
+        out.writeLong(modified);
+        out.writeInt(length);
+    }
+
+    /**
+     * @return the payload kept for the record, mapped if it is large; null if it cannot be read
+     */
+    private ByteBuffer read(Record record) {
+        try {
+            if (record.length > MAP_BYTES) {
+                return previousChannel.map(FileChannel.MapMode.READ_ONLY, record.position, record.length);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(record.length);
+            while (payload.hasRemaining()) {
+                if (previousChannel.read(payload, record.position + payload.position()) < 0) {
+                    return null;
+                }
+            }
+            payload.flip();
+            return payload;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * @return bytes of the text in the modified UTF-8 of writeUTF
+     */
+    private static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static String hash(String query) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Record {
+        private final String identity;
+        private final long size;
+        private final long modified;
+        private final long position;
+        private final int length;
+
+        Record(String identity, long size, long modified, long position, int length) {
+            this.identity = identity;
+            this.size = size;
+            this.modified = modified;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Receives the matches replayed from the cache, in the order they were found
+     */
+    public interface Matches {
+        void match(int lineNumber, int pattern, String text);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream bytes, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes.write(value);
+    }
+
+    private static int readVarint(ByteBuffer bytes) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Matches of one batch of a file, each a varint line delta, pattern and text reference: a text seen before in
+     * the piece is referred to by its number, the first DICTIONARY_TEXTS ones are numbered; so matches of literal
+     * patterns, the same few texts again and again, take a few bytes each
+     */
+    private static class Piece {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Map<String, Integer> texts = new HashMap<>();
+        private int lastLine;
+
+        void add(int lineNumber, int pattern, String text) {
+            writeVarint(bytes, lineNumber - lastLine);
+            lastLine = lineNumber;
+            writeVarint(bytes, pattern);
+            Integer seen = texts.get(text);
+            if (seen != null) {
+                writeVarint(bytes, seen + 1);
+                return;
+            }
+            byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes, 0);
+            writeVarint(bytes, encoded.length);
+            bytes.write(encoded, 0, encoded.length);
+            if (texts.size() < DICTIONARY_TEXTS) {
+                texts.put(text, texts.size());
+            }
+        }
+    }
+
+    /**
+     * The results of one file: replayed if kept, else recorded as the search finds them, in pieces numbered
+     * as the batches of the file, and written to the cache once every piece is done and the file is not failed.
+     * A file with more than ENTRY_BYTES of matches is not kept, it is cheaper to search again than to hold
+     */
+    public class Entry {
+        private final String path;
+        private final String identity;
+        private final long size;
+        private final long modified;
+        private final ByteBuffer kept;
+        private final Map<Integer, Piece> pieces = new TreeMap<>();
+        private final AtomicLong recorded = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile boolean failed;
+
+        Entry(String path, String identity, long size, long modified, ByteBuffer kept) {
+            this.path = path;
+            this.identity = identity;
+            this.size = size;
+            this.modified = modified;
+            this.kept = kept;
+        }
+
+        /**
+         * @return true if the results of the file are kept, it is not searched
+         */
+        public boolean isKept() {
+            return kept != null;
+        }
+
+        /**
+         * @return count kept, with -c or -cl
+         */
+        public long keptCount() {
+            return kept.getLong(kept.position());
+        }
+
+        /**
+         * @param matches receives the matches kept
+         */
+        public void replay(Matches matches) {
+            ByteBuffer bytes = kept.duplicate();
+            while (bytes.hasRemaining()) {
+                int end = bytes.getInt() + bytes.position();
+                List<String> texts = new ArrayList<>();
+                int lineNumber = 0;
+                while (bytes.position() < end) {
+                    lineNumber += readVarint(bytes);
+                    int pattern = readVarint(bytes);
+                    int seen = readVarint(bytes);
+                    String text;
+                    if (seen > 0) {
+                        text = texts.get(seen - 1);
+                    } else {
+                        byte[] encoded = new byte[readVarint(bytes)];
+                        bytes.get(encoded);
+                        text = new String(encoded, StandardCharsets.UTF_8);
+                        if (texts.size() < DICTIONARY_TEXTS) {
+                            texts.add(text);
+                        }
+                    }
+                    matches.match(lineNumber, pattern, text);
+                }
+            }
+        }
+
+        /**
+         * Records a match; the matches of a piece come from one thread, in line order
+         *
+         * @param piece number of the batch it was found in
+         * @param lineNumber
+         * @param pattern
+         * @param text
+         */
+        public void add(int piece, int lineNumber, int pattern, String text) {
+            if (failed) {
+                return;
+            }
+            Piece recording;
+            synchronized (pieces) {
+                recording = pieces.computeIfAbsent(piece, p -> new Piece());
+            }
+            int before = recording.bytes.size();
+            recording.add(lineNumber, pattern, text);
+            if (recorded.addAndGet(recording.bytes.size() - before) > ENTRY_BYTES) {
+                fail();
+            }
+        }
+
+        /**
+         * @param counted matches or matching lines found, with -c or -cl
+         */
+        public void addCount(long counted) {
+            count.addAndGet(counted);
+        }
+
+        /**
+         * The file could not be read to the end, or has too many matches to keep: its results are not kept
+         */
+        public void fail() {
+            failed = true;
+            synchronized (pieces) {
+                pieces.clear();
+            }
+        }
+
+        /**
+         * A batch of the file is matched
+         */
+        public void pieceDone() {
+            if (remaining.decrementAndGet() == 0) {
+                write();
+            }
+        }
+
+        /**
+         * For a file searched by one thread, once it is read to the end: writes the entry
+         */
+        public void done() {
+            write();
+        }
+
+        /**
+         * @param total number of batches the file was read in, the entry is written once they are all done
+         */
+        public void pieces(int total) {
+            if (remaining.addAndGet(total) == 0) {
+                write();
+            }
+        }
+
+        private void write() {
+            if (failed || identity == null) {
+                return;
+            }
+            if (counting) {
+                append(path, identity, size, modified, ByteBuffer.allocate(8).putLong(0, count.get()));
+                return;
+            }
+            List<Piece> written;
+            synchronized (pieces) {
+                written = new ArrayList<>(pieces.values());
+            }
+            int length = 0;
+            for (Piece piece : written) {
+                length += 4 + piece.bytes.size();
+            }
+            synchronized (ResultCache.this) {
+                try {
+                    writeHeader(path, identity, size, modified, length);
+                    for (Piece piece : written) {
+                        out.writeInt(piece.bytes.size());
+                        piece.bytes.writeTo(out);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
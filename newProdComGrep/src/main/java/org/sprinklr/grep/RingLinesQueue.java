@@ -0,0 +1,265 @@
+package org.sprinklr.grep;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free transport between the producers and the consumers: a preallocated ring of slots that producers
+ * and consumers claim with a compare and set on their own counter, without a lock or a node allocated per put.
+ * Batches released by the consumers go back to the producers through a second ring and are refilled in place,
+ * so in steady state the only allocation left per line is its String.
+ * Memory is bounded by the slot count, a batch being closed at the same footprint as for LineBatchQueue.
+ * Threads finding the ring full or empty wait according to the wait strategy:
+ * spin keeps the CPU busy for the lowest latency, yield gives it up to other threads, park sleeps after a short spin
+ */
+public class RingLinesQueue implements LinesQueue {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Ring filled;
+    private final Ring free;
+    private final int slots;
+    private final int batchSize;
+    private final long maxBatchBytes;
+    private final String waitStrategy;
+
+    private final LongAdder putBlockedNanos = new LongAdder();
+    private final LongAdder putBlocks = new LongAdder();
+    private final LongAdder pollWaitNanos = new LongAdder();
+    private volatile boolean closed;
+    private volatile Throwable abortCause;
+
+    /**
+     * @param slots batches the ring holds, rounded up to a power of two
+     * @param batchSize lines per batch
+     * @param budgetBytes memory the queue would be given as a LineBatchQueue, sets the footprint closing a batch
+     * @param waitStrategy one of spin, yield or park
+     */
+    public RingLinesQueue(int slots, int batchSize, long budgetBytes, String waitStrategy) {
+        int capacity = slots <= 2 ? 2 : Integer.highestOneBit(slots - 1) << 1;
+        this.filled = new Ring(capacity);
+        this.free = new Ring(capacity);
+        this.slots = capacity;
+        this.batchSize = batchSize;
+        this.maxBatchBytes = LineBatchQueue.maxBatchBytes(budgetBytes);
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public LineBatch newBatch(String file) {
+        LineBatch batch = free.poll();
+        if (batch == null) {
+            return new LineBatch(file, batchSize, maxBatchBytes);
+        }
+        batch.reset(file);
+        return batch;
+    }
+
+    @Override
+    public void put(LineBatch batch) throws InterruptedException {
+        if (abortCause != null) {
+            throw LineBatchQueue.aborted(abortCause);
+        }
+        if (filled.offer(batch)) {
+            return;
+        }
+        long begin = System.nanoTime();
+        int attempt = 0;
+        while (!filled.offer(batch)) {
+            if (abortCause != null) {
+                throw LineBatchQueue.aborted(abortCause);
+            }
+            idle(attempt++);
+        }
+        putBlockedNanos.add(System.nanoTime() - begin);
+        putBlocks.increment();
+    }
+
+    @Override
+    public LineBatch take() throws InterruptedException {
+        if (abortCause != null) {
+            return null;
+        }
+        LineBatch batch = filled.poll();
+        if (batch != null) {
+            return batch;
+        }
+        long begin = System.nanoTime();
+        int attempt = 0;
+        // closed is read first: once it is set every put is done, so an empty ring then stays empty
+        while ((batch = filled.poll()) == null && !(closed && filled.isEmpty()) && abortCause == null) {
+            idle(attempt++);
+        }
+        pollWaitNanos.add(System.nanoTime() - begin);
+        return abortCause != null ? null : batch;
+    }
+
+    /**
+     * Waiting consumers see the flag within one park
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * A put racing the abort may still land its batch in the ring, it is never taken
+     */
+    @Override
+    public void abort(Throwable cause) {
+        abortCause = cause;
+        closed = true;
+        while (filled.poll() != null) {
+            // dropped
+        }
+    }
+
+    /**
+     * Keeps the batch for a producer to refill, it is dropped if the free ring is full
+     */
+    @Override
+    public void release(LineBatch batch) {
+        free.offer(batch);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return filled.isEmpty();
+    }
+
+    @Override
+    public double fill() {
+        return (double) filled.size() / slots;
+    }
+
+    @Override
+    public long consumerWaitNanos() {
+        return pollWaitNanos.sum();
+    }
+
+    @Override
+    public void printStats() {
+        System.out.println(" ... lines ring : producers blocked " + TimeUnit.NANOSECONDS.toMillis(putBlockedNanos.sum())
+                + " ms (" + putBlocks.sum() + " times), consumers waited " + TimeUnit.NANOSECONDS.toMillis(pollWaitNanos.sum())
+                + " ms, " + slots + " slots, " + waitStrategy + " wait");
+    }
+
+    private void idle(int attempt) throws InterruptedException {
+        switch (waitStrategy) {
+            case "spin":
+                Thread.onSpinWait();
+                break;
+            case "yield":
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            default:
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else if (attempt < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Bounded multi producer multi consumer ring: every slot carries a sequence number telling whether it waits
+     * for the put or the poll of a given lap, so a thread only needs to win the compare and set on the tail (put)
+     * or the head (poll) to own the slot. The counters and the sequences sit a cache line apart
+     * so that threads on different slots do not invalidate each other's lines
+     */
+    static final class Ring {
+        // longs per cache line
+        private static final int PAD = 8;
+        private static final int TAIL = PAD;
+        private static final int HEAD = 3 * PAD;
+
+        private final LineBatch[] buffer;
+        private final AtomicLongArray sequences;
+        private final AtomicLongArray counters = new AtomicLongArray(4 * PAD);
+        private final int mask;
+
+        /**
+         * @param capacity a power of two
+         */
+        Ring(int capacity) {
+            this.buffer = new LineBatch[capacity];
+            this.sequences = new AtomicLongArray(capacity * PAD);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i * PAD, i);
+            }
+        }
+
+        /**
+         * @return false if the ring is full
+         */
+        boolean offer(LineBatch batch) {
+            long position = counters.get(TAIL);
+            while (true) {
+                int slot = (int) position & mask;
+                long difference = sequences.get(slot * PAD) - position;
+                if (difference == 0) {
+                    if (counters.compareAndSet(TAIL, position, position + 1)) {
+                        buffer[slot] = batch;
+                        // publishes the batch to the consumer reading this sequence
+                        sequences.set(slot * PAD, position + 1);
+                        return true;
+                    }
+                    position = counters.get(TAIL);
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = counters.get(TAIL);
+                }
+            }
+        }
+
+        /**
+         * @return the oldest batch, or null if the ring is empty
+         */
+        LineBatch poll() {
+            long position = counters.get(HEAD);
+            while (true) {
+                int slot = (int) position & mask;
+                long difference = sequences.get(slot * PAD) - (position + 1);
+                if (difference == 0) {
+                    if (counters.compareAndSet(HEAD, position, position + 1)) {
+                        LineBatch batch = buffer[slot];
+                        buffer[slot] = null;
+                        // frees the slot for the put of the next lap
+                        sequences.set(slot * PAD, position + mask + 1);
+                        return batch;
+                    }
+                    position = counters.get(HEAD);
+                } else if (difference < 0) {
+                    return null;
+                } else {
+                    position = counters.get(HEAD);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return counters.get(HEAD) >= counters.get(TAIL);
+        }
+
+        /**
+         * @return batches put and not yet polled, claimed slots included
+         */
+        int size() {
+            return (int) Math.max(0, counters.get(TAIL) - counters.get(HEAD));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A consumer dying on an error must not leave the producers blocked on a full queue
+ */
+public class ConsumerFailureTest {
+
+    @Test
+    public void failingConsumerReleasesBlockedProducerOfBatchQueue() throws Exception {
+        assertProducerReleased(new LineBatchQueue(1, 1));
+    }
+
+    @Test
+    public void failingConsumerReleasesBlockedProducerOfRing() throws Exception {
+        assertProducerReleased(new RingLinesQueue(2, 1, 1 << 20, "park"));
+    }
+
+    private static void assertProducerReleased(LinesQueue linesQueue) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> producer = executor.submit(() -> {
+                for (int i = 1; ; i++) {
+                    LineBatch batch = linesQueue.newBatch("file");
+                    batch.add(i, "line " + i);
+                    linesQueue.put(batch);
+                }
+            });
+            // the producer fills the queue and blocks
+            while (linesQueue.isEmpty()) {
+                Thread.sleep(1);
+            }
+            List<Pattern> patterns = Collections.singletonList(Pattern.compile("line"));
+            MyRegexOptions options = new MyRegexOptions(new ArrayList<>());
+            ThreadSizing sizing = ThreadSizing.probe(null, null, 1, 1, 1);
+            Rebalancer rebalancer = new Rebalancer(linesQueue, sizing, () -> { }, () -> false);
+            ProdComGrep.NewConsumer consumer = new ProdComGrep.NewConsumer(linesQueue, patterns, new FailingEngine(),
+                    new DiscardingSink(), null, new LineResult.Builder(options), rebalancer);
+            executor.submit(consumer).get(10, TimeUnit.SECONDS);
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> producer.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof CancellationException);
+            assertNull(linesQueue.take());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class FailingEngine implements RegexEngine {
+        @Override
+        public MatchHits findAll(String line) {
+            throw new IllegalStateException("expected failure of the test engine");
+        }
+
+        @Override
+        public boolean find(int patternIndex, String line) {
+            return findAll(line) != null;
+        }
+
+        @Override
+        public boolean findAny(String line) {
+            return findAll(line) != null;
+        }
+
+        @Override
+        public RegexEngine copy() {
+            return this;
+        }
+    }
+
+    private static class DiscardingSink implements ResultSink {
+        @Override
+        public void add(LineResult lineResult) {
+        }
+
+        @Override
+        public long count() {
+            return 0;
+        }
+
+        @Override
+        public void finish() {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Producer-consumer against fused (-fu) searches, on many small files (-R) and on one big file:
+ * java -cp target/classes:target/test-classes org.sprinklr.grep.FusedModeBenchmark [tree] [big file] [runs]
+ * A corpus not given is generated in a temp directory. Each mode runs once to warm up, then runs times;
+ * the best and median wall times are printed with the throughput, and the lines queue stats of the
+ * producer-consumer mode, i.e. how long producers blocked on it and consumers waited on it
+ */
+public class FusedModeBenchmark {
+    private static final List<String> PATTERNS = Arrays.asList("timeout", "ERROR", "user=[0-9]+7 ", "conn(ection)? reset");
+
+    public static void main(String[] args) throws Exception {
+        Path tree = args.length > 0 ? Paths.get(args[0]) : generateTree(Files.createTempDirectory("grep-bench-tree"), 5000, 40);
+        Path big = args.length > 1 ? Paths.get(args[1]) : generateFile(Files.createTempFile("grep-bench", ".log"), 1_000_000);
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.println("cores " + Runtime.getRuntime().availableProcessors() + ", java " + System.getProperty("java.version"));
+        for (String workload : new String[]{"-c", "-o"}) {
+            bench("many small files " + workload, tree, Collections.emptyList(), true, workload, runs);
+            bench("one big file " + workload, big.getParent(), Collections.singletonList(big.getFileName().toString()), false, workload, runs);
+        }
+    }
+
+    private static void bench(String corpus, Path pwd, List<String> files, boolean recursive, String workload, int runs) throws Exception {
+        long bytes = recursive ? treeBytes(pwd) : Files.size(pwd.resolve(files.get(0)));
+        for (boolean fused : new boolean[]{false, true}) {
+            List<String> options = new ArrayList<>(Arrays.asList(workload));
+            if (workload.equals("-o")) {
+                options.add("/dev/null");
+            }
+            if (recursive) {
+                options.add("-R");
+            }
+            if (fused) {
+                options.add("-fu");
+            }
+            long[] millis = new long[runs];
+            ProdComGrep last = null;
+            for (int run = -1; run < runs; run++) {
+                long begin = System.nanoTime();
+                last = search(pwd, files, options);
+                if (run >= 0) {
+                    millis[run] = (System.nanoTime() - begin) / 1_000_000;
+                }
+            }
+            Arrays.sort(millis);
+            System.out.printf("%-22s %-18s best %6d ms, median %6d ms, %7.1f MB/s, %d matches, %s%n", corpus,
+                    fused ? "fused" : "producer-consumer", millis[0], millis[runs / 2], bytes / 1e6 / (millis[0] / 1e3),
+                    last.grepResult.count(), last.sizing);
+            if (!fused) {
+                last.linesQueue.printStats();
+            }
+        }
+    }
+
+    private static ProdComGrep search(Path pwd, List<String> files, List<String> options) throws IOException {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : PATTERNS) {
+            patterns.add(Pattern.compile(regex));
+        }
+        MyRegexOptions regexOptions = new MyRegexOptions(options);
+        ProdComGrep grep = new ProdComGrep(pwd.toString(), patterns, files, new ArrayList<>(), regexOptions, new ArrayList<>(),
+                regexOptions.producerThreads, regexOptions.consumerThreads);
+        grep.execute();
+        grep.grepResult.finish();
+        return grep;
+    }
+
+    private static long treeBytes(Path tree) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(tree)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    static Path generateTree(Path tree, int files, int lines) throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < files; i++) {
+            Path dir = tree.resolve("d" + (i % 50));
+            Files.createDirectories(dir);
+            writeLines(dir.resolve("f" + i + ".log"), lines, random);
+        }
+        return tree;
+    }
+
+    static Path generateFile(Path file, int lines) throws IOException {
+        writeLines(file, lines, new Random(2));
+        return file;
+    }
+
+    private static void writeLines(Path file, int lines, Random random) throws IOException {
+        String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        String[] events = {"request served", "cache miss", "timeout waiting for upstream", "connection reset by peer",
+                "conn reset", "retrying", "slow query", "login ok"};
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < lines; i++) {
+                out.write("2024-05-" + (10 + random.nextInt(20)) + " " + levels[random.nextInt(levels.length)] + " user="
+                        + random.nextInt(100000) + " " + events[random.nextInt(events.length)] + " took " + random.nextInt(900) + "ms");
+                out.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * N producers and M consumers on small queues, the last producer closing the queue as NewProducer does:
+ * every line put must be taken exactly once, and no consumer may see the end of the queue before the last batch
+ */
+public class LinesQueueStressTest {
+    private static final int ROUNDS = 10;
+    private static final int LINES_PER_PRODUCER = 1000;
+    private static final int[][] THREADS = {{1, 1}, {1, 4}, {4, 1}, {3, 3}, {6, 2}};
+
+    @Test
+    public void batchQueueDeliversEveryLineOnce() throws Exception {
+        // a budget of a few batches keeps the producers blocking on put
+        stress(() -> new LineBatchQueue(4 * 1024, 7), ROUNDS);
+    }
+
+    @Test
+    public void ringDeliversEveryLineOnceWithEachWaitStrategy() throws Exception {
+        for (String waitStrategy : new String[]{"yield", "park"}) {
+            stress(() -> new RingLinesQueue(4, 7, 1 << 20, waitStrategy), ROUNDS);
+        }
+        // spinning threads outnumbering the cores wait out whole time slices, once through the thread counts is enough
+        stress(() -> new RingLinesQueue(4, 7, 1 << 20, "spin"), THREADS.length);
+    }
+
+    private static void stress(Supplier<LinesQueue> queues, int rounds) throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            int[] threads = THREADS[round % THREADS.length];
+            run(queues.get(), threads[0], threads[1]);
+        }
+    }
+
+    private static void run(LinesQueue linesQueue, int producers, int consumers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            AtomicInteger activeProducers = new AtomicInteger(producers);
+            List<Future<Map<String, Integer>>> taken = new ArrayList<>();
+            // consumers first, they wait on the empty queue while the producers start
+            for (int c = 0; c < consumers; c++) {
+                taken.add(executor.submit(() -> {
+                    Map<String, Integer> lines = new HashMap<>();
+                    LineBatch batch;
+                    while ((batch = linesQueue.take()) != null) {
+                        for (int i = 0; i < batch.size(); i++) {
+                            assertEquals(batch.getFile() + "/" + batch.getLineNumber(i), batch.getLineContent(i));
+                            lines.merge(batch.getLineContent(i), 1, Integer::sum);
+                        }
+                        // a released batch may be refilled by a producer right away
+                        linesQueue.release(batch);
+                    }
+                    return lines;
+                }));
+            }
+            List<Future<?>> put = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                String file = "p" + p;
+                put.add(executor.submit(() -> {
+                    try {
+                        LineBatch batch = linesQueue.newBatch(file);
+                        for (int line = 1; line <= LINES_PER_PRODUCER; line++) {
+                            if (batch.add(line, file + "/" + line)) {
+                                linesQueue.put(batch);
+                                batch = linesQueue.newBatch(file);
+                            }
+                        }
+                        if (batch.size() > 0) {
+                            linesQueue.put(batch);
+                        }
+                    } finally {
+                        if (activeProducers.decrementAndGet() == 0) {
+                            linesQueue.close();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> producer : put) {
+                producer.get(60, TimeUnit.SECONDS);
+            }
+            Map<String, Integer> lines = new HashMap<>();
+            for (Future<Map<String, Integer>> consumer : taken) {
+                for (Map.Entry<String, Integer> line : consumer.get(60, TimeUnit.SECONDS).entrySet()) {
+                    lines.merge(line.getKey(), line.getValue(), Integer::sum);
+                }
+            }
+            String where = producers + " producers, " + consumers + " consumers";
+            assertEquals(producers * LINES_PER_PRODUCER, lines.size(), where);
+            for (int p = 0; p < producers; p++) {
+                for (int line = 1; line <= LINES_PER_PRODUCER; line++) {
+                    assertEquals(1, lines.get("p" + p + "/" + line), where + ", p" + p + "/" + line);
+                }
+            }
+            assertTrue(linesQueue.isEmpty(), where);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
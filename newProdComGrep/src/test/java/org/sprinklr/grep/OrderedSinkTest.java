@@ -0,0 +1,142 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OrderedSinkTest {
+    private static final List<Pattern> PATTERNS = Collections.singletonList(Pattern.compile("p"));
+    private static final LineResult.Builder BUILDER = new LineResult.Builder(new MyRegexOptions(Arrays.asList("-n", "-l", "-sf")));
+
+    @Test
+    public void headPartIsPassedOnAsItsPiecesArrive() {
+        CollectingSink downstream = new CollectingSink();
+        ResultSpill spill = new ResultSpill(Long.MAX_VALUE);
+        OrderedSink sink = new OrderedSink(downstream, spill);
+        int first = sink.newPart();
+        int second = sink.newPart();
+
+        sink.add(second, 0, piece(second, 0, 2, null));
+        sink.done(second, 1);
+        sink.add(first, 1, piece(first, 1, 2, null));
+        assertTrue(downstream.lines.isEmpty());
+
+        sink.add(first, 0, piece(first, 0, 2, null));
+        assertEquals(Arrays.asList("p0-0-0", "p0-0-1", "p0-1-0", "p0-1-1"), downstream.lines);
+
+        sink.done(first, 2);
+        assertEquals(Arrays.asList("p0-0-0", "p0-0-1", "p0-1-0", "p0-1-1", "p1-0-0", "p1-0-1"), downstream.lines);
+        spill.close();
+    }
+
+    @Test
+    public void emptyPartDoesNotHoldBackTheNextOnes() {
+        CollectingSink downstream = new CollectingSink();
+        ResultSpill spill = new ResultSpill(Long.MAX_VALUE);
+        OrderedSink sink = new OrderedSink(downstream, spill);
+        int empty = sink.newPart();
+        int next = sink.newPart();
+        sink.add(next, 0, piece(next, 0, 1, null));
+        sink.done(next, 1);
+        assertTrue(downstream.lines.isEmpty());
+        sink.done(empty, 0);
+        assertEquals(Collections.singletonList("p1-0-0"), downstream.lines);
+        spill.close();
+    }
+
+    /**
+     * Pieces added from several threads in random order, held on the heap or spilled, come out in part and piece order
+     */
+    @Test
+    public void concurrentPiecesComeOutInOrder() throws Exception {
+        for (long budget : new long[]{Long.MAX_VALUE, 0}) {
+            int accountEvery = ResultColumns.ACCOUNT_EVERY;
+            ResultColumns.ACCOUNT_EVERY = 1;
+            CollectingSink downstream = new CollectingSink();
+            ResultSpill spill = new ResultSpill(budget);
+            OrderedSink sink = new OrderedSink(downstream, spill);
+            Random random = new Random(budget);
+            List<int[]> work = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            int[] piecesPerPart = new int[40];
+            for (int part = 0; part < piecesPerPart.length; part++) {
+                assertEquals(part, sink.newPart());
+                piecesPerPart[part] = random.nextInt(4);
+                for (int piece = 0; piece < piecesPerPart[part]; piece++) {
+                    int lines = random.nextInt(5);
+                    work.add(new int[]{part, piece, lines});
+                    for (int i = 0; i < lines; i++) {
+                        expected.add("p" + part + "-" + piece + "-" + i);
+                    }
+                }
+            }
+            Collections.shuffle(work, random);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int thread = t;
+                    futures.add(executor.submit(() -> {
+                        for (int w = thread; w < work.size(); w += 4) {
+                            int[] item = work.get(w);
+                            sink.add(item[0], item[1], piece(item[0], item[1], item[2], spill));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+                for (int part = piecesPerPart.length - 1; part >= 0; part--) {
+                    sink.done(part, piecesPerPart[part]);
+                }
+                assertEquals(expected, downstream.lines, "budget " + budget);
+                if (budget == 0) {
+                    assertTrue(!spill.toString().startsWith("0 matches"), "nothing was spilled");
+                }
+            } finally {
+                executor.shutdownNow();
+                spill.close();
+                ResultColumns.ACCOUNT_EVERY = accountEvery;
+            }
+        }
+    }
+
+    private static ResultColumns piece(int part, int piece, int lines, ResultSpill spill) {
+        ResultColumns results = new ResultColumns(BUILDER, PATTERNS, spill);
+        for (int i = 0; i < lines; i++) {
+            String line = "p" + part + "-" + piece + "-" + i;
+            results.add(i + 1, line, 0, line.length(), "file" + part, 0);
+        }
+        return results;
+    }
+
+    private static class CollectingSink implements ResultSink {
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void add(LineResult lineResult) {
+            lines.add(lineResult.line);
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public long count() {
+            return lines.size();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.sprinklr.grep;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Match heavy workers handing their matches to one shared collector:
+ * a synchronizedList as the matches were once collected, the PrintingSink locked once per match,
+ * and the PrintingSink behind a BufferedSink per worker as the consumers now do.
+ * java -cp target/classes:target/test-classes org.sprinklr.grep.SinkContentionBenchmark [matches per thread] [runs]
+ * Prints the throughput and how often, and how long, the workers blocked on a monitor (ThreadMXBean contention monitoring)
+ */
+public class SinkContentionBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        if (THREADS.isThreadContentionMonitoringSupported()) {
+            THREADS.setThreadContentionMonitoringEnabled(true);
+        }
+        System.out.println("cores " + Runtime.getRuntime().availableProcessors() + ", java " + System.getProperty("java.version")
+                + ", " + matches + " matches per thread");
+        for (int threads : new int[]{1, 4, 16}) {
+            for (String collector : new String[]{"synchronizedList", "sink per match", "buffered sink"}) {
+                double best = 0;
+                long[] blocked = null;
+                for (int run = -1; run < runs; run++) {
+                    long[] runBlocked = new long[2];
+                    long begin = System.nanoTime();
+                    collect(collector, threads, matches, runBlocked);
+                    double perSecond = (double) threads * matches / ((System.nanoTime() - begin) / 1e9);
+                    if (run >= 0 && perSecond > best) {
+                        best = perSecond;
+                        blocked = runBlocked;
+                    }
+                }
+                System.out.printf("%2d threads  %-16s %6.2f M matches/s, blocked %8d times, %6d ms%n",
+                        threads, collector, best / 1e6, blocked[0], blocked[1]);
+            }
+        }
+    }
+
+    /**
+     * @param blocked summed over the workers: times blocked on a monitor, milliseconds blocked
+     */
+    private static void collect(String collector, int threads, int matches, long[] blocked) throws Exception {
+        MyRegexOptions options = new MyRegexOptions(Arrays.asList("-n", "-l", "-sf"));
+        LineResult.Builder builder = new LineResult.Builder(options);
+        Pattern pattern = Pattern.compile("INFO");
+        List<LineResult> list = Collections.synchronizedList(new ArrayList<>());
+        PrintingSink sink = new PrintingSink(new OutputStreamWriter(OutputStream.nullOutputStream()), false);
+        AtomicLong blockedCount = new AtomicLong();
+        AtomicLong blockedMillis = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String file = "file" + t + ".log";
+            workers.add(executor.submit(() -> {
+                ThreadInfo before = THREADS.getThreadInfo(Thread.currentThread().getId());
+                BufferedSink buffered = new BufferedSink(sink);
+                for (int i = 0; i < matches; i++) {
+                    LineResult result = builder.build(i, "INFO", file, pattern);
+                    switch (collector) {
+                        case "synchronizedList":
+                            list.add(result);
+                            if (list.size() >= 1 << 20) {
+                                // keeps the heap flat, under the lock as a reader of the list would
+                                synchronized (list) {
+                                    list.clear();
+                                }
+                            }
+                            break;
+                        case "sink per match":
+                            sink.add(result);
+                            break;
+                        default:
+                            buffered.add(result);
+                    }
+                }
+                buffered.flush();
+                ThreadInfo after = THREADS.getThreadInfo(Thread.currentThread().getId());
+                blockedCount.addAndGet(after.getBlockedCount() - before.getBlockedCount());
+                blockedMillis.addAndGet(Math.max(0, after.getBlockedTime() - before.getBlockedTime()));
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+        sink.finish();
+        blocked[0] = blockedCount.get();
+        blocked[1] = blockedMillis.get();
+    }
+}
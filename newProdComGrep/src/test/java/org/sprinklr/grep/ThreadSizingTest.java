@@ -0,0 +1,86 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ThreadSizingTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void probeSizesFromTheInput() throws Exception {
+        Path file = Files.write(temp.resolve("lines.txt"), Collections.nCopies(1000, "some line to match"));
+        ThreadSizing sizing = ThreadSizing.probe(Collections.singletonList(file.toString()).iterator(),
+                RegexEngine.create(Collections.singletonList(Pattern.compile("match")), "auto"), 4, 0, 0);
+        assertSized(sizing);
+        assertTrue(sizing.toString().contains("probed"), sizing.toString());
+    }
+
+    /**
+     * A pattern java.util.regex fails on must fail the consumer meeting the line, not the sizing
+     */
+    @Test
+    public void failingMatchFallsBackToAnEvenSplit() throws Exception {
+        Path file = Files.write(temp.resolve("lines.txt"), Collections.nCopies(1000, "some line to match"));
+        for (Supplier<Throwable> failure : Arrays.<Supplier<Throwable>>asList(
+                () -> new StackOverflowError("expected failure of the test engine"),
+                () -> new IllegalStateException("expected failure of the test engine"))) {
+            ThreadSizing sizing = ThreadSizing.probe(Collections.singletonList(file.toString()).iterator(),
+                    new FailingEngine(failure), 4, 0, 0);
+            assertSized(sizing);
+            assertTrue(sizing.toString().contains("failed with"), sizing.toString());
+            assertEquals(Math.max(1, Math.round(ThreadSizing.CORES * 0.5f)), sizing.consumers);
+        }
+        ThreadSizing asked = ThreadSizing.probe(Collections.singletonList(file.toString()).iterator(),
+                new FailingEngine(() -> new StackOverflowError()), 4, 3, 0);
+        assertEquals(3, asked.producers);
+    }
+
+    private static void assertSized(ThreadSizing sizing) {
+        assertTrue(sizing.producers >= 1 && sizing.producers <= sizing.maxProducers, sizing.toString());
+        assertTrue(sizing.consumers >= 1 && sizing.consumers <= sizing.maxConsumers, sizing.toString());
+    }
+
+    private static class FailingEngine implements RegexEngine {
+        private final Supplier<Throwable> failure;
+
+        FailingEngine(Supplier<Throwable> failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public MatchHits findAll(String line) {
+            Throwable thrown = failure.get();
+            if (thrown instanceof Error) {
+                throw (Error) thrown;
+            }
+            throw (RuntimeException) thrown;
+        }
+
+        @Override
+        public boolean find(int patternIndex, String line) {
+            return findAll(line) != null;
+        }
+
+        @Override
+        public boolean findAny(String line) {
+            return findAll(line) != null;
+        }
+
+        @Override
+        public RegexEngine copy() {
+            return this;
+        }
+    }
+}
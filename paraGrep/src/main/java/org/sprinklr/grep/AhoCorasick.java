@@ -0,0 +1,187 @@
+package org.sprinklr.grep;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over a set of literals, finds the occurrences of all of them in a single scan of a line.
+ * Transitions on ASCII chars are fully resolved into a table, other chars follow goto/failure links.
+ * The automaton is immutable and can be shared between threads.
+ */
+public class AhoCorasick {
+    private static final int ASCII = 128;
+
+    private final boolean ignoreCase;
+    private final int[] patternIds;
+    private final int[] lengths;
+    private final int[] asciiDelta;
+    private final Map<Long, Integer> otherGoto;
+    private final int[] fail;
+    private final int[][] outputs;
+
+    /**
+     * @param literals the literals to search, folded to lower case if ignoreCase
+     * @param patternIds pattern index reported for each literal, at most one literal per pattern
+     * @param ignoreCase fold ASCII upper case chars of the line while scanning
+     */
+    public AhoCorasick(String[] literals, int[] patternIds, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.patternIds = patternIds;
+        this.lengths = new int[literals.length];
+
+        // build the trie
+        int[] gotoAscii = new int[ASCII * 16];
+        Arrays.fill(gotoAscii, -1);
+        Map<Long, Integer> gotoOther = new HashMap<>();
+        List<List<Integer>> own = new ArrayList<>();
+        own.add(new ArrayList<>());
+        int states = 1;
+        for (int l = 0; l < literals.length; l++) {
+            String literal = literals[l];
+            lengths[l] = literal.length();
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                int next = c < ASCII ? gotoAscii[state * ASCII + c] : gotoOther.getOrDefault(key(state, c), -1);
+                if (next < 0) {
+                    next = states++;
+                    own.add(new ArrayList<>());
+                    if (states * ASCII > gotoAscii.length) {
+                        int oldLength = gotoAscii.length;
+                        gotoAscii = Arrays.copyOf(gotoAscii, oldLength * 2);
+                        Arrays.fill(gotoAscii, oldLength, gotoAscii.length, -1);
+                    }
+                    if (c < ASCII) {
+                        gotoAscii[state * ASCII + c] = next;
+                    } else {
+                        gotoOther.put(key(state, c), next);
+                    }
+                }
+                state = next;
+            }
+            own.get(state).add(l);
+        }
+
+        // breadth first: failure links, resolved ascii transitions and merged outputs
+        this.fail = new int[states];
+        this.asciiDelta = new int[states * ASCII];
+        this.outputs = new int[states][];
+        this.otherGoto = gotoOther;
+        Map<Integer, List<int[]>> otherChildren = new HashMap<>();
+        for (Map.Entry<Long, Integer> entry : gotoOther.entrySet()) {
+            int parent = (int) (entry.getKey() >>> 16);
+            int c = (int) (entry.getKey() & 0xFFFF);
+            otherChildren.computeIfAbsent(parent, k -> new ArrayList<>()).add(new int[]{c, entry.getValue()});
+        }
+
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        outputs[0] = toArray(own.get(0));
+        for (int c = 0; c < ASCII; c++) {
+            int next = gotoAscii[c];
+            if (next > 0) {
+                fail[next] = 0;
+                asciiDelta[c] = next;
+                queue.add(next);
+            } else {
+                asciiDelta[c] = 0;
+            }
+        }
+        for (int[] child : otherChildren.getOrDefault(0, new ArrayList<>())) {
+            fail[child[1]] = 0;
+            queue.add(child[1]);
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] = merge(toArray(own.get(state)), outputs[fail[state]]);
+            for (int c = 0; c < ASCII; c++) {
+                int next = gotoAscii[state * ASCII + c];
+                if (next > 0) {
+                    fail[next] = asciiDelta[fail[state] * ASCII + c];
+                    asciiDelta[state * ASCII + c] = next;
+                    queue.add(next);
+                } else {
+                    asciiDelta[state * ASCII + c] = asciiDelta[fail[state] * ASCII + c];
+                }
+            }
+            for (int[] child : otherChildren.getOrDefault(state, new ArrayList<>())) {
+                fail[child[1]] = otherTransition(fail[state], (char) child[0]);
+                queue.add(child[1]);
+            }
+        }
+    }
+
+    /**
+     * Adds to hits, for every literal, its pattern index and non-overlapping occurrences left to right,
+     * i.e. the same matches repeated Matcher.find() calls of the literal pattern return.
+     *
+     * @param line
+     * @param hits
+     * @param lastEnd scratch array indexed by pattern, all zero on entry and left all zero on return
+     */
+    public void findAll(CharSequence line, MatchHits hits, int[] lastEnd) {
+        int first = hits.size();
+        int state = 0;
+        int n = line.length();
+        for (int i = 0; i < n; i++) {
+            char c = line.charAt(i);
+            if (ignoreCase && c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            state = c < ASCII ? asciiDelta[state * ASCII + c] : otherTransition(state, c);
+            int[] out = outputs[state];
+            for (int l : out) {
+                int pattern = patternIds[l];
+                int start = i + 1 - lengths[l];
+                if (start >= lastEnd[pattern]) {
+                    hits.add(pattern, start, i + 1);
+                    lastEnd[pattern] = i + 1;
+                }
+            }
+        }
+        for (int h = first; h < hits.size(); h++) {
+            lastEnd[hits.pattern(h)] = 0;
+        }
+    }
+
+    private int otherTransition(int state, char c) {
+        if (otherGoto.isEmpty()) {
+            return 0;
+        }
+        while (true) {
+            Integer next = otherGoto.get(key(state, c));
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private static long key(int state, char c) {
+        return ((long) state << 16) | c;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] merged = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, merged, a.length, b.length);
+        return merged;
+    }
+}
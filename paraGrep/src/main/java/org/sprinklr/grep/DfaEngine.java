@@ -0,0 +1,154 @@
+package org.sprinklr.grep;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Gates the patterns with a LazyDfa: one linear, backtracking free scan of the line tells which
+ * of the patterns in the DFA's subset match it, and java.util.regex only runs, for the match positions,
+ * on those patterns of the lines they match. Patterns outside the subset, and the rare lines the DFA
+ * cannot decide on, go to the LineMatcher as usual.
+ * A pathological pattern can then only backtrack on lines it does match.
+ * Patterns with a required literal are already gated by the LineMatcher's literal scans, so by default
+ * only the others go to the DFA, along with those repeating a group, where backtracking blows up.
+ * Not thread safe, every thread works on its own copy()
+ */
+public class DfaEngine implements RegexEngine {
+    private final int patterns;
+    private final boolean[] inDfa;
+    private final boolean anyInDfa;
+    private final LineMatcher lineMatcher;
+    private final LazyDfa dfa;
+
+    private final long[] matched;
+    private final boolean[] candidates;
+    private final MatchHits noHits = new MatchHits();
+    private String scannedLine;
+    private boolean scannedLineDecided;
+
+    /**
+     * @param regexPatterns
+     * @param allPatterns put every supported pattern in the DFA, not only those without a required literal
+     *                    or repeating a group
+     */
+    public DfaEngine(List<Pattern> regexPatterns, boolean allPatterns) {
+        this.patterns = regexPatterns.size();
+        this.inDfa = new boolean[patterns];
+        LiteralPrefilter prefilter = LiteralPrefilter.of(regexPatterns);
+        Nfa nfa = new Nfa();
+        boolean any = false;
+        for (int i = 0; i < patterns; i++) {
+            Pattern pattern = regexPatterns.get(i);
+            if (allPatterns || prefilter.literal(i) == null || repeatsGroup(pattern)) {
+                inDfa[i] = nfa.add(pattern, i);
+                any |= inDfa[i];
+            }
+        }
+        this.anyInDfa = any;
+        this.lineMatcher = new LineMatcher(regexPatterns);
+        this.dfa = any ? new LazyDfa(nfa, patterns) : null;
+        this.matched = new long[(patterns + 63) / 64];
+        this.candidates = new boolean[patterns];
+    }
+
+    /**
+     * Shares the compiled state of the prototype, with fresh per thread buffers
+     */
+    private DfaEngine(DfaEngine prototype) {
+        this.patterns = prototype.patterns;
+        this.inDfa = prototype.inDfa;
+        this.anyInDfa = prototype.anyInDfa;
+        this.lineMatcher = prototype.lineMatcher.copy();
+        this.dfa = prototype.dfa != null ? prototype.dfa.copy() : null;
+        this.matched = new long[prototype.matched.length];
+        this.candidates = new boolean[patterns];
+    }
+
+    @Override
+    public DfaEngine copy() {
+        return new DfaEngine(this);
+    }
+
+    @Override
+    public MatchHits findAll(String line) {
+        if (!scan(line)) {
+            return lineMatcher.findAll(line);
+        }
+        boolean any = false;
+        for (int i = 0; i < patterns; i++) {
+            candidates[i] = !inDfa[i] || isMatched(i);
+            any |= candidates[i];
+        }
+        return any ? lineMatcher.findAll(line, candidates) : noHits;
+    }
+
+    @Override
+    public boolean find(int patternIndex, String line) {
+        if (inDfa[patternIndex] && scan(line)) {
+            return isMatched(patternIndex);
+        }
+        return lineMatcher.find(patternIndex, line);
+    }
+
+    /**
+     * The patterns the DFA decided are checked first, they cost nothing more once the line is scanned
+     */
+    @Override
+    public boolean findAny(String line) {
+        boolean decided = scan(line);
+        if (decided) {
+            for (int i = 0; i < patterns; i++) {
+                if (inDfa[i] && isMatched(i)) {
+                    return true;
+                }
+            }
+        }
+        for (int i = 0; i < patterns; i++) {
+            if (!(decided && inDfa[i]) && lineMatcher.find(i, line)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the DFA over the line once, the result serves every pattern of that line
+     *
+     * @return false if the DFA did not decide the line
+     */
+    private boolean scan(String line) {
+        if (!anyInDfa) {
+            return false;
+        }
+        if (line != scannedLine) {
+            scannedLine = line;
+            Arrays.fill(matched, 0L);
+            scannedLineDecided = dfa.scan(line, matched);
+        }
+        return scannedLineDecided;
+    }
+
+    /**
+     * @return true if a quantifier follows a group, e.g. (a+)+ or (.*a){10}
+     */
+    private static boolean repeatsGroup(Pattern pattern) {
+        if ((pattern.flags() & Pattern.LITERAL) != 0) {
+            return false;
+        }
+        String regex = pattern.pattern();
+        for (int i = 0; i < regex.length() - 1; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ')' && "*+{".indexOf(regex.charAt(i + 1)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isMatched(int patternIndex) {
+        return (matched[patternIndex >>> 6] & (1L << patternIndex)) != 0;
+    }
+}
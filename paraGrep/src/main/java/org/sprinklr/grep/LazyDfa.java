@@ -0,0 +1,329 @@
+package org.sprinklr.grep;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * DFA over an Nfa, built lazily one transition at a time while lines are scanned, which tells in a
+ * single left to right pass, without any backtracking, which of the NFA's patterns match somewhere in a line.
+ * Chars are mapped to equivalence classes (chars no char set of the NFA tells apart share a class),
+ * so the transition table has one column per class instead of one per char.
+ * Once the table reaches MAX_STATES it is thrown away and rebuilt, bounding the memory per thread.
+ * Not thread safe, every thread works on its own copy()
+ */
+final class LazyDfa {
+    static int MAX_STATES = 4096;
+
+    private static final int UNKNOWN = -1;
+    private static final char UNDECIDABLE = 0;
+    private static final int INITIAL = 0;
+
+    // shared by the copies
+    private final Nfa nfa;
+    private final char[] classOf;
+    private final int[] representative;
+    private final int classes;
+    private final int words;
+    private final int[] startStates;
+
+    // per copy cache
+    private final Map<StateKey, Integer> ids = new HashMap<>();
+    private int count;
+    private int[][] sets = new int[64][];
+    private int[] transitions = new int[0];
+    private boolean[] accepting = new boolean[64];
+    private long[][] acceptMask = new long[64][];
+    private long[][] endMask = new long[64][];
+
+    // closure scratch
+    private int[] mark;
+    private int generation;
+    private int[] stack;
+    private int[] found;
+
+    /**
+     * @param nfa
+     * @param patterns number of patterns, MATCH states report indexes below it
+     */
+    LazyDfa(Nfa nfa, int patterns) {
+        this.nfa = nfa;
+        this.words = (patterns + 63) / 64;
+        this.startStates = nfa.starts.stream().mapToInt(Integer::intValue).toArray();
+
+        // class boundaries, surrogates get the undecidable class 0
+        boolean[] boundary = new boolean[0x10001];
+        boundary[0] = true;
+        boundary[Character.MIN_SURROGATE] = true;
+        boundary[Character.MAX_SURROGATE + 1] = true;
+        for (int[] ranges : nfa.charSets) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                boundary[ranges[i]] = true;
+                boundary[ranges[i + 1] + 1] = true;
+            }
+        }
+        this.classOf = new char[0x10000];
+        int[] reps = new int[16];
+        int next = 0;
+        int current = 0;
+        for (int c = 0; c <= 0xFFFF; c++) {
+            if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                classOf[c] = UNDECIDABLE;
+                continue;
+            }
+            if (boundary[c]) {
+                current = ++next;
+                if (current == reps.length) {
+                    reps = Arrays.copyOf(reps, reps.length * 2);
+                }
+                reps[current] = c;
+            }
+            classOf[c] = (char) current;
+        }
+        this.classes = next + 1;
+        this.representative = Arrays.copyOf(reps, classes);
+        initScratch();
+        addState(closure(startStates, startStates.length, true), true);
+    }
+
+    /**
+     * Shares the NFA and class map of the prototype, with an empty transition cache
+     */
+    private LazyDfa(LazyDfa prototype) {
+        this.nfa = prototype.nfa;
+        this.classOf = prototype.classOf;
+        this.representative = prototype.representative;
+        this.classes = prototype.classes;
+        this.words = prototype.words;
+        this.startStates = prototype.startStates;
+        initScratch();
+        addState(closure(startStates, startStates.length, true), true);
+    }
+
+    LazyDfa copy() {
+        return new LazyDfa(this);
+    }
+
+    /**
+     * Sets in matched the bit of every pattern matching somewhere in the line.
+     *
+     * @param line
+     * @param matched cleared by the caller, one bit per pattern index
+     * @return false if the line has chars the DFA does not decide on (surrogates, or a trailing
+     * line terminator when a pattern uses $), matched is then meaningless
+     */
+    boolean scan(String line, long[] matched) {
+        int n = line.length();
+        if (nfa.usesEol && n > 0 && isLineTerminator(line.charAt(n - 1))) {
+            return false;
+        }
+        int state = INITIAL;
+        if (accepting[state]) {
+            or(matched, acceptMask[state]);
+        }
+        for (int i = 0; i < n; i++) {
+            int cls = classOf[line.charAt(i)];
+            if (cls == UNDECIDABLE) {
+                return false;
+            }
+            int next = transitions[state * classes + cls];
+            if (next == UNKNOWN) {
+                next = computeTransition(state, cls);
+            }
+            state = next;
+            if (accepting[state]) {
+                or(matched, acceptMask[state]);
+            }
+        }
+        if (nfa.usesEol) {
+            if (endMask[state] == null) {
+                endMask[state] = acceptMaskOf(closure(sets[state], sets[state].length, state == INITIAL, true));
+            }
+            or(matched, endMask[state]);
+        }
+        return true;
+    }
+
+    private int computeTransition(int state, int cls) {
+        if (count >= MAX_STATES) {
+            // start over with just the initial state and the one being left
+            int[] keep = sets[state];
+            boolean initial = state == INITIAL;
+            resetCache();
+            state = initial ? INITIAL : addState(keep, false);
+        }
+        int[] from = sets[state];
+        int c = representative[cls];
+        int moved = 0;
+        int[] targets = new int[from.length + startStates.length];
+        for (int s : from) {
+            if (nfa.type[s] == Nfa.CHARS && nfa.contains(nfa.arg[s], c)) {
+                targets[moved++] = nfa.out1[s];
+            }
+        }
+        // unanchored search: a match may start at every position
+        for (int s : startStates) {
+            targets[moved++] = s;
+        }
+        int next = addState(closure(targets, moved, false), false);
+        transitions[state * classes + cls] = next;
+        return next;
+    }
+
+    /**
+     * @param atStart whether BOL assertions hold
+     * @return the sorted CHARS, MATCH and pending EOL states reachable over epsilon moves
+     */
+    private int[] closure(int[] from, int length, boolean atStart) {
+        return closure(from, length, atStart, false);
+    }
+
+    /**
+     * @param atEnd whether EOL assertions hold, they are kept pending in the set otherwise
+     */
+    private int[] closure(int[] from, int length, boolean atStart, boolean atEnd) {
+        if (++generation == 0) {
+            Arrays.fill(mark, 0);
+            generation = 1;
+        }
+        int top = 0;
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            stack[top++] = from[i];
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            if (mark[s] == generation) {
+                continue;
+            }
+            mark[s] = generation;
+            switch (nfa.type[s]) {
+                case Nfa.SPLIT:
+                    stack[top++] = nfa.out2[s];
+                    stack[top++] = nfa.out1[s];
+                    break;
+                case Nfa.EPSILON:
+                    stack[top++] = nfa.out1[s];
+                    break;
+                case Nfa.BOL:
+                    if (atStart) {
+                        stack[top++] = nfa.out1[s];
+                    }
+                    break;
+                case Nfa.EOL:
+                    if (atEnd) {
+                        stack[top++] = nfa.out1[s];
+                    } else {
+                        found[size++] = s;
+                    }
+                    break;
+                default:
+                    found[size++] = s;
+            }
+        }
+        int[] set = Arrays.copyOf(found, size);
+        Arrays.sort(set);
+        return set;
+    }
+
+    /**
+     * @return mask of the patterns whose MATCH state is in the set
+     */
+    private long[] acceptMaskOf(int[] set) {
+        long[] mask = new long[words];
+        for (int s : set) {
+            if (nfa.type[s] == Nfa.MATCH) {
+                mask[nfa.arg[s] >>> 6] |= 1L << nfa.arg[s];
+            }
+        }
+        return mask;
+    }
+
+    private int addState(int[] set, boolean initial) {
+        StateKey key = new StateKey(set, initial);
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        int state = count++;
+        if (state == sets.length) {
+            sets = Arrays.copyOf(sets, state * 2);
+            accepting = Arrays.copyOf(accepting, state * 2);
+            acceptMask = Arrays.copyOf(acceptMask, state * 2);
+            endMask = Arrays.copyOf(endMask, state * 2);
+        }
+        if ((state + 1) * classes > transitions.length) {
+            int oldLength = transitions.length;
+            transitions = Arrays.copyOf(transitions, Math.max(classes * 16, oldLength * 2));
+            Arrays.fill(transitions, oldLength, transitions.length, UNKNOWN);
+        }
+        sets[state] = set;
+        acceptMask[state] = acceptMaskOf(set);
+        accepting[state] = !isEmpty(acceptMask[state]);
+        endMask[state] = null;
+        ids.put(key, state);
+        return state;
+    }
+
+    private void resetCache() {
+        int[] initial = sets[INITIAL];
+        ids.clear();
+        count = 0;
+        Arrays.fill(transitions, UNKNOWN);
+        addState(initial, true);
+    }
+
+    private void initScratch() {
+        this.mark = new int[nfa.size];
+        this.stack = new int[nfa.size * 3 + startStates.length];
+        this.found = new int[nfa.size];
+    }
+
+    private static void or(long[] target, long[] mask) {
+        for (int i = 0; i < mask.length; i++) {
+            target[i] |= mask[i];
+        }
+    }
+
+    private static boolean isEmpty(long[] mask) {
+        for (long word : mask) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Set of NFA states identifying a DFA state; the initial state is kept apart since BOL holds only there
+     */
+    private static final class StateKey {
+        private final int[] set;
+        private final boolean initial;
+        private final int hash;
+
+        StateKey(int[] set, boolean initial) {
+            this.set = set;
+            this.initial = initial;
+            this.hash = Arrays.hashCode(set) * 31 + (initial ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StateKey)) {
+                return false;
+            }
+            StateKey other = (StateKey) o;
+            return initial == other.initial && Arrays.equals(set, other.set);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
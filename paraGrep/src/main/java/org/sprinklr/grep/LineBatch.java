@@ -0,0 +1,101 @@
+package org.sprinklr.grep;
+
+import java.util.Arrays;
+
+/**
+ * LineBatch is the bundled up object put in the shared buffer: lines of one block with their line numbers
+ * within the block, so a whole batch costs a single handoff between a producer and a consumer
+ */
+public class LineBatch {
+    // String and char array headers, the array slots and the line number, per line
+    static final int LINE_OVERHEAD = 64;
+
+    private int blockNumber;
+    private int piece;
+    private final int capacity;
+    private final long maxBytes;
+    private long[] lineNumbers;
+    private String[] lineContents;
+    private int size;
+    private long footprint;
+
+    /**
+     * @param blockNumber
+     * @param capacity lines after which the batch is full
+     * @param maxBytes footprint after which the batch is full, whatever its number of lines
+     */
+    public LineBatch(int blockNumber, int capacity, long maxBytes) {
+        this.blockNumber = blockNumber;
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        // grown on demand, the tail of a block should not pay for a full batch
+        this.lineNumbers = new long[Math.min(capacity, 16)];
+        this.lineContents = new String[lineNumbers.length];
+    }
+
+    /**
+     * @param lineNumber
+     * @param lineContent
+     * @return true if the batch is full after adding the line
+     */
+    public boolean add(long lineNumber, String lineContent) {
+        if (size == lineContents.length) {
+            int grown = Math.min(capacity, size * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, grown);
+            lineContents = Arrays.copyOf(lineContents, grown);
+        }
+        lineNumbers[size] = lineNumber;
+        lineContents[size] = lineContent;
+        // chars are counted two bytes each, an upper bound for latin1 lines
+        footprint += LINE_OVERHEAD + 2L * lineContent.length();
+        return ++size == capacity || footprint >= maxBytes;
+    }
+
+    /**
+     * @return estimate of the heap taken by the lines of the batch
+     */
+    public long footprint() {
+        return footprint;
+    }
+
+    /**
+     * Empties the batch for reuse with the lines of another block, keeping its arrays
+     *
+     * @param blockNumber
+     */
+    public void reset(int blockNumber) {
+        this.blockNumber = blockNumber;
+        Arrays.fill(lineContents, 0, size, null);
+        size = 0;
+        footprint = 0;
+    }
+
+    /**
+     * Numbers the batch for the OrderedSink
+     *
+     * @param piece number of the batch within the block
+     */
+    public void setPiece(int piece) {
+        this.piece = piece;
+    }
+
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    public int getPiece() {
+        return piece;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getLineNumber(int i) {
+        return lineNumbers[i];
+    }
+
+    public String getLineContent(int i) {
+        return lineContents[i];
+    }
+}
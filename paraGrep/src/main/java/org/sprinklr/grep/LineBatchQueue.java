@@ -0,0 +1,193 @@
+package org.sprinklr.grep;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared buffer between the producers and the consumers, bounded by the memory the queued lines take
+ * rather than by their count, so producers outrunning the consumers block instead of buffering the file on heap.
+ * A batch larger than the whole budget is still let in once the queue is empty, so no producer waits forever.
+ * The time each side spends blocked is recorded, see printStats()
+ */
+public class LineBatchQueue implements LinesQueue {
+    private final long budgetBytes;
+    private final int batchSize;
+    private final ArrayDeque<LineBatch> batches = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    // guarded by lock
+    private long queuedBytes;
+    private long peakBytes;
+    private long putBlockedNanos;
+    private long putBlocks;
+    private long pollWaitNanos;
+    private boolean closed;
+    private Throwable abortCause;
+
+    /**
+     * @param budgetBytes memory the queued lines may take, see LineBatch.footprint()
+     * @param batchSize lines per batch
+     */
+    public LineBatchQueue(long budgetBytes, int batchSize) {
+        this.budgetBytes = budgetBytes;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return footprint at which a producer should stop filling a batch and put it,
+     * so that a batch of long lines does not take the whole budget on its own
+     */
+    static long maxBatchBytes(long budgetBytes) {
+        return Math.max(1, budgetBytes / 16);
+    }
+
+    @Override
+    public LineBatch newBatch(int blockNumber) {
+        return new LineBatch(blockNumber, batchSize, maxBatchBytes(budgetBytes));
+    }
+
+    /**
+     * Adds the batch, waiting while it does not fit in what is left of the budget
+     *
+     * @param batch
+     * @throws InterruptedException
+     */
+    @Override
+    public void put(LineBatch batch) throws InterruptedException {
+        long footprint = batch.footprint();
+        lock.lockInterruptibly();
+        try {
+            if (!fits(footprint) && abortCause == null) {
+                long begin = System.nanoTime();
+                while (!fits(footprint) && abortCause == null) {
+                    notFull.await();
+                }
+                putBlockedNanos += System.nanoTime() - begin;
+                putBlocks++;
+            }
+            if (abortCause != null) {
+                throw aborted(abortCause);
+            }
+            batches.addLast(batch);
+            queuedBytes += footprint;
+            peakBytes = Math.max(peakBytes, queuedBytes);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LineBatch take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (batches.isEmpty() && !closed) {
+                long begin = System.nanoTime();
+                while (batches.isEmpty() && !closed) {
+                    notEmpty.await();
+                }
+                pollWaitNanos += System.nanoTime() - begin;
+            }
+            if (batches.isEmpty()) {
+                return null;
+            }
+            LineBatch batch = batches.removeFirst();
+            queuedBytes -= batch.footprint();
+            // waiting producers may need different amounts of room
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void abort(Throwable cause) {
+        lock.lock();
+        try {
+            abortCause = cause;
+            closed = true;
+            batches.clear();
+            queuedBytes = 0;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Batches are left to the garbage collector, their count is not bounded here
+     */
+    @Override
+    public void release(LineBatch batch) {
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return batches.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double fill() {
+        lock.lock();
+        try {
+            return Math.min(1.0, (double) queuedBytes / budgetBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long consumerWaitNanos() {
+        lock.lock();
+        try {
+            return pollWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void printStats() {
+        lock.lock();
+        try {
+            System.out.println(" ... lines queue : producers blocked " + TimeUnit.NANOSECONDS.toMillis(putBlockedNanos)
+                    + " ms (" + putBlocks + " times), consumers waited " + TimeUnit.NANOSECONDS.toMillis(pollWaitNanos)
+                    + " ms, peak " + (peakBytes >> 10) + " KB of " + (budgetBytes >> 10) + " KB");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static CancellationException aborted(Throwable cause) {
+        CancellationException e = new CancellationException("lines queue aborted: " + cause);
+        e.initCause(cause);
+        return e;
+    }
+
+    private boolean fits(long footprint) {
+        return queuedBytes == 0 || queuedBytes + footprint <= budgetBytes;
+    }
+}
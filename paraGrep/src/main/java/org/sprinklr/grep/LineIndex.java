@@ -0,0 +1,298 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Sparse line index of a file, for -ln and -lb: the byte offset of every CHECKPOINT_LINES-th line, so the offset of
+ * any line, or the line holding any byte, is a binary search plus a count of fewer than CHECKPOINT_LINES lines from
+ * the checkpoint before it, instead of a count from the start of the file.
+ * Kept next to the file as a sidecar, <file>.lidx, with the size and modification time of the file it was built from;
+ * a sidecar that does not match them is rebuilt. Building is a single pass over memory mapped ranges of the file,
+ * counted in parallel: each range numbers the lines starting in it from its own first one and keeps every
+ * CHECKPOINT_LINES-th, offset once the ranges before it are counted.
+ * Lines are counted as the MappedLineScanner does, so the line numbers agree with those printed by a search
+ */
+public class LineIndex {
+    static int CHECKPOINT_LINES = 4096;
+    static int RANGE_BYTES = 64 * 1024 * 1024;
+    private static final int MAGIC = 0x4C494458; // "LIDX"
+
+    private final long lines;
+    private final long[] lineNumbers;
+    private final long[] offsets;
+    private final boolean built;
+
+    private LineIndex(long lines, long[] lineNumbers, long[] offsets, boolean built) {
+        this.lines = lines;
+        this.lineNumbers = lineNumbers;
+        this.offsets = offsets;
+        this.built = built;
+    }
+
+    /**
+     * Reads the sidecar of the file, building (and saving) it if there is none or the file changed since
+     *
+     * @param file
+     * @return the index
+     * @throws IOException
+     */
+    public static LineIndex open(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Path sidecar = file.resolveSibling(file.getFileName() + ".lidx");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar), 1 << 16))) {
+            if (in.readInt() == MAGIC && in.readLong() == size && in.readLong() == modified) {
+                long lines = in.readLong();
+                int count = in.readInt();
+                long[] lineNumbers = new long[count];
+                long[] offsets = new long[count];
+                for (int i = 0; i < count; i++) {
+                    lineNumbers[i] = in.readLong();
+                    offsets[i] = in.readLong();
+                }
+                return new LineIndex(lines, lineNumbers, offsets, false);
+            }
+        } catch (NoSuchFileException e) {
+            // built below
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        LineIndex index = build(file, size);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(index.lines);
+            out.writeInt(index.offsets.length);
+            for (int i = 0; i < index.offsets.length; i++) {
+                out.writeLong(index.lineNumbers[i]);
+                out.writeLong(index.offsets[i]);
+            }
+        } catch (IOException e) {
+            // the index is still used for this run
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * @return number of lines of the file
+     */
+    public long lines() {
+        return lines;
+    }
+
+    /**
+     * @param channel the file
+     * @param line line number, from 1
+     * @return offset of the first byte of the line, -1 if the file has no such line
+     * @throws IOException
+     */
+    public long offsetOf(FileChannel channel, long line) throws IOException {
+        if (line < 1 || line > lines) {
+            return -1;
+        }
+        int checkpoint = floor(lineNumbers, line);
+        long position = offsets[checkpoint];
+        long skip = line - lineNumbers[checkpoint];
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        byte[] bytes = buffer.array();
+        while (skip > 0) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < read && skip > 0; i++) {
+                if (bytes[i] == '\n') {
+                    skip--;
+                    if (skip == 0) {
+                        return position + i + 1;
+                    }
+                }
+            }
+            position += read;
+        }
+        return position;
+    }
+
+    /**
+     * @param channel the file
+     * @param offset
+     * @return number of the line holding the byte at the offset, 0 if the offset is past the end of the file
+     * @throws IOException
+     */
+    public long lineAt(FileChannel channel, long offset) throws IOException {
+        if (offset < 0 || offset >= channel.size() || offsets.length == 0) {
+            return 0;
+        }
+        int checkpoint = floor(offsets, offset);
+        long line = lineNumbers[checkpoint];
+        long position = offsets[checkpoint];
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        byte[] bytes = buffer.array();
+        while (position < offset) {
+            buffer.clear();
+            buffer.limit((int) Math.min(bytes.length, offset - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    line++;
+                }
+            }
+            position += read;
+        }
+        return line;
+    }
+
+    /**
+     * Reads lines as the MappedLineScanner splits them, decoded with the charset the search uses
+     *
+     * @param channel the file
+     * @param first number of the first line
+     * @param count number of lines
+     * @return the lines, fewer if the file ends before
+     * @throws IOException
+     */
+    public List<String> lines(FileChannel channel, long first, int count) throws IOException {
+        List<String> read = new ArrayList<>(count);
+        long position = offsetOf(channel, first);
+        if (position < 0) {
+            return read;
+        }
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(position)), 1 << 16);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while (read.size() < count && (b = in.read()) >= 0) {
+            if (b == '\n') {
+                read.add(decode(line));
+            } else {
+                line.write(b);
+            }
+        }
+        if (read.size() < count && line.size() > 0) {
+            read.add(decode(line));
+        }
+        return read;
+    }
+
+    @Override
+    public String toString() {
+        return lines + " lines, " + offsets.length + " checkpoints, " + (built ? "built" : "read from the sidecar");
+    }
+
+    private static String decode(ByteArrayOutputStream line) {
+        byte[] bytes = line.toByteArray();
+        line.reset();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, ParallelFileReader.CHARSET);
+    }
+
+    /**
+     * @return index of the last value not above the key, 0 if there is none
+     */
+    private static int floor(long[] values, long key) {
+        int found = Arrays.binarySearch(values, key);
+        return found >= 0 ? found : Math.max(0, -found - 2);
+    }
+
+    private static LineIndex build(Path file, long size) throws IOException {
+        int ranges = (int) Math.max(1, (size + RANGE_BYTES - 1) / RANGE_BYTES);
+        List<Callable<Range>> counts = new ArrayList<>(ranges);
+        try (FileChannel channel = FileChannel.open(file)) {
+            for (int r = 0; r < ranges; r++) {
+                long start = (long) r * RANGE_BYTES;
+                counts.add(() -> Range.count(channel, start, Math.min(start + RANGE_BYTES, size), size));
+            }
+            ForkJoinPool pool = new ForkJoinPool(ParallelFileReader.WORKERS);
+            try {
+                long lines = 0;
+                List<Long> lineNumbers = new ArrayList<>();
+                List<Long> offsets = new ArrayList<>();
+                for (Future<Range> counted : pool.invokeAll(counts)) {
+                    Range range = counted.get();
+                    for (int i = 0; i < range.checkpoints; i++) {
+                        lineNumbers.add(lines + range.localLines[i] + 1);
+                        offsets.add(range.offsets[i]);
+                    }
+                    lines += range.lines;
+                }
+                return new LineIndex(lines, lineNumbers.stream().mapToLong(Long::longValue).toArray(),
+                        offsets.stream().mapToLong(Long::longValue).toArray(), true);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Lines starting in a range of the file: a line starts at 0 and after every newline but one ending the file,
+     * and belongs to the range of that newline
+     */
+    private static class Range {
+        private long lines;
+        private int checkpoints;
+        private long[] localLines = new long[16];
+        private long[] offsets = new long[16];
+
+        static Range count(FileChannel channel, long start, long end, long size) throws IOException {
+            Range range = new Range();
+            if (start == 0 && size > 0) {
+                range.lineStarts(0);
+            }
+            if (end <= start) {
+                return range;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int length = (int) (end - start);
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == '\n' && start + i + 1 < size) {
+                    range.lineStarts(start + i + 1);
+                }
+            }
+            return range;
+        }
+
+        private void lineStarts(long offset) {
+            if (lines % CHECKPOINT_LINES == 0) {
+                if (checkpoints == offsets.length) {
+                    localLines = Arrays.copyOf(localLines, checkpoints * 2);
+                    offsets = Arrays.copyOf(offsets, checkpoints * 2);
+                }
+                localLines[checkpoints] = lines;
+                offsets[checkpoints++] = offset;
+            }
+            lines++;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.sprinklr.grep;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the matches of all the patterns in a line, in the same order as running
+ * "for each pattern: while (matcher.find())" over the line.
+ * With several patterns, the plain literal ones and the required literals of the others are searched together
+ * with a single Aho-Corasick scan; literal patterns take their matches straight from it and only the
+ * remaining patterns whose literal occurs in the line are run through java.util.regex.
+ * Not thread safe, every thread works on its own copy()
+ */
+public class LineMatcher implements RegexEngine {
+    static int MIN_PATTERNS_FOR_AUTOMATON = 2;
+
+    private final List<Pattern> regexPatterns;
+    private final LiteralPrefilter prefilter;
+    private final boolean[] exact;
+    private final boolean[] inAutomaton;
+    private final AhoCorasick automaton;
+
+    private final Matcher[] matchers;
+    private final int[] lastEnd;
+    private final MatchHits hits = new MatchHits();
+    private final MatchHits literalHits = new MatchHits();
+
+    /**
+     * @param regexPatterns
+     */
+    public LineMatcher(List<Pattern> regexPatterns) {
+        int n = regexPatterns.size();
+        this.regexPatterns = regexPatterns;
+        this.prefilter = LiteralPrefilter.of(regexPatterns);
+        this.exact = new boolean[n];
+        this.inAutomaton = new boolean[n];
+
+        String[] literals = new String[n];
+        int[] patternIds = new int[n];
+        int count = 0;
+        int caseInsensitive = 0;
+        for (int i = 0; i < n; i++) {
+            Pattern pattern = regexPatterns.get(i);
+            boolean ignoreCase = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+            String literal = LiteralPrefilter.exactLiteral(pattern);
+            exact[i] = literal != null;
+            if (literal == null) {
+                literal = prefilter.literal(i);
+            } else if (ignoreCase) {
+                literal = LiteralPrefilter.foldAscii(literal);
+            }
+            if (literal == null) {
+                continue;
+            }
+            inAutomaton[i] = true;
+            literals[count] = literal;
+            patternIds[count] = i;
+            count++;
+            if (ignoreCase) {
+                caseInsensitive++;
+            }
+        }
+
+        boolean sameCase = caseInsensitive == 0 || caseInsensitive == count;
+        if (count >= MIN_PATTERNS_FOR_AUTOMATON && sameCase) {
+            this.automaton = new AhoCorasick(Arrays.copyOf(literals, count), Arrays.copyOf(patternIds, count), caseInsensitive > 0);
+        } else {
+            this.automaton = null;
+            Arrays.fill(inAutomaton, false);
+        }
+
+        this.matchers = newMatchers(regexPatterns);
+        this.lastEnd = new int[n];
+    }
+
+    /**
+     * Shares the compiled state of the prototype, with fresh per thread buffers
+     */
+    private LineMatcher(LineMatcher prototype) {
+        this.regexPatterns = prototype.regexPatterns;
+        this.prefilter = prototype.prefilter;
+        this.exact = prototype.exact;
+        this.inAutomaton = prototype.inAutomaton;
+        this.automaton = prototype.automaton;
+        this.matchers = newMatchers(regexPatterns);
+        this.lastEnd = new int[regexPatterns.size()];
+    }
+
+    @Override
+    public LineMatcher copy() {
+        return new LineMatcher(this);
+    }
+
+    @Override
+    public MatchHits findAll(String line) {
+        return findAll(line, null);
+    }
+
+    /**
+     * Finds every match of the candidate patterns in the line.
+     *
+     * @param line
+     * @param candidates patterns to search, null for all; the others are taken not to match
+     * @return the matches ordered by pattern, then by position; the buffer is reused by the next call
+     */
+    public MatchHits findAll(String line, boolean[] candidates) {
+        hits.clear();
+        if (automaton != null) {
+            literalHits.clear();
+            automaton.findAll(line, literalHits, lastEnd);
+            literalHits.sortByPattern();
+        }
+
+        int h = 0;
+        for (int i = 0; i < regexPatterns.size(); i++) {
+            if (inAutomaton[i]) {
+                int first = h;
+                while (h < literalHits.size() && literalHits.pattern(h) == i) {
+                    h++;
+                }
+                if (h == first || (candidates != null && !candidates[i])) {
+                    continue;
+                }
+                if (exact[i]) {
+                    for (int k = first; k < h; k++) {
+                        hits.add(i, literalHits.start(k), literalHits.end(k));
+                    }
+                    continue;
+                }
+            } else if (candidates != null && !candidates[i]) {
+                continue;
+            } else if (!prefilter.mayMatch(i, line)) {
+                continue;
+            }
+            Matcher matcher = matchers[i].reset(line);
+            while (matcher.find()) {
+                hits.add(i, matcher.start(), matcher.end());
+            }
+        }
+        return hits;
+    }
+
+    @Override
+    public boolean find(int patternIndex, String line) {
+        if (!prefilter.mayMatch(patternIndex, line)) {
+            return false;
+        }
+        if (exact[patternIndex] && prefilter.literal(patternIndex) != null) {
+            return true;
+        }
+        return matchers[patternIndex].reset(line).find();
+    }
+
+    @Override
+    public boolean findAny(String line) {
+        for (int i = 0; i < regexPatterns.size(); i++) {
+            if (find(i, line)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Matcher[] newMatchers(List<Pattern> regexPatterns) {
+        Matcher[] matchers = new Matcher[regexPatterns.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = regexPatterns.get(i).matcher("");
+        }
+        return matchers;
+    }
+}
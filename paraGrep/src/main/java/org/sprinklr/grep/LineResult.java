@@ -13,18 +13,21 @@ public class LineResult {
     int blockNumber;
 
 
+    /**
+     * The line number is within the whole file only once the OrderedSink offset it
+     */
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("LineResult{");
+        sb.append("LineResult : {");
         if (lineNumber != null) {
             sb.append("lineNumber=").append(lineNumber).append(", ");
         }
-        if (pattern != null) {
-            sb.append("pattern='").append(pattern).append("', ");
-        }
         if (line != null) {
-            sb.append("line='").append(line).append("'");
+            sb.append("line=").append(line).append(", ");
+        }
+        if (pattern != null) {
+            sb.append("pattern=").append(pattern);
         }
         sb.append("}");
         return sb.toString();
@@ -60,6 +63,13 @@ public class LineResult {
             this.options = options;
         }
 
+        /**
+         * @return true if the results built keep the matched text
+         */
+        public boolean showsLines() {
+            return options.showLines;
+        }
+
         public LineResult build(Long lineNumber,int blNo ,String line, Pattern pattern) {
             if (options.showLineNumbers && options.showLines && options.showPattern) {
                 return new LineResult(lineNumber, line, pattern, blNo);
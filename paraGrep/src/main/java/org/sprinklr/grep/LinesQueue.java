@@ -0,0 +1,85 @@
+package org.sprinklr.grep;
+
+/**
+ * Transport of line batches from the producers to the consumers.
+ * Producers fill the batches they get from newBatch() and put() them, consumers take() them and release() them
+ * once matched, so an implementation may hand the same batch objects around instead of allocating new ones.
+ * The last producer closes the queue, consumers stop once it is drained
+ */
+public interface LinesQueue {
+
+    /**
+     * @param blockNumber block the lines of the batch come from
+     * @return an empty batch, recycled if one was released
+     */
+    LineBatch newBatch(int blockNumber);
+
+    /**
+     * Adds the batch, waiting while the queue is full
+     *
+     * @param batch
+     * @throws InterruptedException
+     * @throws java.util.concurrent.CancellationException once the queue is aborted
+     */
+    void put(LineBatch batch) throws InterruptedException;
+
+    /**
+     * Takes the oldest batch, waiting while the queue is empty and not closed
+     *
+     * @return the batch, or null once the queue is closed and drained, or aborted
+     * @throws InterruptedException
+     */
+    LineBatch take() throws InterruptedException;
+
+    /**
+     * Called by the last producer once its batches are put: consumers waiting on the empty queue are woken,
+     * and take() returns null to every consumer from then on
+     */
+    void close();
+
+    /**
+     * Called by a consumer stopping on an error: the batches queued are dropped, waiting threads are woken,
+     * take() returns null and put() throws from then on, so the producers do not block forever on a full queue
+     * the consumers no longer take from
+     *
+     * @param cause
+     */
+    void abort(Throwable cause);
+
+    /**
+     * Hands back a batch taken with take() once its lines are no longer used
+     *
+     * @param batch
+     */
+    void release(LineBatch batch);
+
+    boolean isEmpty();
+
+    /**
+     * @return how full the queue is, 0 to 1
+     */
+    double fill();
+
+    /**
+     * @return time consumers spent waiting on an empty queue so far, summed over the threads
+     */
+    long consumerWaitNanos();
+
+    /**
+     * Prints the time producers spent blocked on a full queue and consumers spent waiting on an empty one,
+     * summed over the threads; lots of the first means more consumers are needed, lots of the second more producers
+     */
+    void printStats();
+
+    /**
+     * @param options
+     * @return the queue selected by the options, -rb for the ring buffer
+     */
+    static LinesQueue create(MyOptions options) {
+        long budgetBytes = options.queueMemoryMb * 1024L * 1024L;
+        if (options.ringSlots > 0) {
+            return new RingLinesQueue(options.ringSlots, options.batchSize, budgetBytes, options.waitStrategy);
+        }
+        return new LineBatchQueue(budgetBytes, options.batchSize);
+    }
+}
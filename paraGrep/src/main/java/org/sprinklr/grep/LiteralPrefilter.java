@@ -0,0 +1,539 @@
+package org.sprinklr.grep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Prefilter that cheaply rejects lines which cannot match a pattern, before the pattern's regex is run.
+ * For every pattern the longest literal that all of its matches must contain is extracted (e.g. "ERROR" from "ERROR.*timeout")
+ * and searched for with Boyer-Moore-Horspool; a pattern without such a literal always passes and is left to the full regex.
+ */
+public class LiteralPrefilter {
+    private final String[] literals;
+    private final byte[][] literalBytes;
+    private final boolean[] ignoreCase;
+    private final int[][] shifts;
+    private final boolean allPatternsHaveLiteral;
+
+    /**
+     * Builds the prefilter for the given patterns, literal bytes are encoded with the default charset
+     *
+     * @param regexPatterns
+     * @return
+     */
+    public static LiteralPrefilter of(List<Pattern> regexPatterns) {
+        return new LiteralPrefilter(regexPatterns, Charset.defaultCharset());
+    }
+
+    /**
+     * @param regexPatterns
+     * @param charset charset the searched bytes are encoded in
+     */
+    public LiteralPrefilter(List<Pattern> regexPatterns, Charset charset) {
+        int n = regexPatterns.size();
+        this.literals = new String[n];
+        this.literalBytes = new byte[n][];
+        this.ignoreCase = new boolean[n];
+        this.shifts = new int[n][];
+
+        boolean all = n > 0;
+        for (int i = 0; i < n; i++) {
+            Pattern pattern = regexPatterns.get(i);
+            String literal = requiredLiteral(pattern);
+            boolean caseInsensitive = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+            if (literal != null && caseInsensitive && !isAscii(literal)) {
+                literal = null;
+            }
+            if (literal == null) {
+                all = false;
+                continue;
+            }
+            ignoreCase[i] = caseInsensitive;
+            literals[i] = caseInsensitive ? foldAscii(literal) : literal;
+            literalBytes[i] = literals[i].getBytes(charset);
+            shifts[i] = shiftTable(literalBytes[i], caseInsensitive);
+        }
+        this.allPatternsHaveLiteral = all;
+    }
+
+    /**
+     * @param patternIndex
+     * @return the literal every match of the pattern contains, null if none could be extracted
+     */
+    public String literal(int patternIndex) {
+        return literals[patternIndex];
+    }
+
+    /**
+     * @return true if some line can be rejected for all patterns at once, i.e. every pattern has a literal
+     */
+    public boolean canRejectLines() {
+        return allPatternsHaveLiteral;
+    }
+
+    /**
+     * @param patternIndex
+     * @param line
+     * @return false only if the pattern cannot match anywhere in the line
+     */
+    public boolean mayMatch(int patternIndex, String line) {
+        String literal = literals[patternIndex];
+        if (literal == null) {
+            return true;
+        }
+        if (!ignoreCase[patternIndex]) {
+            return line.indexOf(literal) >= 0;
+        }
+        return indexOfIgnoreCase(line, literal, shifts[patternIndex]) >= 0;
+    }
+
+    /**
+     * @param patternIndex
+     * @param buffer
+     * @param from index of the first byte of the line
+     * @param to index after the last byte of the line
+     * @return false only if the pattern cannot match anywhere in the encoded line
+     */
+    public boolean mayMatch(int patternIndex, ByteBuffer buffer, int from, int to) {
+        byte[] literal = literalBytes[patternIndex];
+        if (literal == null) {
+            return true;
+        }
+        return indexOf(buffer, from, to, literal, shifts[patternIndex], ignoreCase[patternIndex]) >= 0;
+    }
+
+    /**
+     * @param buffer
+     * @param from
+     * @param to
+     * @return false only if none of the patterns can match the encoded line, so it need not be decoded at all
+     */
+    public boolean mayMatchAny(ByteBuffer buffer, int from, int to) {
+        if (!allPatternsHaveLiteral) {
+            return true;
+        }
+        for (int i = 0; i < literalBytes.length; i++) {
+            if (mayMatch(i, buffer, from, to)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Extracts the longest literal run every match of the pattern must contain.
+     * Only the top level of the pattern is looked at: groups and character classes end a run,
+     * a top level alternation or an inline flag means there is no required literal.
+     *
+     * @param pattern
+     * @return the literal, or null if none could be extracted
+     */
+    static String requiredLiteral(Pattern pattern) {
+        int flags = pattern.flags();
+        String regex = pattern.pattern();
+        if ((flags & (Pattern.CANON_EQ | Pattern.UNICODE_CASE)) != 0) {
+            return null;
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            return regex.isEmpty() ? null : regex;
+        }
+        if ((flags & Pattern.COMMENTS) != 0) {
+            return null;
+        }
+
+        String best = null;
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '|') {
+                return null;
+            } else if (c == '(') {
+                if (i + 2 < n && regex.charAt(i + 1) == '?' && isInlineFlagGroup(regex, i + 2)) {
+                    return null;
+                }
+                best = longer(best, run);
+                i = skipQuantifier(regex, skipGroup(regex, i));
+            } else if (c == '[') {
+                best = longer(best, run);
+                i = skipQuantifier(regex, skipClass(regex, i));
+            } else if (c == '.' || c == '^' || c == '$') {
+                best = longer(best, run);
+                i = skipQuantifier(regex, i + 1);
+            } else if (c == '*' || c == '?' || c == '+' || (c == '{' && minRepeat(regex, i) >= 0)) {
+                // quantifier on the last literal char of the run
+                int end = skipQuantifier(regex, i);
+                if (c != '+' && !(c == '{' && minRepeat(regex, i) > 0)) {
+                    dropLastCodePoint(run);
+                }
+                best = longer(best, run);
+                i = end;
+            } else if (c == '\\') {
+                if (i + 1 >= n) {
+                    return null;
+                }
+                char e = regex.charAt(i + 1);
+                if (e == 'Q') {
+                    int close = regex.indexOf("\\E", i + 2);
+                    int quotedEnd = close < 0 ? n : close;
+                    run.append(regex, i + 2, quotedEnd);
+                    i = close < 0 ? n : close + 2;
+                } else if (escapedLiteral(e) != 0) {
+                    run.append(escapedLiteral(e));
+                    i += 2;
+                } else if (!Character.isLetterOrDigit(e)) {
+                    run.append(e);
+                    i += 2;
+                } else {
+                    // character class, back reference, boundary or a char escape not worth decoding
+                    best = longer(best, run);
+                    i = skipQuantifier(regex, skipEscape(regex, i));
+                }
+            } else {
+                run.append(c);
+                i++;
+            }
+        }
+        best = longer(best, run);
+        return best;
+    }
+
+    /**
+     * Recognises patterns that are nothing but a literal, so every match is exactly that literal
+     * (modulo ASCII case when the pattern is CASE_INSENSITIVE).
+     *
+     * @param pattern
+     * @return the literal, or null if the pattern uses any regex construct
+     */
+    static String exactLiteral(Pattern pattern) {
+        int flags = pattern.flags();
+        String regex = pattern.pattern();
+        if ((flags & (Pattern.CANON_EQ | Pattern.UNICODE_CASE)) != 0) {
+            return null;
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            return regex.isEmpty() ? null : regex;
+        }
+        if ((flags & Pattern.COMMENTS) != 0) {
+            return null;
+        }
+
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= n) {
+                    return null;
+                }
+                char e = regex.charAt(i + 1);
+                if (e == 'Q') {
+                    int close = regex.indexOf("\\E", i + 2);
+                    literal.append(regex, i + 2, close < 0 ? n : close);
+                    i = close < 0 ? n : close + 2;
+                } else if (escapedLiteral(e) != 0) {
+                    literal.append(escapedLiteral(e));
+                    i += 2;
+                } else if (!Character.isLetterOrDigit(e)) {
+                    literal.append(e);
+                    i += 2;
+                } else {
+                    return null;
+                }
+            } else if ("^$.|?*+()[]{}".indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        return literal.length() > 0 ? literal.toString() : null;
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        String candidate = run.length() > 0 ? run.toString() : null;
+        run.setLength(0);
+        if (candidate == null) {
+            return best;
+        }
+        return (best == null || candidate.length() > best.length()) ? candidate : best;
+    }
+
+    private static void dropLastCodePoint(StringBuilder run) {
+        if (run.length() == 0) {
+            return;
+        }
+        run.setLength(run.length() - 1);
+        if (run.length() > 0 && Character.isHighSurrogate(run.charAt(run.length() - 1))) {
+            run.setLength(run.length() - 1);
+        }
+    }
+
+    private static boolean isInlineFlagGroup(String regex, int i) {
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == ')') {
+                return true;
+            }
+            if (c != '-' && "idmsuxU".indexOf(c) < 0) {
+                return false;
+            }
+            i++;
+        }
+        return false;
+    }
+
+    private static char escapedLiteral(char e) {
+        switch (e) {
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return '\u0007';
+            case 'e': return '\u001B';
+            default: return 0;
+        }
+    }
+
+    /**
+     * @return index after the escape sequence starting at i
+     */
+    private static int skipEscape(String regex, int i) {
+        int n = regex.length();
+        char e = regex.charAt(i + 1);
+        int j = i + 2;
+        if ((e == 'p' || e == 'P' || e == 'x' || e == 'N') && j < n && regex.charAt(j) == '{') {
+            int close = regex.indexOf('}', j);
+            return close < 0 ? n : close + 1;
+        }
+        if (e == 'k' && j < n && regex.charAt(j) == '<') {
+            int close = regex.indexOf('>', j);
+            return close < 0 ? n : close + 1;
+        }
+        if (e == 'p' || e == 'P' || e == 'c') {
+            return Math.min(j + 1, n);
+        }
+        if (e == 'x') {
+            return Math.min(j + 2, n);
+        }
+        if (e == 'u') {
+            return Math.min(j + 4, n);
+        }
+        if (e == '0') {
+            int k = j;
+            while (k < n && k < j + 3 && regex.charAt(k) >= '0' && regex.charAt(k) <= '7') {
+                k++;
+            }
+            return k;
+        }
+        if (Character.isDigit(e)) {
+            int k = j;
+            while (k < n && Character.isDigit(regex.charAt(k))) {
+                k++;
+            }
+            return k;
+        }
+        return j;
+    }
+
+    /**
+     * @return index after the group starting with '(' at i
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < n && regex.charAt(i + 1) == 'Q') {
+                    int close = regex.indexOf("\\E", i + 2);
+                    i = close < 0 ? n : close + 2;
+                } else {
+                    i += 2;
+                }
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return n;
+    }
+
+    /**
+     * @return index after the character class starting with '[' at i
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        int n = regex.length();
+        boolean first = false;
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                first = false;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                first = true;
+                i++;
+                if (i < n && regex.charAt(i) == '^') {
+                    i++;
+                }
+                continue;
+            }
+            if (c == ']' && !first) {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            first = false;
+            i++;
+        }
+        return n;
+    }
+
+    /**
+     * @return index after the quantifier (and its lazy/possessive suffix) at i, i itself if there is none
+     */
+    private static int skipQuantifier(String regex, int i) {
+        int n = regex.length();
+        if (i >= n) {
+            return i;
+        }
+        char c = regex.charAt(i);
+        int j;
+        if (c == '*' || c == '+' || c == '?') {
+            j = i + 1;
+        } else if (c == '{' && minRepeat(regex, i) >= 0) {
+            j = regex.indexOf('}', i) + 1;
+        } else {
+            return i;
+        }
+        if (j < n && (regex.charAt(j) == '?' || regex.charAt(j) == '+')) {
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * @return the minimum of the {n,m} quantifier at i, -1 if it is not a valid quantifier
+     */
+    private static int minRepeat(String regex, int i) {
+        int close = regex.indexOf('}', i);
+        if (close < 0) {
+            return -1;
+        }
+        String body = regex.substring(i + 1, close);
+        int comma = body.indexOf(',');
+        String min = comma < 0 ? body : body.substring(0, comma);
+        try {
+            return Integer.parseInt(min.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String foldAscii(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            sb.append((char) foldAscii(s.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    static int foldAscii(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Boyer-Moore-Horspool bad character table, indexed by the low byte of the (folded) character
+     */
+    private static int[] shiftTable(byte[] literal, boolean caseInsensitive) {
+        int m = literal.length;
+        int[] shift = new int[256];
+        Arrays.fill(shift, m);
+        for (int j = 0; j < m - 1; j++) {
+            int b = literal[j] & 0xFF;
+            shift[caseInsensitive ? foldAscii(b) : b] = m - 1 - j;
+        }
+        return shift;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte[] literal, int[] shift, boolean caseInsensitive) {
+        int m = literal.length;
+        int last = m - 1;
+        int i = from;
+        while (i + last < to) {
+            int b = buffer.get(i + last) & 0xFF;
+            if (caseInsensitive) {
+                b = foldAscii(b);
+            }
+            if (b == (literal[last] & 0xFF)) {
+                int j = last - 1;
+                while (j >= 0) {
+                    int x = buffer.get(i + j) & 0xFF;
+                    if (caseInsensitive) {
+                        x = foldAscii(x);
+                    }
+                    if (x != (literal[j] & 0xFF)) {
+                        break;
+                    }
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shift[b];
+        }
+        return -1;
+    }
+
+    private static int indexOfIgnoreCase(String line, String literal, int[] shift) {
+        int m = literal.length();
+        int last = m - 1;
+        int n = line.length();
+        int i = 0;
+        while (i + last < n) {
+            int c = foldAscii(line.charAt(i + last));
+            if (c == literal.charAt(last)) {
+                int j = last - 1;
+                while (j >= 0 && foldAscii(line.charAt(i + j)) == literal.charAt(j)) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shift[c & 0xFF];
+        }
+        return -1;
+    }
+}
@@ -1,4 +1,6 @@
 package org.sprinklr.grep;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -7,8 +9,6 @@ import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-import static java.lang.Thread.sleep;
-
 /**
  * Main class takes input from the commmand line and instantiates the paraGrep(producer-consumer in a file) object to search
  */
@@ -19,7 +19,7 @@ public class Main {
     static String ANSI_RESET = "\u001B[0m";
     static String ANSI_PURPLE = "\u001B[35m";
 
-    public static void main(String[] args) throws ExecutionException, InterruptedException {
+    public static void main(String[] args) throws ExecutionException, InterruptedException, IOException {
         String pwd = System.getProperty("user.dir");
         if(args.length<2){
             System.err.println("Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [ -c | -n | -l |  ] ");
@@ -85,6 +85,109 @@ public class Main {
                     //only count
                     options.add("-c");
                     break;
+                case "-cl":
+                    //only count the lines that match, each line once however many matches it has
+                    options.add("-cl");
+                    break;
+                case "-re":
+                    //regex engine used to match the patterns
+                    options.add("-re");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-mm":
+                    //scan the file through memory mapped windows
+                    options.add("-mm");
+                    break;
+                case "-ws":
+                    //small chunks shared out to work stealing threads that read and match them
+                    options.add("-ws");
+                    break;
+                case "-ln":
+                    //prints the line of the given number instead of searching, found through the line index of the file
+                    options.add("-ln");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-lb":
+                    //prints the line holding the given byte offset instead of searching
+                    options.add("-lb");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-C":
+                    //lines of context printed before and after the line of -ln or -lb
+                    options.add("-C");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-cs":
+                    //chunk size in MB for -ws
+                    options.add("-cs");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-bs":
+                    //lines handed from producers to consumers at a time
+                    options.add("-bs");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-o":
+                    //file the matches are written to instead of stdout
+                    options.add("-o");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-sm":
+                    //memory the matches held until the blocks before them are printed may take before they are spilled to a temp file, in MB
+                    options.add("-sm");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-qm":
+                    //memory the lines queue may hold before producers block, in MB
+                    options.add("-qm");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-rb":
+                    //lock free ring of the given number of slots as the lines queue
+                    options.add("-rb");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-pt":
+                    //number of producer threads, sized from the input if not given
+                    options.add("-pt");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-ct":
+                    //number of consumer threads, sized from the input if not given
+                    options.add("-ct");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
+                case "-wt":
+                    //how threads wait on a full or empty ring
+                    options.add("-wt");
+                    if (i + 1 < args.length) {
+                        options.add(args[++i]);
+                    }
+                    break;
                 default:
                     System.err.println(ANSI_RED+"Usage : Grep.java -p <pattern1> <pattern2> ... -f <file1> <file2> ..  [-c | -n | -v ] ");
                     System.err.println("... unknown option " + args[i] + "  ignoring... "+ANSI_RESET);
@@ -110,6 +213,11 @@ public class Main {
 
         MyOptions myOptions=new MyOptions(options);
 
+        if(myOptions.shownLine > 0 || myOptions.shownOffset >= 0) {
+            showLines(myOptions, myFileToSearch);
+            return;
+        }
+
         List<Pattern> patternsToPass=new ArrayList<>();
         if(myOptions.caseInsensitive){
             System.out.println("making patterns in insensitive");
@@ -122,27 +230,51 @@ public class Main {
             }
         }
 
-        ParallelFileReader myFileReader = new ParallelFileReader(myOptions,10,10,myFileToSearch,patternsToPass);
+        ParallelFileReader myFileReader = new ParallelFileReader(myOptions,myOptions.producerThreads,myOptions.consumerThreads,myFileToSearch,patternsToPass);
         long beginTime=System.currentTimeMillis();
         myFileReader.execute();
         long endTime=System.currentTimeMillis();
 
-        try {
-            sleep(1000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-
-        if(!myOptions.onlyCountLines) {
-            myFileReader.printResults();
-        }
+        myFileReader.grepResult.finish();
 
         System.out.println(ANSI_GREEN);
         myFileReader.grepResult.printCount();
         System.out.print(ANSI_RESET);
 
         System.out.println(ANSI_YELLOW+" ... ParallelFileReader took " + (endTime-beginTime) + " ms"+ANSI_RESET);
+        if(myFileReader.orderedResult != null) {
+            System.out.println(" ... reorder buffer : peak " + myFileReader.orderedResult.peakBuffered() + " matches");
+            System.out.println(" ... spilled : " + myFileReader.orderedResult.getSpill());
+            myFileReader.orderedResult.getSpill().close();
+        }
+        if(!myOptions.workStealing) {
+            System.out.println(" ... threads : " + myFileReader.sizing);
+            System.out.println(" ... rebalanced : " + myFileReader.rebalancer);
+            myFileReader.linesQueue.printStats();
+        }
     }
-}
-
 
+    /**
+     * Prints the line asked for with -ln or -lb and its -C lines of context, grep style: "N:line" for the line,
+     * "N-line" for the context; the line is found through the sidecar line index, built first if the file has none
+     */
+    private static void showLines(MyOptions myOptions, String file) throws IOException {
+        long beginTime=System.currentTimeMillis();
+        LineIndex lineIndex = LineIndex.open(Paths.get(file));
+        try (FileChannel channel = FileChannel.open(Paths.get(file))) {
+            long line = myOptions.shownLine > 0 ? myOptions.shownLine : lineIndex.lineAt(channel, myOptions.shownOffset);
+            if (line < 1 || line > lineIndex.lines()) {
+                System.err.println(ANSI_RED + "No such line, the file has " + lineIndex.lines() + " lines" + ANSI_RESET);
+                return;
+            }
+            long first = Math.max(1, line - myOptions.contextLines);
+            List<String> shown = lineIndex.lines(channel, first, (int) (line + myOptions.contextLines - first + 1));
+            for (int i = 0; i < shown.size(); i++) {
+                System.out.println((first + i) + (first + i == line ? ":" : "-") + shown.get(i));
+            }
+        }
+        long endTime=System.currentTimeMillis();
+        System.out.println(ANSI_YELLOW+" ... line index took " + (endTime-beginTime) + " ms"+ANSI_RESET);
+        System.out.println(" ... line index : " + lineIndex);
+    }
+}
@@ -0,0 +1,99 @@
+package org.sprinklr.grep;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Scans the lines of a byte range of a file directly from memory mapped windows.
+ * A window is remapped at the start of the first incomplete line, so ranges (and files) above 2GB are handled
+ * and a line is always handed over as one contiguous slice of a single buffer.
+ */
+public class MappedLineScanner {
+    static int MAP_WINDOW = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+
+    /**
+     * Callback invoked for every line found in the range
+     */
+    interface LineVisitor {
+        /**
+         * @param buffer the mapped window holding the line
+         * @param from index of the first byte of the line in the buffer
+         * @param to index after the last byte of the line, line terminator excluded
+         */
+        void visit(MappedByteBuffer buffer, int from, int to) throws InterruptedException;
+    }
+
+    /**
+     * @param channel
+     * @param start first byte of the range
+     * @param end byte after the last byte of the range
+     */
+    public MappedLineScanner(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Hands every line of the range to the visitor, in file order.
+     *
+     * @param visitor
+     * @return The number of lines scanned
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long scan(LineVisitor visitor) throws IOException, InterruptedException {
+        long lines = 0;
+        long position = start;
+        long window = MAP_WINDOW;
+
+        while (position < end) {
+            int size = (int) Math.min(window, end - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+            int lineStart = 0;
+            for (int i = 0; i < size; i++) {
+                if (buffer.get(i) == '\n') {
+                    visitor.visit(buffer, lineStart, stripCarriageReturn(buffer, lineStart, i));
+                    ++lines;
+                    lineStart = i + 1;
+                }
+            }
+
+            if (position + size == end) {
+                if (lineStart < size) {
+                    visitor.visit(buffer, lineStart, stripCarriageReturn(buffer, lineStart, size));
+                    ++lines;
+                }
+                break;
+            }
+
+            if (lineStart == 0) {
+                // a single line is longer than the window, grow it and map again from the same position
+                if (window >= Integer.MAX_VALUE) {
+                    throw new IOException("line at byte " + position + " is longer than " + Integer.MAX_VALUE + " bytes");
+                }
+                window = Math.min(window * 2, Integer.MAX_VALUE);
+            } else {
+                window = MAP_WINDOW;
+                position += lineStart;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return the end of the line with a trailing '\r' (of a "\r\n" terminator) removed
+     */
+    private static int stripCarriageReturn(MappedByteBuffer buffer, int from, int to) {
+        if (to > from && buffer.get(to - 1) == '\r') {
+            return to - 1;
+        }
+        return to;
+    }
+}
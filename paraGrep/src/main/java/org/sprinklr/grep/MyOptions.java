@@ -7,20 +7,122 @@ import java.util.List;
  */
 public class MyOptions {
     final boolean onlyCountLines;
+    final boolean countLines;
     final boolean caseInsensitive;
     final boolean showLineNumbers;
     final boolean showLines;
     final boolean showPattern;
+    final String regexEngine;
+    final boolean memoryMapped;
+    final boolean workStealing;
+    final int chunkSizeMb;
+    final int batchSize;
+    final int queueMemoryMb;
+    final int ringSlots;
+    final long spillMemoryMb;
+    final String waitStrategy;
+    final int producerThreads;
+    final int consumerThreads;
+    final String outputFile;
+    final long shownLine;
+    final long shownOffset;
+    final int contextLines;
 
     public MyOptions(List<String> options){
-        this.onlyCountLines = options.contains("-c");
+        this.countLines = options.contains("-cl");
+        this.onlyCountLines = options.contains("-c") || countLines;
         this.showLineNumbers = options.contains("-n");
         this.showLines = options.contains("-l");
         this.caseInsensitive = options.contains("-i");
         this.showPattern = options.contains("-sp");
+        this.memoryMapped = options.contains("-mm");
+        this.regexEngine = valueOf(options, "-re", "auto");
+        this.workStealing = options.contains("-ws");
+        try {
+            this.chunkSizeMb = Integer.parseInt(valueOf(options, "-cs", "8"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-cs must be a chunk size in MB");
+        }
+        try {
+            this.shownLine = Long.parseLong(valueOf(options, "-ln", "0"));
+            this.shownOffset = Long.parseLong(valueOf(options, "-lb", "-1"));
+            this.contextLines = Integer.parseInt(valueOf(options, "-C", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-ln must be a line number, -lb a byte offset and -C a number of lines");
+        }
+        try {
+            this.batchSize = Integer.parseInt(valueOf(options, "-bs", "1024"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-bs must be a number of lines");
+        }
+        try {
+            this.queueMemoryMb = Integer.parseInt(valueOf(options, "-qm", "64"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-qm must be a memory budget in MB");
+        }
+        try {
+            // a quarter of the heap by default
+            this.spillMemoryMb = Long.parseLong(valueOf(options, "-sm", String.valueOf(Runtime.getRuntime().maxMemory() >> 22)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-sm must be a memory budget in MB");
+        }
+        try {
+            this.ringSlots = Integer.parseInt(valueOf(options, "-rb", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-rb must be a number of slots");
+        }
+        this.waitStrategy = valueOf(options, "-wt", "park");
+        this.outputFile = valueOf(options, "-o", null);
+        try {
+            this.producerThreads = Integer.parseInt(valueOf(options, "-pt", "0"));
+            this.consumerThreads = Integer.parseInt(valueOf(options, "-ct", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("-pt and -ct must be numbers of threads");
+        }
 
+        if( !regexEngine.equals("auto") && !regexEngine.equals("dfa") ){
+            throw new IllegalArgumentException("-re must be one of [ auto | dfa ]");
+        }
+        if( chunkSizeMb <= 0 ){
+            throw new IllegalArgumentException("-cs must be a chunk size in MB");
+        }
+        if( batchSize <= 0 ){
+            throw new IllegalArgumentException("-bs must be a number of lines");
+        }
+        if( shownLine < 0 || shownOffset < -1 || contextLines < 0 ){
+            throw new IllegalArgumentException("-ln must be a line number, -lb a byte offset and -C a number of lines");
+        }
+        if( shownLine > 0 && shownOffset >= 0 ){
+            throw new IllegalArgumentException("-ln and -lb cannot be used together");
+        }
+        if( queueMemoryMb <= 0 ){
+            throw new IllegalArgumentException("-qm must be a memory budget in MB");
+        }
+        if( spillMemoryMb <= 0 ){
+            throw new IllegalArgumentException("-sm must be a memory budget in MB");
+        }
+        if( ringSlots < 0 ){
+            throw new IllegalArgumentException("-rb must be a number of slots");
+        }
+        if( !waitStrategy.equals("spin") && !waitStrategy.equals("yield") && !waitStrategy.equals("park") ){
+            throw new IllegalArgumentException("-wt must be one of [ spin | yield | park ]");
+        }
+        if( producerThreads < 0 || consumerThreads < 0 ){
+            throw new IllegalArgumentException("-pt and -ct must be numbers of threads");
+        }
         if( onlyCountLines && ( showLines || showLineNumbers || showPattern)  ){
-            throw new IllegalArgumentException("-c cannot be used togther with [ -n | -l | -sp ]");
+            throw new IllegalArgumentException("-c and -cl cannot be used togther with [ -n | -l | -sp ]");
+        }
+    }
+
+    /**
+     * @return the value given right after the option, or the default if the option is absent
+     */
+    private static String valueOf(List<String> options, String option, String defaultValue) {
+        int index = options.indexOf(option);
+        if (index < 0 || index + 1 >= options.size()) {
+            return defaultValue;
         }
+        return options.get(index + 1);
     }
 }
@@ -0,0 +1,698 @@
+package org.sprinklr.grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Thompson NFA for the regular subset of java.util.regex: literals, character classes, '.', groups,
+ * alternation, greedy/lazy repetition and the ^ $ anchors. Several patterns share one NFA, each ending
+ * in its own MATCH state, so a DFA built over it follows all of them in a single pass.
+ * Everything else (back references, lookarounds, boundaries, possessive quantifiers, inline flags,
+ * supplementary characters...) is reported as unsupported and left to java.util.regex.
+ */
+final class Nfa {
+    static final int CHARS = 0;
+    static final int SPLIT = 1;
+    static final int EPSILON = 2;
+    static final int BOL = 3;
+    static final int EOL = 4;
+    static final int MATCH = 5;
+
+    static int MAX_STATES = 20000;
+
+    private static final int MAX_CHAR = 0xFFFF;
+    private static final int[] DIGIT = {'0', '9'};
+    private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+    private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+    private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+
+    int size;
+    int[] type = new int[64];
+    int[] out1 = new int[64];
+    int[] out2 = new int[64];
+    int[] arg = new int[64];
+    final List<int[]> charSets = new ArrayList<>();
+    final List<Integer> starts = new ArrayList<>();
+    boolean usesEol;
+
+    /**
+     * Thrown while parsing a construct outside the supported subset
+     */
+    static class UnsupportedPatternException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedPatternException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Adds a pattern to the NFA.
+     *
+     * @param pattern
+     * @param patternIndex reported by the pattern's MATCH state
+     * @return false if the pattern is outside the supported subset, the NFA is then left unchanged
+     */
+    boolean add(Pattern pattern, int patternIndex) {
+        int mark = size;
+        int setsMark = charSets.size();
+        boolean eolMark = usesEol;
+        try {
+            Node node = new Parser(pattern).parse();
+            int[] fragment = build(node);
+            int match = newState(MATCH, patternIndex);
+            out1[fragment[1]] = match;
+            starts.add(fragment[0]);
+            return true;
+        } catch (UnsupportedPatternException e) {
+            size = mark;
+            while (charSets.size() > setsMark) {
+                charSets.remove(charSets.size() - 1);
+            }
+            usesEol = eolMark;
+            return false;
+        }
+    }
+
+    /**
+     * @param setIndex
+     * @param c
+     * @return true if the char is in the char set
+     */
+    boolean contains(int setIndex, int c) {
+        int[] ranges = charSets.get(setIndex);
+        int lo = 0;
+        int hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < ranges[2 * mid]) {
+                hi = mid - 1;
+            } else if (c > ranges[2 * mid + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int newState(int stateType, int argument) throws UnsupportedPatternException {
+        if (size >= MAX_STATES) {
+            throw new UnsupportedPatternException("pattern too large");
+        }
+        if (size == type.length) {
+            type = Arrays.copyOf(type, size * 2);
+            out1 = Arrays.copyOf(out1, size * 2);
+            out2 = Arrays.copyOf(out2, size * 2);
+            arg = Arrays.copyOf(arg, size * 2);
+        }
+        type[size] = stateType;
+        out1[size] = -1;
+        out2[size] = -1;
+        arg[size] = argument;
+        return size++;
+    }
+
+    private int newState(int stateType) throws UnsupportedPatternException {
+        return newState(stateType, -1);
+    }
+
+    /**
+     * @return {start, end} of the fragment; end is an EPSILON state whose out1 the caller patches
+     */
+    private int[] build(Node node) throws UnsupportedPatternException {
+        if (node instanceof CharsNode) {
+            charSets.add(((CharsNode) node).ranges);
+            int s = newState(CHARS, charSets.size() - 1);
+            int e = newState(EPSILON);
+            out1[s] = e;
+            return new int[]{s, e};
+        }
+        if (node instanceof AssertNode) {
+            int kind = ((AssertNode) node).kind;
+            if (kind == EOL) {
+                usesEol = true;
+            }
+            int s = newState(kind);
+            int e = newState(EPSILON);
+            out1[s] = e;
+            return new int[]{s, e};
+        }
+        if (node instanceof ConcatNode) {
+            int s = newState(EPSILON);
+            int end = s;
+            for (Node child : ((ConcatNode) node).children) {
+                int[] fragment = build(child);
+                out1[end] = fragment[0];
+                end = fragment[1];
+            }
+            return new int[]{s, end};
+        }
+        if (node instanceof AltNode) {
+            List<Node> children = ((AltNode) node).children;
+            int e = newState(EPSILON);
+            int s = newState(EPSILON);
+            int from = s;
+            for (int i = 0; i < children.size(); i++) {
+                int[] fragment = build(children.get(i));
+                out1[fragment[1]] = e;
+                if (i == children.size() - 1) {
+                    out1[from] = fragment[0];
+                } else {
+                    int split = newState(SPLIT);
+                    out1[split] = fragment[0];
+                    out1[from] = split;
+                    int next = newState(EPSILON);
+                    out2[split] = next;
+                    from = next;
+                }
+            }
+            return new int[]{s, e};
+        }
+        RepeatNode repeat = (RepeatNode) node;
+        int s = newState(EPSILON);
+        int end = s;
+        for (int i = 0; i < repeat.min; i++) {
+            int[] fragment = build(repeat.child);
+            out1[end] = fragment[0];
+            end = fragment[1];
+        }
+        if (repeat.max < 0) {
+            int split = newState(SPLIT);
+            int e = newState(EPSILON);
+            int[] fragment = build(repeat.child);
+            out1[end] = split;
+            out1[split] = fragment[0];
+            out2[split] = e;
+            out1[fragment[1]] = split;
+            return new int[]{s, e};
+        }
+        int e = newState(EPSILON);
+        for (int i = repeat.min; i < repeat.max; i++) {
+            int split = newState(SPLIT);
+            int[] fragment = build(repeat.child);
+            out1[end] = split;
+            out1[split] = fragment[0];
+            out2[split] = e;
+            end = fragment[1];
+        }
+        out1[end] = e;
+        return new int[]{s, e};
+    }
+
+    private abstract static class Node {
+    }
+
+    private static class CharsNode extends Node {
+        final int[] ranges;
+
+        CharsNode(int[] ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    private static class AssertNode extends Node {
+        final int kind;
+
+        AssertNode(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    private static class ConcatNode extends Node {
+        final List<Node> children = new ArrayList<>();
+    }
+
+    private static class AltNode extends Node {
+        final List<Node> children = new ArrayList<>();
+    }
+
+    private static class RepeatNode extends Node {
+        final Node child;
+        final int min;
+        final int max;
+
+        RepeatNode(Node child, int min, int max) {
+            this.child = child;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Recursive descent parser from the pattern syntax to the Node tree
+     */
+    private static class Parser {
+        private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNIX_LINES | Pattern.LITERAL;
+
+        private final String regex;
+        private final boolean ignoreCase;
+        private final boolean dotAll;
+        private final boolean unixLines;
+        private final boolean literal;
+        private int pos;
+
+        Parser(Pattern pattern) throws UnsupportedPatternException {
+            int flags = pattern.flags();
+            if ((flags & ~SUPPORTED_FLAGS) != 0) {
+                throw new UnsupportedPatternException("flags");
+            }
+            this.regex = pattern.pattern();
+            this.ignoreCase = (flags & Pattern.CASE_INSENSITIVE) != 0;
+            this.dotAll = (flags & Pattern.DOTALL) != 0;
+            this.unixLines = (flags & Pattern.UNIX_LINES) != 0;
+            this.literal = (flags & Pattern.LITERAL) != 0;
+        }
+
+        Node parse() throws UnsupportedPatternException {
+            if (literal) {
+                ConcatNode concat = new ConcatNode();
+                for (int i = 0; i < regex.length(); i++) {
+                    concat.children.add(charNode(checkChar(regex.charAt(i))));
+                }
+                return concat;
+            }
+            Node node = parseAlternation();
+            if (pos != regex.length()) {
+                throw new UnsupportedPatternException("unbalanced )");
+            }
+            return node;
+        }
+
+        private Node parseAlternation() throws UnsupportedPatternException {
+            Node first = parseConcat();
+            if (pos >= regex.length() || regex.charAt(pos) != '|') {
+                return first;
+            }
+            AltNode alt = new AltNode();
+            alt.children.add(first);
+            while (pos < regex.length() && regex.charAt(pos) == '|') {
+                pos++;
+                alt.children.add(parseConcat());
+            }
+            return alt;
+        }
+
+        private Node parseConcat() throws UnsupportedPatternException {
+            ConcatNode concat = new ConcatNode();
+            while (pos < regex.length()) {
+                char c = regex.charAt(pos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                if (c == '\\' && pos + 1 < regex.length() && regex.charAt(pos + 1) == 'Q') {
+                    int close = regex.indexOf("\\E", pos + 2);
+                    int quotedEnd = close < 0 ? regex.length() : close;
+                    boolean quotedAny = quotedEnd > pos + 2;
+                    for (int i = pos + 2; i < quotedEnd; i++) {
+                        concat.children.add(charNode(checkChar(regex.charAt(i))));
+                    }
+                    pos = close < 0 ? regex.length() : close + 2;
+                    if (quotedAny) {
+                        // a quantifier right after \E applies to the last quoted char
+                        Node last = concat.children.remove(concat.children.size() - 1);
+                        concat.children.add(parseQuantifier(last));
+                    }
+                    continue;
+                }
+                concat.children.add(parseQuantifier(parseAtom()));
+            }
+            return concat;
+        }
+
+        private Node parseQuantifier(Node atom) throws UnsupportedPatternException {
+            if (pos >= regex.length()) {
+                return atom;
+            }
+            char c = regex.charAt(pos);
+            int min;
+            int max;
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                int close = regex.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedPatternException("{");
+                }
+                String body = regex.substring(pos + 1, close);
+                int comma = body.indexOf(',');
+                try {
+                    min = Integer.parseInt(comma < 0 ? body : body.substring(0, comma));
+                    if (comma < 0) {
+                        max = min;
+                    } else if (comma == body.length() - 1) {
+                        max = -1;
+                    } else {
+                        max = Integer.parseInt(body.substring(comma + 1));
+                    }
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedPatternException("{");
+                }
+                if (min > 1000 || max > 1000 || (max >= 0 && max < min)) {
+                    throw new UnsupportedPatternException("repetition too large");
+                }
+                pos = close + 1;
+            } else {
+                return atom;
+            }
+            if (pos < regex.length()) {
+                char suffix = regex.charAt(pos);
+                if (suffix == '?') {
+                    // lazy, matches the same lines as greedy
+                    pos++;
+                } else if (suffix == '+') {
+                    throw new UnsupportedPatternException("possessive quantifier");
+                }
+            }
+            if (pos < regex.length() && "*+?{".indexOf(regex.charAt(pos)) >= 0) {
+                throw new UnsupportedPatternException("stacked quantifiers");
+            }
+            if (containsAssertion(atom)) {
+                // java.util.regex stops looping on empty iterations, which anchors make observable
+                throw new UnsupportedPatternException("anchor inside a repetition");
+            }
+            return new RepeatNode(atom, min, max);
+        }
+
+        private Node parseAtom() throws UnsupportedPatternException {
+            char c = regex.charAt(pos);
+            switch (c) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    return new CharsNode(caseClosed(parseClass()));
+                case '.':
+                    pos++;
+                    if (dotAll) {
+                        return new CharsNode(new int[]{0, MAX_CHAR});
+                    }
+                    return new CharsNode(complement(unixLines ? new int[]{'\n', '\n'} : LINE_TERMINATORS));
+                case '^':
+                    pos++;
+                    return new AssertNode(BOL);
+                case '$':
+                    pos++;
+                    return new AssertNode(EOL);
+                case '\\':
+                    return new CharsNode(caseClosed(parseEscape(false)));
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedPatternException("dangling quantifier");
+                default:
+                    pos++;
+                    return charNode(checkChar(c));
+            }
+        }
+
+        private Node parseGroup() throws UnsupportedPatternException {
+            pos++;
+            if (pos < regex.length() && regex.charAt(pos) == '?') {
+                if (regex.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (regex.startsWith("?<", pos) && pos + 2 < regex.length() && Character.isLetter(regex.charAt(pos + 2))) {
+                    int close = regex.indexOf('>', pos);
+                    if (close < 0) {
+                        throw new UnsupportedPatternException("group name");
+                    }
+                    pos = close + 1;
+                } else {
+                    throw new UnsupportedPatternException("lookaround, atomic group or inline flag");
+                }
+            }
+            Node node = parseAlternation();
+            if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                throw new UnsupportedPatternException("unclosed group");
+            }
+            pos++;
+            return node;
+        }
+
+        /**
+         * @return the ranges of the class starting at '[', before case closure
+         */
+        private int[] parseClass() throws UnsupportedPatternException {
+            pos++;
+            boolean negate = false;
+            if (pos < regex.length() && regex.charAt(pos) == '^') {
+                negate = true;
+                pos++;
+            }
+            List<int[]> parts = new ArrayList<>();
+            while (true) {
+                if (pos >= regex.length()) {
+                    throw new UnsupportedPatternException("unclosed class");
+                }
+                char c = regex.charAt(pos);
+                if (c == ']') {
+                    if (parts.isEmpty()) {
+                        throw new UnsupportedPatternException("empty class");
+                    }
+                    pos++;
+                    break;
+                }
+                if (c == '[' || regex.startsWith("&&", pos)) {
+                    throw new UnsupportedPatternException("nested class or intersection");
+                }
+                int lo;
+                if (c == '\\') {
+                    int[] escaped = parseEscape(true);
+                    if (escaped.length != 2 || escaped[0] != escaped[1]) {
+                        parts.add(escaped);
+                        continue;
+                    }
+                    lo = escaped[0];
+                } else {
+                    lo = checkChar(c);
+                    pos++;
+                }
+                int hi = lo;
+                if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    char d = regex.charAt(pos);
+                    if (d == '[') {
+                        throw new UnsupportedPatternException("nested class");
+                    }
+                    if (d == '\\') {
+                        int[] escaped = parseEscape(true);
+                        if (escaped.length != 2 || escaped[0] != escaped[1]) {
+                            throw new UnsupportedPatternException("class range to a class");
+                        }
+                        hi = escaped[0];
+                    } else {
+                        hi = checkChar(d);
+                        pos++;
+                    }
+                    if (hi < lo) {
+                        throw new UnsupportedPatternException("bad range");
+                    }
+                }
+                parts.add(new int[]{lo, hi});
+            }
+            int[] ranges = normalize(parts);
+            if (ignoreCase) {
+                ranges = caseClosed(ranges);
+            }
+            return negate ? complement(ranges) : ranges;
+        }
+
+        /**
+         * @return ranges of the escape at pos ('\\'), a single char escape gives one range lo == hi
+         */
+        private int[] parseEscape(boolean inClass) throws UnsupportedPatternException {
+            if (pos + 1 >= regex.length()) {
+                throw new UnsupportedPatternException("trailing backslash");
+            }
+            char e = regex.charAt(pos + 1);
+            pos += 2;
+            switch (e) {
+                case 'd': return DIGIT.clone();
+                case 'D': return complement(DIGIT);
+                case 'w': return WORD.clone();
+                case 'W': return complement(WORD);
+                case 's': return SPACE.clone();
+                case 'S': return complement(SPACE);
+                case 't': return single('\t');
+                case 'n': return single('\n');
+                case 'r': return single('\r');
+                case 'f': return single('\f');
+                case 'a': return single('\u0007');
+                case 'e': return single('\u001B');
+                case 'x': return single(parseHex());
+                case 'u': return single(parseHexDigits(4));
+                case '0': return single(parseOctal());
+                default:
+                    if (Character.isLetterOrDigit(e) || (inClass && e == 'Q')) {
+                        throw new UnsupportedPatternException("escape \\" + e);
+                    }
+                    return single(checkChar(e));
+            }
+        }
+
+        private int parseHex() throws UnsupportedPatternException {
+            if (pos < regex.length() && regex.charAt(pos) == '{') {
+                int close = regex.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedPatternException("\\x{");
+                }
+                int cp;
+                try {
+                    cp = Integer.parseInt(regex.substring(pos + 1, close), 16);
+                } catch (NumberFormatException ex) {
+                    throw new UnsupportedPatternException("\\x{");
+                }
+                pos = close + 1;
+                return checkChar(cp);
+            }
+            return parseHexDigits(2);
+        }
+
+        private int parseHexDigits(int count) throws UnsupportedPatternException {
+            if (pos + count > regex.length()) {
+                throw new UnsupportedPatternException("hex escape");
+            }
+            try {
+                int value = Integer.parseInt(regex.substring(pos, pos + count), 16);
+                pos += count;
+                return checkChar(value);
+            } catch (NumberFormatException ex) {
+                throw new UnsupportedPatternException("hex escape");
+            }
+        }
+
+        private int parseOctal() throws UnsupportedPatternException {
+            int value = 0;
+            int digits = 0;
+            while (pos < regex.length() && digits < 3) {
+                char c = regex.charAt(pos);
+                if (c < '0' || c > '7' || value * 8 + (c - '0') > 0377) {
+                    break;
+                }
+                value = value * 8 + (c - '0');
+                pos++;
+                digits++;
+            }
+            if (digits == 0) {
+                throw new UnsupportedPatternException("octal escape");
+            }
+            return value;
+        }
+
+        private static boolean containsAssertion(Node node) {
+            if (node instanceof AssertNode) {
+                return true;
+            }
+            if (node instanceof RepeatNode) {
+                return containsAssertion(((RepeatNode) node).child);
+            }
+            List<Node> children = node instanceof ConcatNode ? ((ConcatNode) node).children
+                    : node instanceof AltNode ? ((AltNode) node).children : null;
+            if (children != null) {
+                for (Node child : children) {
+                    if (containsAssertion(child)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private Node charNode(int c) {
+            return new CharsNode(caseClosed(single(c)));
+        }
+
+        /**
+         * Supplementary characters would need code point aware matching
+         */
+        private static int checkChar(int c) throws UnsupportedPatternException {
+            if (c > MAX_CHAR || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                throw new UnsupportedPatternException("supplementary character");
+            }
+            return c;
+        }
+
+        /**
+         * With CASE_INSENSITIVE (and no UNICODE_CASE) java.util.regex only folds US-ASCII letters
+         */
+        private int[] caseClosed(int[] ranges) {
+            if (!ignoreCase) {
+                return ranges;
+            }
+            List<int[]> parts = new ArrayList<>();
+            for (int i = 0; i < ranges.length; i += 2) {
+                parts.add(new int[]{ranges[i], ranges[i + 1]});
+                int lo = Math.max(ranges[i], 'A');
+                int hi = Math.min(ranges[i + 1], 'Z');
+                if (lo <= hi) {
+                    parts.add(new int[]{lo + 32, hi + 32});
+                }
+                lo = Math.max(ranges[i], 'a');
+                hi = Math.min(ranges[i + 1], 'z');
+                if (lo <= hi) {
+                    parts.add(new int[]{lo - 32, hi - 32});
+                }
+            }
+            return normalize(parts);
+        }
+
+        private static int[] single(int c) {
+            return new int[]{c, c};
+        }
+    }
+
+    /**
+     * @return sorted, non overlapping, non adjacent ranges covering the parts
+     */
+    static int[] normalize(List<int[]> parts) {
+        List<int[]> flat = new ArrayList<>();
+        for (int[] part : parts) {
+            for (int i = 0; i < part.length; i += 2) {
+                flat.add(new int[]{part[i], part[i + 1]});
+            }
+        }
+        flat.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<Integer> merged = new ArrayList<>();
+        for (int[] range : flat) {
+            int last = merged.size() - 1;
+            if (last > 0 && range[0] <= merged.get(last) + 1) {
+                merged.set(last, Math.max(merged.get(last), range[1]));
+            } else {
+                merged.add(range[0]);
+                merged.add(range[1]);
+            }
+        }
+        int[] ranges = new int[merged.size()];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = merged.get(i);
+        }
+        return ranges;
+    }
+
+    static int[] complement(int[] ranges) {
+        List<int[]> parts = new ArrayList<>();
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                parts.add(new int[]{next, ranges[i] - 1});
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= MAX_CHAR) {
+            parts.add(new int[]{next, MAX_CHAR});
+        }
+        return normalize(parts);
+    }
+}
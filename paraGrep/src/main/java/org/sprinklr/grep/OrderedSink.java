@@ -0,0 +1,105 @@
+package org.sprinklr.grep;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Puts matches back in file order before passing them on: the file is cut into parts (the producers' blocks,
+ * or the chunks with -ws), and a part into pieces numbered in the order its lines were read (its batches).
+ * Line numbers are counted from the start of each part, so a part is only passed on once every earlier part is done
+ * and its lines counted, their sum then offsets the line numbers of the part.
+ * Pieces arrive from any thread in any order and wait in a reorder buffer, in ResultColumns, until every earlier piece is passed on.
+ * Once they take more heap than the budget of the ResultSpill the pieces waiting are spilled to its log,
+ * the piece being written spills itself
+ */
+public class OrderedSink {
+    private final ResultSink downstream;
+    private final ResultSpill spill;
+    private final Map<Integer, Part> pending = new HashMap<>();
+    private int next;
+    private long linesBefore;
+    private long buffered;
+    private long peakBuffered;
+
+    /**
+     * @param downstream
+     * @param spill budget and log of the pieces held
+     */
+    public OrderedSink(ResultSink downstream, ResultSpill spill) {
+        this.downstream = downstream;
+        this.spill = spill;
+    }
+
+    /**
+     * @return budget and log the ResultColumns of the pieces should spill to
+     */
+    public ResultSpill getSpill() {
+        return spill;
+    }
+
+    /**
+     * @param part
+     * @param piece
+     * @param results matches of the piece, in line order
+     */
+    public synchronized void add(int part, int piece, ResultColumns results) {
+        pending.computeIfAbsent(part, p -> new Part()).pieces.put(piece, results);
+        buffered += results.size();
+        peakBuffered = Math.max(peakBuffered, buffered);
+        drain();
+        if (spill.isOver()) {
+            for (Part waiting : pending.values()) {
+                waiting.pieces.values().forEach(ResultColumns::spill);
+            }
+        }
+    }
+
+    /**
+     * Every part from 0 up to the last must be done once, even if it was skipped or reading it failed
+     *
+     * @param part
+     * @param pieces number of pieces added for the part
+     * @param lines number of lines of the part
+     */
+    public synchronized void done(int part, int pieces, long lines) {
+        Part done = pending.computeIfAbsent(part, p -> new Part());
+        done.expected = pieces;
+        done.lines = lines;
+        drain();
+    }
+
+    /**
+     * @return most matches held at once
+     */
+    public synchronized long peakBuffered() {
+        return peakBuffered;
+    }
+
+    /**
+     * Passes on the pieces next in order, the part being read is passed on as its pieces come
+     * rather than once it is complete, its offset is known as soon as the parts before it are done
+     */
+    private void drain() {
+        Part part;
+        while ((part = pending.get(next)) != null) {
+            ResultColumns results;
+            while ((results = part.pieces.remove(part.passed)) != null) {
+                results.passTo(downstream, linesBefore);
+                buffered -= results.size();
+                part.passed++;
+            }
+            if (part.passed != part.expected) {
+                return;
+            }
+            linesBefore += part.lines;
+            pending.remove(next++);
+        }
+    }
+
+    private static class Part {
+        private final Map<Integer, ResultColumns> pieces = new HashMap<>();
+        private int passed;
+        private int expected = -1;
+        private long lines;
+    }
+}
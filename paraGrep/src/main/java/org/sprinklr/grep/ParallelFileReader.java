@@ -2,7 +2,9 @@ package org.sprinklr.grep;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -10,7 +12,6 @@ import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -19,7 +20,7 @@ import java.util.regex.Pattern;
  * and multiple consumer threads to process the lines and match them against regex patterns.
  */
 public class ParallelFileReader {
-    BlockingQueue<LineData> linesQueue = new LinkedBlockingQueue<>();
+    LinesQueue linesQueue;
     int PRODUCER_THREADS;
     int CONSUMER_THREADS;
     String filePath;
@@ -27,59 +28,77 @@ public class ParallelFileReader {
     AtomicInteger activeProducers;
     List<Pattern> regexPatterns;
     LineResult.Builder builder;
-    Result grepResult;
+    RegexEngine regexEngine;
+    LiteralPrefilter prefilter;
+    ResultSink grepResult;
+    CountingSink counter;
+    OrderedSink orderedResult;
     static int LINE_SEP_LEN=System.lineSeparator().getBytes().length;
-    List<Future<Long>> linesPrevFutures;
-    List<Long> linesPrev;
+    static int SPLIT_SEARCH_BLOCK=64*1024;
+    static int WORKERS=Runtime.getRuntime().availableProcessors();
+    static Charset CHARSET=Charset.defaultCharset();
+    ThreadSizing sizing;
+    Rebalancer rebalancer;
 
-    public ParallelFileReader(MyOptions myOptions,int PRODUCER_THREADS, int CONSUMER_THREADS, String filePath,List<Pattern> regexPatterns) {
+    public ParallelFileReader(MyOptions myOptions,int PRODUCER_THREADS, int CONSUMER_THREADS, String filePath,List<Pattern> regexPatterns) throws IOException {
         this.PRODUCER_THREADS = PRODUCER_THREADS;
         this.CONSUMER_THREADS = CONSUMER_THREADS;
         this.filePath = filePath;
         this.myOptions=myOptions;
         this.regexPatterns=regexPatterns;
         this.builder=new LineResult.Builder(myOptions);
+        this.regexEngine=RegexEngine.create(regexPatterns, myOptions.regexEngine);
+        this.prefilter=LiteralPrefilter.of(regexPatterns);
         this.activeProducers=new AtomicInteger();
-        this.grepResult=new Result();
-
-        this.linesPrev = new ArrayList<>(Collections.nCopies(PRODUCER_THREADS + 1, 0L));
-        this.linesPrevFutures=new ArrayList<Future<Long>>(PRODUCER_THREADS+1);
+        this.linesQueue=LinesQueue.create(myOptions);
+        this.grepResult=ResultSink.create(myOptions);
+        this.counter=myOptions.onlyCountLines ? (CountingSink) grepResult : null;
+        // line numbers of a block are only known once the blocks before it are read, a count needs neither
+        this.orderedResult=counter != null ? null : new OrderedSink(grepResult, new ResultSpill(myOptions.spillMemoryMb << 20));
     }
 
     /**
-     * Prints the matching results stored in the grepResult object.
+     * adjusts the end location to the nearest newline character ('\n') within a file,
+     * reading SPLIT_SEARCH_BLOCK bytes at a time; positional reads, so it can run for several split points at once
      */
-    public void printResults() throws ExecutionException, InterruptedException {
-        //        System.out.print(" prevLines : [");
-        for(int i=1; i<=PRODUCER_THREADS; i++){
-            linesPrev.set(i, linesPrevFutures.get(i).get() + linesPrev.get(i - 1));
-//            System.out.print(linesPrev.get(i)+",");
-        }
-//        System.out.println("]");
-        for(LineResult res : grepResult.grepResults ){
-            System.out.println("LineResult : {"
-                    + (res.lineNumber != null ? "lineNumber=" + (res.lineNumber + linesPrev.get(res.blockNumber)) + ", " : "")
-                    + (res.line != null ? "line=" + res.line + ", " : "")
-                    + (res.pattern != null ? "pattern=" + res.pattern : "")
-                    + "}");
+    private long adjustEndLocation(FileChannel channel, long endLocation) throws IOException {
+        long last = channel.size() - 1;
+        ByteBuffer buffer = ByteBuffer.allocate(SPLIT_SEARCH_BLOCK);
+        byte[] bytes = buffer.array();
+        long position = endLocation;
+        while (position < last) {
+            buffer.clear();
+            buffer.limit((int) Math.min(bytes.length, last - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    return position + i;
+                }
+            }
+            position += read;
         }
+        return Math.max(endLocation, last);
     }
 
     /**
-     * adjusts the end location to the nearest newline character ('\n') within a file
+     * Finds the end of every chunk but the last, searching all the split points in parallel
+     *
+     * @return chunk ends, each one the newline at or after the chunk's nominal end
      */
-    private long adjustEndLocation(FileChannel channel, long endLocation) throws Exception {
-        ByteBuffer buffer = ByteBuffer.allocate(1);
-        while (endLocation < channel.size() - 1) {
-            channel.read(buffer, endLocation);
-            buffer.flip();
-            if (buffer.get() == '\n') {
-                break;
-            }
-            buffer.clear();
-            endLocation++;
+    private long[] findChunkEnds(FileChannel channel, long chunkSize, ExecutorService executor) throws InterruptedException, ExecutionException {
+        List<Future<Long>> endFutures = new ArrayList<>(PRODUCER_THREADS);
+        for (int i = 0; i < PRODUCER_THREADS - 1; i++) {
+            long nominalEnd = (i + 1) * chunkSize;
+            endFutures.add(executor.submit(() -> adjustEndLocation(channel, nominalEnd)));
         }
-        return endLocation;
+        long[] ends = new long[endFutures.size()];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = endFutures.get(i).get();
+        }
+        return ends;
     }
 
     /**
@@ -108,14 +127,25 @@ public class ParallelFileReader {
     }
 
     /**
-     * Executes the producer-consumer grep operation
+     * Executes the producer-consumer grep operation.
+     * Thread counts not given are sized from a probe of the start of the file, the consumers are then rebalanced
+     * until the producers are done
      */
     public void execute() {
+        if (myOptions.workStealing) {
+            executeChunked();
+            return;
+        }
         try(FileInputStream fileInputStream= new FileInputStream(filePath);
             FileChannel channel = fileInputStream.getChannel()){
 
             long fileSize = channel.size();
             System.out.println("file size = "+fileSize);
+            // a producer per MB at most, smaller chunks cost more in split searching than they overlap
+            int producerLimit = (int) Math.max(1, Math.min(Integer.MAX_VALUE, fileSize >> 20));
+            this.sizing = ThreadSizing.probe(Collections.singletonList(filePath).iterator(), regexEngine, producerLimit, PRODUCER_THREADS, CONSUMER_THREADS);
+            this.PRODUCER_THREADS = sizing.producers;
+            this.CONSUMER_THREADS = sizing.consumers;
             long chunkSize = fileSize / PRODUCER_THREADS;
 
 //            ExecutorService executor = Executors.newFixedThreadPool(PRODUCER_THREADS+CONSUMER_THREADS+1);
@@ -125,45 +155,54 @@ public class ParallelFileReader {
 
             RejectedExecutionHandler rejectedExecutionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
             BlockingQueue<Runnable>taskQueueConsumer = new ArrayBlockingQueue<>(100);
-            ExecutorService consumerExecutor= new ThreadPoolExecutor(this.CONSUMER_THREADS,this.CONSUMER_THREADS,0,TimeUnit.NANOSECONDS,taskQueueConsumer,rejectedExecutionHandler);
+            ExecutorService consumerExecutor= new ThreadPoolExecutor(sizing.maxConsumers,sizing.maxConsumers,0,TimeUnit.NANOSECONDS,taskQueueConsumer,rejectedExecutionHandler);
 
 //            AtomicInteger linesPut=new AtomicInteger();
 //            AtomicInteger linesConsumed=new AtomicInteger();
 
-            linesPrevFutures.add(0, CompletableFuture.completedFuture(0L) );
+            long[] chunkEnds = findChunkEnds(channel, chunkSize, producerExecutor);
             long position = 0;
             for (int i=0; i<PRODUCER_THREADS; i++) {
                 long start = position;
-                long end = (i == PRODUCER_THREADS - 1) ? fileSize : position + chunkSize;
-                long newEnd;
-                if (i < PRODUCER_THREADS - 1) {
-                    newEnd= adjustEndLocation(channel, end);
-                } else {
-                    newEnd=end;
+                long newEnd = (i == PRODUCER_THREADS - 1) ? fileSize : chunkEnds[i];
+                if (newEnd < start) {
+                    // a single line spans the whole chunk, the previous one already covers it
+                    if (orderedResult != null) {
+                        orderedResult.done(i, 0, 0);
+                    }
+                    continue;
                 }
 //                System.out.println("startPos=" + start + " endPos=" + newEnd);
 //                System.out.println("stChar=" + getCharAtPos(channel,start));
 //                executor.submit(new Producer(filePath,start,newEnd,linesPut,activeProducers));
-                linesPrevFutures.add(i+1, producerExecutor.submit(new Producer(filePath,start,newEnd,activeProducers,i)) );
+                Producer producer = new Producer(filePath,start,newEnd,activeProducers,i);
+                // registered up front, a consumer starting before the producer must not take the work as done
+                activeProducers.incrementAndGet();
+                producerExecutor.submit(producer);
                 position = newEnd+1;
             }
 
-            for(int i=0; i<CONSUMER_THREADS; i++){
+//            for(int i=0; i<CONSUMER_THREADS; i++){
 //                executor.submit(new Consumer(linesConsumed));
-                consumerExecutor.submit(new Consumer());
-            }
+//            }
+            // the chunks are planned already, only the consumers are rebalanced
+            this.rebalancer = new Rebalancer(linesQueue, sizing, () -> consumerExecutor.submit(new Consumer()), null);
+            rebalancer.startConsumers();
 
 //            executor.shutdown();
             producerExecutor.shutdown();
-            consumerExecutor.shutdown();
             try {
 //                executor.awaitTermination(Long.MAX_VALUE,TimeUnit.NANOSECONDS);
-                producerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                while (!producerExecutor.awaitTermination(Rebalancer.TICK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    rebalancer.tick();
+                }
+                consumerExecutor.shutdown();
                 consumerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
             } catch (Exception e){
                 System.out.println("Exception caught : " + e);
                 e.printStackTrace();
             } finally {
+                consumerExecutor.shutdown();
 //                System.out.println( " ... " + linesPut.get() + " lines put in the queue !!!");
 //                System.out.println( " ... " + linesConsumed.get() + " lines consumed from the queue !!!");
             }
@@ -172,6 +211,153 @@ public class ParallelFileReader {
         }
     }
 
+    /**
+     * Executes the grep with the file cut into chunks of -cs MB, handed out to a work stealing pool
+     * whose threads each read and match a whole chunk, so a slow chunk only holds up its own thread.
+     * Lines belong to the chunk their first byte falls in; every chunk finds its own first line, so there
+     * is no planning pass, and the per chunk line counts offset the line numbers as the producers' do.
+     */
+    public void executeChunked() {
+        try(FileInputStream fileInputStream= new FileInputStream(filePath);
+            FileChannel channel = fileInputStream.getChannel()){
+
+            long fileSize = channel.size();
+            System.out.println("file size = "+fileSize);
+            long chunkSize = (long) myOptions.chunkSizeMb * 1024 * 1024;
+            int chunks = (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+
+            ForkJoinPool pool = new ForkJoinPool(WORKERS);
+            ThreadLocal<RegexEngine> workerEngines = ThreadLocal.withInitial(regexEngine::copy);
+            try {
+                pool.invoke(new ChunkRange(channel, chunkSize, 0, chunks, workerEngines));
+            } finally {
+                pool.shutdown();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return position of the first line starting at or after the position
+     */
+    private long nextLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        long fileSize = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(SPLIT_SEARCH_BLOCK);
+        byte[] bytes = buffer.array();
+        // a line starts at position only if the byte before it ends a line
+        long searchFrom = position - 1;
+        while (searchFrom < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, searchFrom);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    return searchFrom + i + 1;
+                }
+            }
+            searchFrom += read;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Range of chunks, split in halves until a single chunk is left, idle threads steal the halves
+     */
+    private class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long chunkSize;
+        private final int from;
+        private final int to;
+        private final ThreadLocal<RegexEngine> workerEngines;
+        private RegexEngine engine;
+        private long lineNumber;
+        private long counted;
+        private ResultColumns held;
+        private byte[] scratch = new byte[1024];
+
+        ChunkRange(FileChannel channel, long chunkSize, int from, int to, ThreadLocal<RegexEngine> workerEngines) {
+            this.channel = channel;
+            this.chunkSize = chunkSize;
+            this.from = from;
+            this.to = to;
+            this.workerEngines = workerEngines;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkRange(channel, chunkSize, from, mid, workerEngines),
+                        new ChunkRange(channel, chunkSize, mid, to, workerEngines));
+                return;
+            }
+            // the chunk is a single piece, held until the chunks before it are passed on
+            this.held = orderedResult != null ? new ResultColumns(builder, regexPatterns, from, orderedResult.getSpill()) : null;
+            try {
+                searchChunk(from);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (held != null) {
+                    orderedResult.add(from, 0, held);
+                    orderedResult.done(from, 1, lineNumber);
+                } else if (counter != null) {
+                    counter.addCount(counted);
+                }
+            }
+        }
+
+        /**
+         * Reads and matches the lines starting in the chunk, counting them
+         */
+        private void searchChunk(int chunk) throws IOException, InterruptedException {
+            long fileSize = channel.size();
+            long chunkStart = Math.min(chunk * chunkSize, fileSize);
+            long chunkEnd = Math.min(chunkStart + chunkSize, fileSize);
+            long scanStart = nextLineStart(channel, chunkStart);
+            long scanEnd = nextLineStart(channel, chunkEnd);
+            if (scanStart >= scanEnd) {
+                return;
+            }
+            this.engine = workerEngines.get();
+            new MappedLineScanner(channel, scanStart, scanEnd).scan(this::matchMappedLine);
+        }
+
+        /**
+         * Decodes and matches one line of a mapped window, lines the prefilter rejects are only counted;
+         * with -c or -cl the matches, or the line, are counted without cutting them out
+         */
+        private void matchMappedLine(MappedByteBuffer buffer, int lineFrom, int lineTo) {
+            ++lineNumber;
+            if (!prefilter.mayMatchAny(buffer, lineFrom, lineTo)) {
+                return;
+            }
+            int length = lineTo - lineFrom;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.position(lineFrom);
+            buffer.get(scratch, 0, length);
+            String line = new String(scratch, 0, length, CHARSET);
+            if (counter != null) {
+                counted += engine.count(line, counter.countsLines());
+                return;
+            }
+            MatchHits hits = engine.findAll(line);
+            for (int h = 0; h < hits.size(); h++) {
+                held.add(lineNumber, line, hits.start(h), hits.end(h), hits.pattern(h));
+            }
+        }
+    }
+
     /**
      * A Callable implementation that reads a portion of a file and puts each line into a queue for processing.
      */
@@ -182,6 +368,10 @@ public class ParallelFileReader {
         long sizeLimit;
         AtomicInteger activeProducers;
         private int blockNumber;
+        private byte[] scratch = new byte[1024];
+        private long mappedLines;
+        private int pieces;
+        private LineBatch batch;
 
         public Producer(String filePath, long start, long end, AtomicInteger activeProducers,int blockNumber) {
             try {
@@ -194,18 +384,21 @@ public class ParallelFileReader {
             this.sizeLimit=this.end-this.start;
             this.activeProducers=activeProducers;
             this.blockNumber=blockNumber;
+            this.batch=linesQueue.newBatch(blockNumber);
         }
 
         /**
          * Reads lines from the file within the specified range and puts them into a queue for processing.
          *
-         * @return The number of lines read; later used to offset the blocks ahead
+         * @return The number of lines read, which offsets the line numbers of the blocks ahead
          */
         @Override
         public Long call() {
+            if (myOptions.memoryMapped) {
+                return callMapped();
+            }
             long lineNumber=0;
             try {
-                activeProducers.incrementAndGet();
 //                System.out.println(" prodcuer {started} : " + activeProducers.get() +" with st="+start+" end="+end);
 
                 randomAccessFile.seek(start);
@@ -219,50 +412,145 @@ public class ParallelFileReader {
 
                     bytesReadTillNow+=bytesReadFromLine;
 //                    System.out.println(Thread.currentThread().getName()+" processed line='"+line+"'" + " read"+bytesReadFromLine+"bytes" );
-                    linesQueue.put(new LineData(lineNumber,line,blockNumber));
+                    putLine(lineNumber,line);
 //                    globalLineNumber.incrementAndGet();
 
                     if (bytesReadTillNow > sizeLimit) {
                         break;
                     }
                 }
+                flushBatch();
+            } catch (CancellationException e) {
+                // a consumer stopped on an error and aborted the queue, it reported the error
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
-                activeProducers.decrementAndGet();
+                producerDone(lineNumber);
                 //                System.out.println(" prodcuer {ended} : " + activeProducers.get());
             }
             return lineNumber;
         }
+
+        /**
+         * Same as call() but scans the range [start, end] straight out of memory mapped windows of the file,
+         * decoding each line once from the mapped bytes instead of going through a BufferedReader.
+         *
+         * @return The number of lines read, which offsets the line numbers of the blocks ahead
+         */
+        private Long callMapped() {
+            long lineNumber=0;
+            try (FileChannel channel = randomAccessFile.getChannel()) {
+                long fileSize = channel.size();
+                long scanStart = Math.min(start, fileSize);
+                long scanEnd = Math.min(end + 1, fileSize);
+                if (scanStart < scanEnd) {
+                    lineNumber = new MappedLineScanner(channel, scanStart, scanEnd).scan(this::putMappedLine);
+                }
+                flushBatch();
+            } catch (CancellationException e) {
+                // a consumer stopped on an error and aborted the queue, it reported the error
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                producerDone(mappedLines);
+            }
+            return lineNumber;
+        }
+
+        /**
+         * Tells the ordered sink how many batches and lines the block had;
+         * the last producer to finish closes the lines queue, consumers exit once they drained it
+         */
+        private void producerDone(long lines) {
+            if (orderedResult != null) {
+                orderedResult.done(blockNumber, pieces, lines);
+            }
+            if (activeProducers.decrementAndGet() == 0) {
+                linesQueue.close();
+            }
+        }
+
+        /**
+         * Decodes one line of a mapped window and puts it into the queue, lines the prefilter rejects are only counted
+         */
+        private void putMappedLine(MappedByteBuffer buffer, int from, int to) throws InterruptedException {
+            ++mappedLines;
+            if (!prefilter.mayMatchAny(buffer, from, to)) {
+                return;
+            }
+            int length = to - from;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.position(from);
+            buffer.get(scratch, 0, length);
+            putLine(mappedLines, new String(scratch, 0, length, CHARSET));
+        }
+
+        /**
+         * Adds the line to the current batch, handing the batch to the consumers once it is full
+         */
+        private void putLine(long lineNumber, String line) throws InterruptedException {
+            if (batch.add(lineNumber, line)) {
+                batch.setPiece(pieces++);
+                linesQueue.put(batch);
+                batch = linesQueue.newBatch(blockNumber);
+            }
+        }
+
+        private void flushBatch() throws InterruptedException {
+            if (batch.size() > 0) {
+                batch.setPiece(pieces++);
+                linesQueue.put(batch);
+                batch = linesQueue.newBatch(blockNumber);
+            }
+        }
     }
 
     /**
-     * A runnable class for that processes LineData objects from a BlockingQueue,
+     * A runnable class for that processes LineBatch objects from the lines queue,
      * matches them against the list of regex patterns,
-     * and adds matching results to a Result.
+     * and adds matching results to the sink, through the ordered sink unless only counting;
+     * a count is added to the CountingSink once per batch, without building any result.
      */
     private class Consumer implements Runnable {
+        private final RegexEngine consumerEngine = regexEngine.copy();
+
         @Override
         public void run(){
             try {
-                LineData lineData;
-                while (activeProducers.get()>0 || !linesQueue.isEmpty() ) {
-                    lineData=linesQueue.poll(1,TimeUnit.MILLISECONDS);
-                    if(lineData==null) continue;
-
-                    for (Pattern pattern : regexPatterns) {
-                        Matcher matcher = pattern.matcher(lineData.getLineContent());
-                        while(matcher.find()) {
-                            LineResult lineResult = builder.build(lineData.getLineNumber(),lineData.getBlockNumber(),matcher.group(), pattern);
-                            grepResult.addResult(lineResult);
+                LineBatch batch;
+                // null once the last producer closed the queue and it is drained
+                while ((batch=linesQueue.take()) != null) {
+                    if (counter != null) {
+                        long counted = 0;
+                        for (int i = 0; i < batch.size(); i++) {
+                            counted += consumerEngine.count(batch.getLineContent(i), counter.countsLines());
+                        }
+                        counter.addCount(counted);
+                        linesQueue.release(batch);
+                        if(rebalancer.retire()) return;
+                        continue;
+                    }
+                    ResultColumns held = new ResultColumns(builder, regexPatterns, batch.getBlockNumber(), orderedResult.getSpill());
+                    for (int i = 0; i < batch.size(); i++) {
+                        String line = batch.getLineContent(i);
+                        MatchHits hits = consumerEngine.findAll(line);
+                        for (int h = 0; h < hits.size(); h++) {
+                            held.add(batch.getLineNumber(i), line, hits.start(h), hits.end(h), hits.pattern(h));
                         }
                     }
+                    orderedResult.add(batch.getBlockNumber(), batch.getPiece(), held);
+                    linesQueue.release(batch);
+                    if(rebalancer.retire()) return;
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+            } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-            } finally {
-//                System.out.println(" consumer DIED !!!!!!");
+                linesQueue.abort(e);
+            } catch (RuntimeException | Error e) {
+                // e.g. a StackOverflowError of java.util.regex on a long line; without a consumer the producers would wait forever
+                e.printStackTrace();
+                linesQueue.abort(e);
             }
         }
     }
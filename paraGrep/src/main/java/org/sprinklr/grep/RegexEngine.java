@@ -0,0 +1,66 @@
+package org.sprinklr.grep;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches all the patterns of a search against one line at a time, with the results
+ * java.util.regex gives for "for each pattern: while (matcher.find())" over the line.
+ * Implementations keep per thread buffers, every thread works on its own copy()
+ */
+public interface RegexEngine {
+
+    /**
+     * Finds every match of every pattern in the line.
+     *
+     * @param line
+     * @return the matches ordered by pattern, then by position; the buffer is reused by the next call
+     */
+    MatchHits findAll(String line);
+
+    /**
+     * @param patternIndex
+     * @param line
+     * @return true if the pattern matches anywhere in the line
+     */
+    boolean find(int patternIndex, String line);
+
+    /**
+     * @param line
+     * @return true if any of the patterns matches the line, looking no further than the first one that does
+     */
+    boolean findAny(String line);
+
+    /**
+     * Counts for -c and -cl, without building results or cutting the matched text out of the line
+     *
+     * @param line
+     * @param lines true to count the line once if any pattern matches it, false to count every match
+     * @return matches in the line, or 0 or 1 when counting lines
+     */
+    default int count(String line, boolean lines) {
+        if (lines) {
+            return findAny(line) ? 1 : 0;
+        }
+        return findAll(line).size();
+    }
+
+    /**
+     * @return an engine sharing this one's compiled state, to be used by another thread
+     */
+    RegexEngine copy();
+
+    /**
+     * @param regexPatterns
+     * @param name value of the -re option: auto or dfa
+     * @return the engine for the patterns
+     */
+    static RegexEngine create(List<Pattern> regexPatterns, String name) {
+        switch (name) {
+            case "dfa":
+                return new DfaEngine(regexPatterns, true);
+            default:
+                return new DfaEngine(regexPatterns, false);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.sprinklr.grep;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches of one block held in columns of primitives rather than as a LineResult each, for the pieces waiting
+ * in the OrderedSink: the line number within the block, the index of the pattern, and the end of the matched text,
+ * which is appended to a single buffer instead of being cut out as a substring per match.
+ * The text ends are only kept if the text is shown, so a match costs 10 to 14 bytes plus its text,
+ * against a hundred or so for a LineResult with its Long and substring;
+ * the LineResults are only built, through the Builder, a chunk at a time as the matches are passed on.
+ * The index of the pattern takes a short, an int in a search of more than SHORT_PATTERNS patterns.
+ * Written by a single thread, then handed over whole.
+ * Once the pieces held take more heap than the budget of the ResultSpill the columns are moved to its log,
+ * a row of line number, pattern and length prefixed UTF-8 text per match, and start over empty;
+ * the rows spilled are read back first as the matches are passed on
+ */
+public class ResultColumns {
+    static int PASS_CHUNK = 1024;
+    static int ACCOUNT_EVERY = 1024;
+    // pattern indexes a short column holds
+    static final int SHORT_PATTERNS = Short.MAX_VALUE + 1;
+
+    private final LineResult.Builder builder;
+    private final List<Pattern> regexPatterns;
+    private final ResultSpill spill;
+    private final boolean keepText;
+    private final int blockNumber;
+    private int size;
+    private long[] lineNumbers = new long[16];
+    // a short per match, an int once the patterns outnumber what a short holds
+    private short[] patterns;
+    private int[] widePatterns;
+    private int[] textEnds;
+    private StringBuilder text = new StringBuilder();
+    private List<long[]> spilled;
+    private int spilledSize;
+    private long reserved;
+
+    /**
+     * @param builder
+     * @param regexPatterns
+     * @param blockNumber block (or chunk) the matches are in
+     * @param spill budget and log to spill to, null to hold everything on the heap
+     */
+    public ResultColumns(LineResult.Builder builder, List<Pattern> regexPatterns, int blockNumber, ResultSpill spill) {
+        this.builder = builder;
+        this.regexPatterns = regexPatterns;
+        this.spill = spill;
+        this.keepText = builder.showsLines();
+        if (regexPatterns.size() > SHORT_PATTERNS) {
+            this.widePatterns = new int[16];
+        } else {
+            this.patterns = new short[16];
+        }
+        this.blockNumber = blockNumber;
+        this.textEnds = keepText ? new int[16] : null;
+    }
+
+    /**
+     * @param lineNumber within the block
+     * @param line whole line the match is in
+     * @param start start of the match in the line
+     * @param end end of the match in the line
+     * @param pattern index of the pattern
+     */
+    public void add(long lineNumber, String line, int start, int end, int pattern) {
+        if (size == lineNumbers.length) {
+            int grown = size * 2;
+            lineNumbers = Arrays.copyOf(lineNumbers, grown);
+            if (widePatterns != null) {
+                widePatterns = Arrays.copyOf(widePatterns, grown);
+            } else {
+                patterns = Arrays.copyOf(patterns, grown);
+            }
+            if (keepText) {
+                textEnds = Arrays.copyOf(textEnds, grown);
+            }
+        }
+        lineNumbers[size] = lineNumber;
+        if (widePatterns != null) {
+            widePatterns[size] = pattern;
+        } else {
+            patterns[size] = (short) pattern;
+        }
+        if (keepText) {
+            text.append(line, start, end);
+            textEnds[size] = text.length();
+        }
+        size++;
+        if (spill != null && size % ACCOUNT_EVERY == 0) {
+            reserve();
+            if (spill.isOver()) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * @return number of matches held, spilled ones included
+     */
+    public int size() {
+        return spilledSize + size;
+    }
+
+    /**
+     * Moves the matches on the heap to the log of the ResultSpill, a chunk at a time, the columns start over empty
+     */
+    public void spill() {
+        if (spill == null || size == 0) {
+            return;
+        }
+        if (spilled == null) {
+            spilled = new ArrayList<>();
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(ResultSpill.CHUNK_BYTES);
+        int textStart = 0;
+        for (int i = 0; i < size; i++) {
+            byte[] matched = null;
+            if (keepText) {
+                matched = text.substring(textStart, textEnds[i]).getBytes(StandardCharsets.UTF_8);
+                textStart = textEnds[i];
+            }
+            int rowBytes = 10 + (widePatterns != null ? 2 : 0) + (keepText ? 4 + matched.length : 0);
+            if (chunk.remaining() < rowBytes) {
+                spilled.add(spill.append(chunk));
+                chunk = rowBytes > chunk.capacity() ? ByteBuffer.allocate(rowBytes) : chunk.clear();
+            }
+            chunk.putLong(lineNumbers[i]);
+            if (widePatterns != null) {
+                chunk.putInt(widePatterns[i]);
+            } else {
+                chunk.putShort(patterns[i]);
+            }
+            if (keepText) {
+                chunk.putInt(matched.length).put(matched);
+            }
+        }
+        spilled.add(spill.append(chunk));
+        spill.spilled(size);
+        spilledSize += size;
+        size = 0;
+        lineNumbers = new long[16];
+        if (widePatterns != null) {
+            widePatterns = new int[16];
+        } else {
+            patterns = new short[16];
+        }
+        textEnds = keepText ? new int[16] : null;
+        text = new StringBuilder();
+        reserve();
+    }
+
+    /**
+     * Builds the LineResults of the matches and adds them to the sink, a chunk at a time,
+     * so only a chunk of them is on the heap at once
+     *
+     * @param downstream
+     * @param linesBefore lines of the blocks before this one, added to the line numbers
+     */
+    public void passTo(ResultSink downstream, long linesBefore) {
+        List<LineResult> chunk = new ArrayList<>(Math.min(size(), PASS_CHUNK));
+        if (spilled != null) {
+            byte[] matched = new byte[64];
+            for (long[] extent : spilled) {
+                ByteBuffer rows = spill.map(extent);
+                while (rows.hasRemaining()) {
+                    long lineNumber = rows.getLong();
+                    int pattern = widePatterns != null ? rows.getInt() : rows.getShort();
+                    String line = null;
+                    if (keepText) {
+                        int length = rows.getInt();
+                        if (length > matched.length) {
+                            matched = new byte[Math.max(length, matched.length * 2)];
+                        }
+                        rows.get(matched, 0, length);
+                        line = new String(matched, 0, length, StandardCharsets.UTF_8);
+                    }
+                    chunk.add(builder.build(lineNumber + linesBefore, blockNumber, line, regexPatterns.get(pattern)));
+                    if (chunk.size() == PASS_CHUNK) {
+                        downstream.addAll(chunk);
+                        chunk.clear();
+                    }
+                }
+            }
+        }
+        int textStart = 0;
+        for (int i = 0; i < size; i++) {
+            String matched = null;
+            if (keepText) {
+                matched = text.substring(textStart, textEnds[i]);
+                textStart = textEnds[i];
+            }
+            chunk.add(builder.build(lineNumbers[i] + linesBefore, blockNumber, matched, regexPatterns.get(widePatterns != null ? widePatterns[i] : patterns[i])));
+            if (chunk.size() == PASS_CHUNK) {
+                downstream.addAll(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            downstream.addAll(chunk);
+        }
+        if (spill != null) {
+            spill.reserve(-reserved);
+            reserved = 0;
+        }
+    }
+
+    /**
+     * Brings the heap reserved from the budget up to date with the size of the columns
+     */
+    private void reserve() {
+        long bytes = (widePatterns != null ? 12L : 10L) * lineNumbers.length + 2L * text.capacity();
+        if (keepText) {
+            bytes += 4L * textEnds.length;
+        }
+        spill.reserve(bytes - reserved);
+        reserved = bytes;
+    }
+}
@@ -0,0 +1,59 @@
+package org.sprinklr.grep;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+/**
+ * Where the matches go as they are found, so that output starts with the first match
+ * and memory does not grow with the number of matches.
+ * Implementations may be called from several threads at once
+ */
+public interface ResultSink {
+
+    /**
+     * @param lineResult
+     */
+    void add(LineResult lineResult);
+
+    /**
+     * Adds the matches in one go, a sink shared by threads takes its lock once for all of them
+     *
+     * @param lineResults
+     */
+    default void addAll(List<LineResult> lineResults) {
+        for (LineResult lineResult : lineResults) {
+            add(lineResult);
+        }
+    }
+
+    /**
+     * Called once the search is done, writes out whatever is still buffered
+     */
+    void finish();
+
+    /**
+     * @return matches added so far
+     */
+    long count();
+
+    default void printCount() {
+        System.out.println("Total matches found  : " + count());
+    }
+
+    /**
+     * @param options
+     * @return the sink selected by the options: a count with -c or -cl, else the matches printed to -o or stdout
+     * @throws IOException if the -o file cannot be created
+     */
+    static ResultSink create(MyOptions options) throws IOException {
+        if (options.onlyCountLines) {
+            return new CountingSink(options.countLines);
+        }
+        if (options.outputFile != null) {
+            return new PrintingSink(new OutputStreamWriter(new FileOutputStream(options.outputFile)), true);
+        }
+        return new PrintingSink(new OutputStreamWriter(System.out), false);
+    }
+}
@@ -0,0 +1,108 @@
+package org.sprinklr.grep;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heap budget of the reorder buffer, and the temp file matches go to once it is exceeded:
+ * an append only log written a chunk at a time by whichever thread spills, and read back through memory mapped
+ * segments as the matches are passed on, so printing a spilled piece is a sequential read rather than garbage.
+ * The file is only created on the first spill and is deleted when closed
+ */
+public class ResultSpill {
+    static int CHUNK_BYTES = 1 << 20;
+
+    private final long budgetBytes;
+    private final AtomicLong heldBytes = new AtomicLong();
+    private final LongAdder spilledMatches = new LongAdder();
+    private FileChannel channel;
+    private long length;
+
+    /**
+     * @param budgetBytes heap the held matches may take before they are spilled
+     */
+    public ResultSpill(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * @param bytes heap taken, or given back if negative
+     */
+    public void reserve(long bytes) {
+        heldBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return true if the held matches take more than the budget
+     */
+    public boolean isOver() {
+        return heldBytes.get() > budgetBytes;
+    }
+
+    /**
+     * Writes the chunk at the end of the log
+     *
+     * @param chunk filled, not yet flipped
+     * @return position and length of the chunk in the log
+     */
+    public synchronized long[] append(ByteBuffer chunk) {
+        chunk.flip();
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(Files.createTempFile("grep-spill", ".log"),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            long position = length;
+            while (chunk.hasRemaining()) {
+                length += channel.write(chunk, length);
+            }
+            return new long[]{position, length - position};
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param extent position and length returned by append()
+     * @return the chunk, mapped read only
+     */
+    public synchronized MappedByteBuffer map(long[] extent) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, extent[0], extent[1]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param matches number of matches moved to the log
+     */
+    public void spilled(int matches) {
+        spilledMatches.add(matches);
+    }
+
+    /**
+     * Deletes the log
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return spilledMatches.sum() + " matches, " + (length >> 10) + " KB";
+    }
+}
@@ -0,0 +1,126 @@
+package org.sprinklr.grep;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Picks how many producer and consumer threads to start from the cores and a probe of the input:
+ * the share of CPU time reading takes against matching splits the cores between producers and consumers,
+ * and the time the probe waited on storage beyond its CPU time lets that many more producers overlap their reads.
+ * The limits leave room for the Rebalancer to add threads while the search runs
+ */
+final class ThreadSizing {
+    static int CORES = Runtime.getRuntime().availableProcessors();
+    static int MAX_IO_FACTOR = 8;
+    static long PROBE_BYTES = 4L * 1024 * 1024;
+    static int PROBE_FILES = 64;
+    // share of the CPU taken as reading when the probe could not be matched
+    private static final double DEFAULT_READ_SHARE = 0.5;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    final int producers;
+    final int consumers;
+    final int maxProducers;
+    final int maxConsumers;
+    final boolean fixedProducers;
+    final boolean fixedConsumers;
+    private final String reason;
+
+    private ThreadSizing(int producers, int consumers, int maxProducers, int maxConsumers,
+                         boolean fixedProducers, boolean fixedConsumers, String reason) {
+        this.producers = producers;
+        this.consumers = consumers;
+        this.maxProducers = maxProducers;
+        this.maxConsumers = maxConsumers;
+        this.fixedProducers = fixedProducers;
+        this.fixedConsumers = fixedConsumers;
+        this.reason = reason;
+    }
+
+    /**
+     * Reads the first lines of the files and matches them, timing both;
+     * if matching them fails the cores are split evenly between the producers and the consumers
+     *
+     * @param paths files in the order they will be searched
+     * @param regexEngine
+     * @param producerLimit producers that can have work at all, e.g. the number of files
+     * @param producerThreads producers asked for with -pt, 0 to size them
+     * @param consumerThreads consumers asked for with -ct, 0 to size them
+     * @return the sizing
+     */
+    static ThreadSizing probe(Iterator<String> paths, RegexEngine regexEngine, int producerLimit, int producerThreads, int consumerThreads) {
+        producerLimit = Math.max(1, producerLimit);
+        if (producerThreads > 0 && consumerThreads > 0) {
+            return new ThreadSizing(producerThreads, consumerThreads, producerThreads, consumerThreads, true, true, "as asked");
+        }
+        List<String> lines = new ArrayList<>();
+        long bytes = 0;
+        int files = 0;
+        long readWall = System.nanoTime();
+        long readCpu = cpuNanos();
+        while (bytes < PROBE_BYTES && files < PROBE_FILES && paths.hasNext()) {
+            files++;
+            try (BufferedReader reader = new BufferedReader(new FileReader(paths.next()))) {
+                String line;
+                while (bytes < PROBE_BYTES && (line = reader.readLine()) != null) {
+                    lines.add(line);
+                    bytes += line.length() + 1;
+                }
+            } catch (IOException e) {
+                // reported by the producer reading the file
+            }
+        }
+        readWall = System.nanoTime() - readWall;
+        readCpu = cpuNanos() - readCpu;
+
+        long matchCpu = cpuNanos();
+        String failure = null;
+        try {
+            RegexEngine probeEngine = regexEngine.copy();
+            for (String line : lines) {
+                probeEngine.findAll(line);
+            }
+        } catch (RuntimeException | Error e) {
+            // e.g. a StackOverflowError of java.util.regex on a long line: the consumer meeting it reports it,
+            // the sizing must not be what stops the search
+            failure = String.valueOf(e);
+        }
+        matchCpu = cpuNanos() - matchCpu;
+
+        double readShare = failure != null ? DEFAULT_READ_SHARE : (double) readCpu / Math.max(1, readCpu + matchCpu);
+        double ioFactor = Math.min(MAX_IO_FACTOR, Math.max(1.0, (double) readWall / Math.max(1, readCpu)));
+        int producers = producerThreads > 0 ? producerThreads
+                : clamp((int) Math.round(CORES * readShare * ioFactor), 1, producerLimit);
+        int consumers = consumerThreads > 0 ? consumerThreads
+                : clamp((int) Math.round(CORES * (1 - readShare)), 1, CORES);
+        int maxProducers = producerThreads > 0 ? producerThreads : Math.max(producers, Math.min(CORES * MAX_IO_FACTOR, producerLimit));
+        int maxConsumers = consumerThreads > 0 ? consumerThreads : Math.max(consumers, CORES);
+        String reason = failure != null
+                ? String.format("cores=%d, matching the probe failed with %s, cores split evenly", CORES, failure)
+                : String.format("cores=%d, probed %d KB: reading %.0f%% of cpu, %.1fx waiting on storage",
+                CORES, bytes >> 10, readShare * 100, ioFactor);
+        return new ThreadSizing(producers, consumers, maxProducers, maxConsumers, producerThreads > 0, consumerThreads > 0, reason);
+    }
+
+    /**
+     * @return CPU time of the current thread, wall time if the JVM does not measure it
+     */
+    static long cpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public String toString() {
+        return "producers=" + producers + " consumers=" + consumers + " (" + reason + ")";
+    }
+}
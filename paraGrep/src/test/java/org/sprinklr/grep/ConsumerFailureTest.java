@@ -0,0 +1,93 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * A consumer dying on an error must not leave the producers blocked on a full queue
+ */
+public class ConsumerFailureTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void failingConsumerReleasesBlockedProducerOfBatchQueue() throws Exception {
+        assertSearchEnds(new LineBatchQueue(1, 1), "-c");
+        assertSearchEnds(new LineBatchQueue(1, 1), "-n");
+    }
+
+    @Test
+    public void failingConsumerReleasesBlockedProducerOfRing() throws Exception {
+        assertSearchEnds(new RingLinesQueue(2, 1, 1 << 20, "park"), "-c");
+        assertSearchEnds(new RingLinesQueue(2, 1, 1 << 20, "park"), "-n");
+    }
+
+    /**
+     * Searches a file with a single producer and a single consumer whose engine fails on the first line:
+     * the search must end, the producer being stopped by the aborted queue
+     */
+    private void assertSearchEnds(LinesQueue linesQueue, String option) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add("line " + i);
+        }
+        Path file = Files.write(temp.resolve("lines.txt"), lines);
+        MyOptions options = new MyOptions(Arrays.asList(option, "-pt", "1", "-ct", "1"));
+        ParallelFileReader reader = new ParallelFileReader(options, 1, 1, file.toString(),
+                Collections.singletonList(Pattern.compile("line")));
+        reader.linesQueue = linesQueue;
+        reader.regexEngine = new FailingEngine();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> search = executor.submit(reader::execute);
+            search.get(30, TimeUnit.SECONDS);
+            assertNull(linesQueue.take());
+        } finally {
+            executor.shutdownNow();
+            if (reader.orderedResult != null) {
+                reader.orderedResult.getSpill().close();
+            }
+        }
+    }
+
+    /**
+     * Fails as java.util.regex does on a line too long for its recursion
+     */
+    private static class FailingEngine implements RegexEngine {
+        @Override
+        public MatchHits findAll(String line) {
+            throw new StackOverflowError("expected failure of the test engine");
+        }
+
+        @Override
+        public boolean find(int patternIndex, String line) {
+            return findAll(line) != null;
+        }
+
+        @Override
+        public boolean findAny(String line) {
+            return findAll(line) != null;
+        }
+
+        @Override
+        public RegexEngine copy() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LineIndexTest {
+    private int checkpointLines;
+    private int rangeBytes;
+
+    @TempDir
+    Path temp;
+
+    /**
+     * Small checkpoints and ranges, so a few hundred bytes span many of each
+     */
+    @BeforeEach
+    public void shrink() {
+        checkpointLines = LineIndex.CHECKPOINT_LINES;
+        rangeBytes = LineIndex.RANGE_BYTES;
+        LineIndex.CHECKPOINT_LINES = 3;
+        LineIndex.RANGE_BYTES = 16;
+    }
+
+    @AfterEach
+    public void restore() {
+        LineIndex.CHECKPOINT_LINES = checkpointLines;
+        LineIndex.RANGE_BYTES = rangeBytes;
+    }
+
+    @Test
+    public void offsetsOfRandomFilesMatchALinearScan() throws IOException {
+        for (long seed = 1; seed <= 50; seed++) {
+            Random random = new Random(seed);
+            StringBuilder content = new StringBuilder();
+            for (int l = random.nextInt(60); l > 0; l--) {
+                for (int c = random.nextInt(12); c > 0; c--) {
+                    content.append((char) ('a' + random.nextInt(26)));
+                }
+                content.append(random.nextInt(5) == 0 ? "\r\n" : "\n");
+            }
+            if (random.nextBoolean()) {
+                content.append("last");
+            }
+            Path file = Files.write(temp.resolve("file" + seed + ".txt"), content.toString().getBytes(ParallelFileReader.CHARSET));
+            assertIndexed(file, "seed " + seed);
+        }
+    }
+
+    @Test
+    public void emptyFileHasNoLines() throws IOException {
+        Path file = Files.write(temp.resolve("empty.txt"), new byte[0]);
+        LineIndex index = LineIndex.open(file);
+        assertEquals(0, index.lines());
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertEquals(-1, index.offsetOf(channel, 1));
+            assertEquals(0, index.lineAt(channel, 0));
+        }
+    }
+
+    @Test
+    public void sidecarIsReusedUntilTheFileChanges() throws IOException {
+        Path file = Files.write(temp.resolve("file.txt"), "a\nbb\nccc\ndddd\neeeee\n".getBytes(ParallelFileReader.CHARSET));
+        assertTrue(LineIndex.open(file).toString().endsWith("built"));
+        assertTrue(Files.exists(temp.resolve("file.txt.lidx")));
+        assertTrue(LineIndex.open(file).toString().endsWith("read from the sidecar"));
+        assertIndexed(file, "sidecar");
+
+        Files.write(file, "f\ng\n".getBytes(ParallelFileReader.CHARSET), StandardOpenOption.APPEND);
+        LineIndex rebuilt = LineIndex.open(file);
+        assertTrue(rebuilt.toString().endsWith("built"));
+        assertEquals(7, rebuilt.lines());
+        assertIndexed(file, "rebuilt");
+    }
+
+    /**
+     * Checks the index of the file against the line starts found by a scan of all its bytes
+     */
+    private static void assertIndexed(Path file, String where) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i++) {
+            if (i == 0 || bytes[i - 1] == '\n') {
+                starts.add(i);
+            }
+        }
+        List<String> expectedLines = new ArrayList<>();
+        for (int l = 0; l < starts.size(); l++) {
+            int start = starts.get(l);
+            int end = l + 1 < starts.size() ? starts.get(l + 1) - 1 : bytes.length;
+            if (end == bytes.length && end > start && bytes[end - 1] == '\n') {
+                end--;
+            }
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            expectedLines.add(new String(bytes, start, end - start, ParallelFileReader.CHARSET));
+        }
+
+        LineIndex index = LineIndex.open(file);
+        assertEquals(starts.size(), index.lines(), where);
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertEquals(-1, index.offsetOf(channel, 0), where);
+            assertEquals(-1, index.offsetOf(channel, starts.size() + 1), where);
+            for (int l = 0; l < starts.size(); l++) {
+                assertEquals((long) starts.get(l), index.offsetOf(channel, l + 1), where + ", line " + (l + 1));
+            }
+            long line = 0;
+            for (int offset = 0; offset < bytes.length; offset++) {
+                if (offset == 0 || bytes[offset - 1] == '\n') {
+                    line++;
+                }
+                assertEquals(line, index.lineAt(channel, offset), where + ", offset " + offset);
+            }
+            assertEquals(0, index.lineAt(channel, bytes.length), where);
+            for (int first = 1; first <= starts.size(); first += 2) {
+                int count = 1 + first % 4;
+                List<String> expected = expectedLines.subList(first - 1, Math.min(expectedLines.size(), first - 1 + count));
+                assertEquals(expected, index.lines(channel, first, count), where + ", lines from " + first);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.sprinklr.grep;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ResultColumnsTest {
+    private static final LineResult.Builder BUILDER = new LineResult.Builder(new MyOptions(Arrays.asList("-n", "-l", "-sp")));
+
+    /**
+     * Indexes around the largest a short holds come back as their own pattern, held on the heap or spilled
+     */
+    @Test
+    public void patternIndexesAtTheShortBoundaryKeepTheirPattern() {
+        List<Pattern> all = new ArrayList<>();
+        for (int i = 0; i <= ResultColumns.SHORT_PATTERNS; i++) {
+            all.add(Pattern.compile("p" + i));
+        }
+        for (int count : new int[]{ResultColumns.SHORT_PATTERNS, ResultColumns.SHORT_PATTERNS + 1}) {
+            List<Pattern> patterns = all.subList(0, count);
+            int[] indexes = {0, 1, Short.MAX_VALUE - 1, Short.MAX_VALUE, count - 1};
+            List<String> expected = new ArrayList<>();
+            for (int index : indexes) {
+                expected.add("p" + index);
+            }
+            for (boolean spilled : new boolean[]{false, true}) {
+                ResultSpill spill = new ResultSpill(Long.MAX_VALUE);
+                try {
+                    ResultColumns columns = new ResultColumns(BUILDER, patterns, 0, spill);
+                    for (int i = 0; i < indexes.length; i++) {
+                        String line = "p" + indexes[i];
+                        columns.add(i + 1, line, 0, line.length(), indexes[i]);
+                    }
+                    if (spilled) {
+                        columns.spill();
+                    }
+                    List<String> passed = new ArrayList<>();
+                    columns.passTo(new ResultSink() {
+                        @Override
+                        public void add(LineResult lineResult) {
+                            assertEquals(lineResult.line, lineResult.pattern);
+                            passed.add(lineResult.pattern);
+                        }
+
+                        @Override
+                        public void finish() {
+                        }
+
+                        @Override
+                        public long count() {
+                            return passed.size();
+                        }
+                    }, 0);
+                    assertEquals(expected, passed, count + " patterns, spilled " + spilled);
+                } finally {
+                    spill.close();
+                }
+            }
+        }
+    }
+}